@@ -0,0 +1,85 @@
+package com.unipi.lab3.cross.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.unipi.lab3.cross.model.OrderBook;
+
+/**
+ * bursts of limit orders around the spread,
+ * matched continuously or collected and matched by a single batch auction
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AuctionBenchmark {
+
+    // orders per burst, one auction per burst
+    private static final int BURST = 100;
+
+    // distance of the orders from the spread, crossing orders included
+    private static final int RANGE = 5;
+
+    // number of distinct takers, so orders of a burst can trade with each other
+    private static final int TAKERS = 8;
+
+    @Param({"10", "100"})
+    public int depth;
+
+    private OrderBook continuousBook;
+    private OrderBook auctionBook;
+    private SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void silence () {
+        BookFixture.silenceConsole();
+    }
+
+    // fresh books every iteration, resting orders make them grow
+    @Setup(Level.Iteration)
+    public void setup () {
+        continuousBook = BookFixture.newBook(depth, 1);
+
+        auctionBook = BookFixture.newBook(depth, 1);
+        auctionBook.setAuctionInterval(1);
+
+        random = new SplittableRandom(42);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public int continuous () {
+        int last = 0;
+
+        for (int i = 0; i < BURST; i++) {
+            last = insert(continuousBook, i);
+        }
+
+        return last;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public int auction () {
+        for (int i = 0; i < BURST; i++) {
+            insert(auctionBook, i);
+        }
+
+        return auctionBook.runAuction();
+    }
+
+    private int insert (OrderBook book, int i) {
+        boolean bid = random.nextBoolean();
+        int offset = random.nextInt(-RANGE, RANGE + 1);
+
+        int price = bid ? BookFixture.BEST_BID + offset : BookFixture.BEST_ASK + offset;
+
+        return book.execLimitOrder("taker" + (i % TAKERS), bid ? "bid" : "ask", BookFixture.ORDER_SIZE, price);
+    }
+}
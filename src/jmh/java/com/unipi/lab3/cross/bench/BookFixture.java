@@ -0,0 +1,126 @@
+package com.unipi.lab3.cross.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.unipi.lab3.cross.model.OrderBook;
+import com.unipi.lab3.cross.model.OrderGroup;
+import com.unipi.lab3.cross.model.orders.LimitOrder;
+import com.unipi.lab3.cross.model.orders.StopOrder;
+import com.unipi.lab3.cross.util.AsyncLogger;
+
+/**
+ * helpers to build order books for the benchmarks
+ * levels are built directly in the maps, without going through the engine
+ */
+
+public final class BookFixture {
+
+    // best prices of a freshly built book
+    public static final int BEST_ASK = 10001;
+    public static final int BEST_BID = 9999;
+
+    // size of every resting order
+    public static final int ORDER_SIZE = 10;
+
+    // number of distinct makers, resting orders never belong to the taker
+    private static final int MAKERS = 16;
+
+    public static final String TAKER = "taker";
+
+    private BookFixture () {}
+
+    /**
+     * discards console output and filters out the engine log events,
+     * so benchmarks measure matching only
+     */
+    public static void silenceConsole () {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        AsyncLogger.get().setLevel(AsyncLogger.Level.ERROR);
+    }
+
+    /**
+     * builds an order book with the given depth on both sides
+     *
+     * @param depth number of price levels per side
+     * @param ordersPerLevel number of resting orders per level
+     * @return a new order book without event consumers
+     */
+    public static OrderBook newBook (int depth, int ordersPerLevel) {
+        ConcurrentSkipListMap<Integer, OrderGroup> asks = new ConcurrentSkipListMap<>();
+        ConcurrentSkipListMap<Integer, OrderGroup> bids = new ConcurrentSkipListMap<>(Comparator.reverseOrder());
+
+        OrderBook book = new OrderBook(asks, bids, new ConcurrentLinkedQueue<>(), new ConcurrentLinkedQueue<>());
+
+        for (int i = 0; i < depth; i++) {
+            asks.put(BEST_ASK + i, newLevel(book, "ask", BEST_ASK + i, ordersPerLevel));
+            bids.put(BEST_BID - i, newLevel(book, "bid", BEST_BID - i, ordersPerLevel));
+        }
+
+        // refresh best prices and spread
+        book.setAskOrders(asks);
+        book.setBidOrders(bids);
+
+        return book;
+    }
+
+    /**
+     * builds a price level with resting orders of different makers
+     *
+     * @param book order book providing the order ids
+     * @param type side of the level
+     * @param price price of the level
+     * @param ordersPerLevel number of orders in the level
+     * @return the new level
+     */
+    public static OrderGroup newLevel (OrderBook book, String type, int price, int ordersPerLevel) {
+        OrderGroup group = new OrderGroup();
+
+        for (int i = 0; i < ordersPerLevel; i++) {
+            group.addOrder(new LimitOrder(book.counterOrderId(), "maker" + (i % MAKERS), type, ORDER_SIZE, price));
+        }
+
+        return group;
+    }
+
+    /**
+     * puts back the best ask levels removed by a sweep
+     *
+     * @param book order book to refill
+     * @param levels number of levels from the best ask
+     * @param ordersPerLevel number of orders per level
+     */
+    public static void refillAsks (OrderBook book, int levels, int ordersPerLevel) {
+        ConcurrentSkipListMap<Integer, OrderGroup> asks = book.getLimitAsks();
+
+        for (int i = 0; i < levels; i++) {
+            int price = BEST_ASK + i;
+
+            OrderGroup group = asks.get(price);
+
+            // level partially or fully consumed, rebuild it
+            if (group == null || group.getSize() != ordersPerLevel * ORDER_SIZE)
+                asks.put(price, newLevel(book, "ask", price, ordersPerLevel));
+        }
+
+        book.setAskOrders(asks);
+    }
+
+    /**
+     * adds stop bids triggered one after the other as the best ask moves up
+     *
+     * @param book order book to add the stops to
+     * @param count number of stop orders
+     * @param size size of every stop order
+     */
+    public static void addStopCascade (OrderBook book, int count, int size) {
+        for (int i = 0; i < count; i++) {
+            book.getStopBids().add(new StopOrder(book.counterOrderId(), "stopper" + (i % MAKERS), "bid", size, BEST_ASK + 1 + i));
+        }
+
+        book.restoreOrderIndex();
+    }
+}
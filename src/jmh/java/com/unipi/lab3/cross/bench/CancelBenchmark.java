@@ -0,0 +1,72 @@
+package com.unipi.lab3.cross.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.unipi.lab3.cross.model.OrderBook;
+import com.unipi.lab3.cross.model.OrderGroup;
+import com.unipi.lab3.cross.model.orders.LimitOrder;
+
+/**
+ * cancellation of a resting ask at a given position in the book,
+ * the order is put back after every invocation
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CancelBenchmark {
+
+    @Param({"100", "1000"})
+    public int depth;
+
+    @Param({"1", "10"})
+    public int ordersPerLevel;
+
+    // position of the cancelled order, as percentage of the book depth
+    @Param({"0", "50", "100"})
+    public int position;
+
+    private OrderBook book;
+
+    private LimitOrder target;
+
+    @Setup(Level.Trial)
+    public void setup () {
+        BookFixture.silenceConsole();
+
+        book = BookFixture.newBook(depth, ordersPerLevel);
+
+        int level = Math.min(depth - 1, depth * position / 100);
+        OrderGroup group = book.getLimitAsks().get(BookFixture.BEST_ASK + level);
+
+        // last order of the level
+        for (LimitOrder order : group.getLimitOrders()) {
+            target = order;
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void restore () {
+        int price = target.getLimitPrice();
+
+        OrderGroup group = book.getLimitAsks().get(price);
+
+        if (group == null) {
+            book.getLimitAsks().put(price, BookFixture.newLevel(book, "ask", price, 0));
+            group = book.getLimitAsks().get(price);
+        }
+
+        group.addOrder(target);
+        book.setAskOrders(book.getLimitAsks());
+    }
+
+    @Benchmark
+    public int cancel () {
+        return book.cancelOrder(target.getOrderId(), target.getUsername());
+    }
+}
@@ -0,0 +1,57 @@
+package com.unipi.lab3.cross.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.unipi.lab3.cross.model.OrderBook;
+
+/**
+ * insertion of non crossing limit orders into deep books,
+ * at a random level within the book depth
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LimitInsertBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int depth;
+
+    @Param({"1", "10"})
+    public int ordersPerLevel;
+
+    private OrderBook book;
+    private SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void silence () {
+        BookFixture.silenceConsole();
+    }
+
+    // fresh book every iteration, inserted orders make it grow
+    @Setup(Level.Iteration)
+    public void setup () {
+        book = BookFixture.newBook(depth, ordersPerLevel);
+        random = new SplittableRandom(42);
+    }
+
+    @Benchmark
+    public int insertBid () {
+        int price = BookFixture.BEST_BID - random.nextInt(depth);
+
+        return book.execLimitOrder(BookFixture.TAKER, "bid", BookFixture.ORDER_SIZE, price);
+    }
+
+    @Benchmark
+    public int insertAsk () {
+        int price = BookFixture.BEST_ASK + random.nextInt(depth);
+
+        return book.execLimitOrder(BookFixture.TAKER, "ask", BookFixture.ORDER_SIZE, price);
+    }
+}
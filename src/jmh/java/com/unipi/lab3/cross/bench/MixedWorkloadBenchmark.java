@@ -0,0 +1,108 @@
+package com.unipi.lab3.cross.bench;
+
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.unipi.lab3.cross.model.OrderBook;
+
+/**
+ * mixed flow of passive and aggressive limit orders, market orders,
+ * stop orders and cancels of previously placed orders
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MixedWorkloadBenchmark {
+
+    @Param({"100", "1000"})
+    public int depth;
+
+    @Param({"1", "10"})
+    public int ordersPerLevel;
+
+    private OrderBook book;
+    private SplittableRandom random;
+
+    // ids and owners of orders placed by the flow, candidates for cancellation
+    private ArrayList<Integer> placedIds;
+    private ArrayList<String> placedUsers;
+
+    private static final int USERS = 32;
+
+    @Setup(Level.Trial)
+    public void silence () {
+        BookFixture.silenceConsole();
+    }
+
+    @Setup(Level.Iteration)
+    public void setup () {
+        book = BookFixture.newBook(depth, ordersPerLevel);
+        random = new SplittableRandom(7);
+        placedIds = new ArrayList<>();
+        placedUsers = new ArrayList<>();
+    }
+
+    @Benchmark
+    public int mixed () {
+        int op = random.nextInt(100);
+        String user = "user" + random.nextInt(USERS);
+        String side = random.nextBoolean() ? "bid" : "ask";
+        int size = 1 + random.nextInt(2 * BookFixture.ORDER_SIZE);
+
+        // distance from the touch, negative values cross the spread
+        int offset = random.nextInt(depth) - 2;
+
+        int bestBid = book.getBestBidPrice() > 0 ? book.getBestBidPrice() : BookFixture.BEST_BID;
+        int bestAsk = book.getBestAskPrice() > 0 ? book.getBestAskPrice() : BookFixture.BEST_ASK;
+
+        int price = side.equals("bid") ? Math.max(1, bestBid - offset) : bestAsk + offset;
+
+        // passive or crossing limit orders
+        if (op < 65)
+            return remember(book.execLimitOrder(user, side, size, price), user);
+
+        // market orders
+        if (op < 75)
+            return book.execMarketOrder(size, side, "market", user, -1);
+
+        // stop orders beyond the touch
+        if (op < 80) {
+            int stopPrice = side.equals("bid") ? bestAsk + 1 + random.nextInt(depth) : Math.max(1, bestBid - 1 - random.nextInt(depth));
+            return remember(book.addStopOrder(user, size, stopPrice, side), user);
+        }
+
+        // cancels of a random placed order
+        if (placedIds.isEmpty())
+            return 0;
+
+        int index = random.nextInt(placedIds.size());
+        int lastIndex = placedIds.size() - 1;
+
+        int id = placedIds.get(index);
+        String owner = placedUsers.get(index);
+
+        // swap remove
+        placedIds.set(index, placedIds.get(lastIndex));
+        placedUsers.set(index, placedUsers.get(lastIndex));
+        placedIds.remove(lastIndex);
+        placedUsers.remove(lastIndex);
+
+        return book.cancelOrder(id, owner);
+    }
+
+    private int remember (int id, String user) {
+        if (id >= 0) {
+            placedIds.add(id);
+            placedUsers.add(user);
+        }
+
+        return id;
+    }
+}
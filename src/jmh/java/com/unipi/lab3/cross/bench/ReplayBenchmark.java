@@ -0,0 +1,58 @@
+package com.unipi.lab3.cross.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.unipi.lab3.cross.engine.CommandJournal;
+import com.unipi.lab3.cross.engine.Replayer;
+import com.unipi.lab3.cross.model.OrderBook;
+import com.unipi.lab3.cross.workload.OrderFlowGenerator;
+import com.unipi.lab3.cross.workload.WorkloadProfile;
+
+/**
+ * replay of an order flow into a fresh order book at full speed: a generated flow
+ * of a workload preset, or recorded order flow, e.g. -p workload=src/main/resources/journal.log
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReplayBenchmark {
+
+    // workload preset or journal file
+    @Param({"default", "deepBook", "stopCascade"})
+    public String workload;
+
+    private List<CommandJournal.Entry> entries;
+
+    private static final int GENERATED_COMMANDS = 100_000;
+
+    @Setup(Level.Trial)
+    public void setup () throws IOException {
+        BookFixture.silenceConsole();
+
+        if (new File(workload).exists())
+            entries = CommandJournal.read(workload);
+        else
+            entries = new OrderFlowGenerator(WorkloadProfile.preset(workload), null).generate(GENERATED_COMMANDS);
+
+        if (entries.isEmpty())
+            throw new IllegalStateException("empty journal " + workload);
+    }
+
+    @Benchmark
+    public long replay () {
+        OrderBook book = new OrderBook();
+
+        Replayer.replay(book, entries, false, null);
+
+        return book.getSequence();
+    }
+}
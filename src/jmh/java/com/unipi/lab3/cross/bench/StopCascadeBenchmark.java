@@ -0,0 +1,49 @@
+package com.unipi.lab3.cross.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.unipi.lab3.cross.model.OrderBook;
+
+/**
+ * a limit order sweeping the best ask triggers a chain of stop bids,
+ * every triggered stop consumes one more level and triggers the next one
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StopCascadeBenchmark {
+
+    @Param({"1", "10", "50"})
+    public int cascade;
+
+    @Param({"1", "10"})
+    public int ordersPerLevel;
+
+    private OrderBook book;
+
+    private int levelSize;
+
+    @Setup(Level.Trial)
+    public void silence () {
+        BookFixture.silenceConsole();
+        levelSize = ordersPerLevel * BookFixture.ORDER_SIZE;
+    }
+
+    @Setup(Level.Invocation)
+    public void setup () {
+        // enough levels for the trigger and every stop
+        book = BookFixture.newBook(cascade + 2, ordersPerLevel);
+        BookFixture.addStopCascade(book, cascade, levelSize);
+    }
+
+    @Benchmark
+    public int trigger () {
+        return book.execLimitOrder(BookFixture.TAKER, "bid", levelSize, BookFixture.BEST_ASK);
+    }
+}
@@ -0,0 +1,58 @@
+package com.unipi.lab3.cross.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.unipi.lab3.cross.model.OrderBook;
+
+/**
+ * crossing limit orders and market orders sweeping a number of ask levels,
+ * the swept levels are rebuilt before every invocation
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SweepBenchmark {
+
+    @Param({"100", "1000"})
+    public int depth;
+
+    @Param({"1", "10"})
+    public int ordersPerLevel;
+
+    @Param({"1", "10"})
+    public int levelsSwept;
+
+    private OrderBook book;
+
+    // size filling exactly the swept levels
+    private int sweepSize;
+
+    @Setup(Level.Trial)
+    public void setup () {
+        BookFixture.silenceConsole();
+
+        book = BookFixture.newBook(depth, ordersPerLevel);
+        sweepSize = levelsSwept * ordersPerLevel * BookFixture.ORDER_SIZE;
+    }
+
+    @Setup(Level.Invocation)
+    public void refill () {
+        BookFixture.refillAsks(book, levelsSwept, ordersPerLevel);
+    }
+
+    @Benchmark
+    public int crossingLimit () {
+        return book.execLimitOrder(BookFixture.TAKER, "bid", sweepSize, BookFixture.BEST_ASK + levelsSwept - 1);
+    }
+
+    @Benchmark
+    public int market () {
+        return book.execMarketOrder(sweepSize, "bid", "market", BookFixture.TAKER, -1);
+    }
+}
@@ -2,6 +2,7 @@ package com.unipi.lab3.cross.client;
 
 import java.io.*;
 import java.net.*;
+import java.util.Map;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -10,7 +11,8 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 import com.unipi.lab3.cross.json.response.*;
-import com.unipi.lab3.cross.model.OrderBook;
+import com.unipi.lab3.cross.metrics.LatencySummary;
+import com.unipi.lab3.cross.model.OrderBookSnapshot;
 import com.unipi.lab3.cross.model.trade.PriceHistory;
 
 /**
@@ -133,6 +135,11 @@ public class ClientReceiver implements Runnable {
                     OrderResponse orderResponse = gson.fromJson(responseMsg, OrderResponse.class);
                     handleResponse(orderResponse);
                 }
+                // request rejected by the rate limits, to retry later
+                else if (obj.has("retryAfter")) {
+                    RetryResponse retryResponse = gson.fromJson(responseMsg, RetryResponse.class);
+                    handleResponse(retryResponse);
+                }
                 // user response
                 else if (obj.has("operation") && obj.has("response") && obj.has("errorMessage")) {
                     UserResponse userResponse = gson.fromJson(responseMsg, UserResponse.class);
@@ -148,6 +155,16 @@ public class ClientReceiver implements Runnable {
                     HistoryResponse historyResponse = gson.fromJson(responseMsg, HistoryResponse.class);
                     handleResponse(historyResponse);
                 }
+                // batch response, one result per order
+                else if (obj.has("results")) {
+                    BatchResponse batchResponse = gson.fromJson(responseMsg, BatchResponse.class);
+                    handleResponse(batchResponse);
+                }
+                // server metrics response
+                else if (obj.has("latencies")) {
+                    MetricsResponse metricsResponse = gson.fromJson(responseMsg, MetricsResponse.class);
+                    handleResponse(metricsResponse);
+                }
                 // unknown response
                 else {
                     System.out.println("unknown response from server" + responseMsg);
@@ -181,6 +198,12 @@ public class ClientReceiver implements Runnable {
                 System.out.println("order failed");
             }
         }
+        // handle throttled or shed request
+        else if (responseMsg instanceof RetryResponse) {
+            RetryResponse retryResponse = (RetryResponse)responseMsg;
+
+            System.out.println(retryResponse.getOperation() + ": " + retryResponse.getErrorMessage() + ", retry in " + retryResponse.getRetryAfter() + " ms");
+        }
         // handle user response
         else if (responseMsg instanceof UserResponse) {
             // cast to user response
@@ -245,6 +268,22 @@ public class ClientReceiver implements Runnable {
                     }
                 break;
 
+                // cancel all orders
+                case "cancelAllOrders":
+                    // number of cancelled orders or error message
+                    System.out.println(userResponse.getErrorMessage());
+                break;
+
+                // amend order
+                case "amendOrder":
+                    if (userResponse.getResponse() == 100) {
+                        System.out.println("order successfully amended");
+                    }
+                    else {
+                        System.out.println(userResponse.getErrorMessage());
+                    }
+                break;
+
                 case "insertLimitOrder":
                 case "insertMarketOrder":
                 case "insertStopOrder":
@@ -281,9 +320,12 @@ public class ClientReceiver implements Runnable {
         else if (responseMsg instanceof OrderBookResponse) {
             OrderBookResponse orderBookResponse = (OrderBookResponse) responseMsg;
             // get order book object to print
-            OrderBook ob = orderBookResponse.getOrderBook();
+            OrderBookSnapshot ob = orderBookResponse.getOrderBook();
+
+            if (orderBookResponse.getSymbol() != null)
+                System.out.println("order book of " + orderBookResponse.getSymbol());
 
-            ob.printOrderBook();
+            System.out.print(ob.render());
         }
         // handle trades history response
         else if (responseMsg instanceof HistoryResponse) {
@@ -296,6 +338,41 @@ public class ClientReceiver implements Runnable {
 
             ph.printPriceHistory(historyResponse.getStats());            
         }
+        // handle server metrics response
+        else if (responseMsg instanceof MetricsResponse) {
+            MetricsResponse metricsResponse = (MetricsResponse) responseMsg;
+
+            System.out.println("server metrics:");
+
+            for (Map.Entry<String, Long> entry : metricsResponse.getCounters().entrySet()) {
+                System.out.printf("  %-30s %d%n", entry.getKey(), entry.getValue());
+            }
+
+            for (Map.Entry<String, Long> entry : metricsResponse.getGauges().entrySet()) {
+                System.out.printf("  %-30s %d%n", entry.getKey(), entry.getValue());
+            }
+
+            System.out.println("latencies (us):");
+
+            for (Map.Entry<String, LatencySummary> entry : metricsResponse.getLatencies().entrySet()) {
+                System.out.printf("  %-30s %s%n", entry.getKey(), entry.getValue());
+            }
+        }
+        // handle batch response
+        else if (responseMsg instanceof BatchResponse) {
+            BatchResponse batchResponse = (BatchResponse) responseMsg;
+
+            int[] results = batchResponse.getResults();
+
+            for (int i = 0; i < results.length; i++) {
+                if (batchResponse.getOperation().equals("insertOrders"))
+                    System.out.println((i + 1) + ": " + (results[i] != -1 ? "order with ID: " + results[i] : "order failed"));
+                else if (batchResponse.getOperation().equals("massQuote"))
+                    System.out.println((i + 1) + ": " + (results[i] > 0 ? "quoted with order ID: " + results[i] : results[i] == 0 ? "level pulled" : "quote failed"));
+                else
+                    System.out.println((i + 1) + ": " + (results[i] == 100 ? "order cancelled" : "order does not exist"));
+            }
+        }
         else {
             System.out.println("unknown response");
         }
@@ -10,9 +10,12 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.unipi.lab3.cross.json.request.AmendValues;
+import com.unipi.lab3.cross.json.request.BatchValues;
 import com.unipi.lab3.cross.json.request.HistoryValues;
 import com.unipi.lab3.cross.json.request.NetworkValues;
 import com.unipi.lab3.cross.json.request.OrderValues;
+import com.unipi.lab3.cross.json.request.SymbolValues;
 import com.unipi.lab3.cross.json.request.Request;
 import com.unipi.lab3.cross.json.request.UserValues;
 import com.unipi.lab3.cross.json.request.Values;
@@ -206,15 +209,17 @@ public class ClientSender implements Runnable {
                     break;
                 }
 
-                // check number of parameters -> only username and password
-                if (paramList.size() != 2) {
-                    System.out.println("invalid number of parameters, insert username and password");
+                // check number of parameters -> username, password and optional cancel on disconnect flag
+                if (paramList.size() != 2 && paramList.size() != 3) {
+                    System.out.println("invalid number of parameters, insert username, password and optionally cancelOnDisconnect");
                     break;
                 }
 
                 username = paramList.get(0);
                 password = paramList.get(1);
 
+                boolean cancelOnDisconnect = paramList.size() == 3 && Boolean.parseBoolean(paramList.get(2));
+
                 try {
                     // at login start udp listener to enable receiving udp messages from server
                     if (!listener.isAlive()) {
@@ -232,7 +237,7 @@ public class ClientSender implements Runnable {
                     NetworkValues netValues = new NetworkValues(udpPort);
 
                     // create user values with network info
-                    values = new UserValues(username, password, netValues);
+                    values = new UserValues(username, password, netValues, cancelOnDisconnect);
 
                     request = new Request<UserValues>("login", values);
                 }
@@ -292,8 +297,9 @@ public class ClientSender implements Runnable {
                     break;
                 }
 
-                if (paramList.size() != 3) {
-                    System.out.println("invalid number of parameters, insert type, size and limitPrice");
+                // optional symbol, time in force and seconds to live as last parameters
+                if (paramList.size() < 3 || paramList.size() > 6) {
+                    System.out.println("invalid number of parameters, insert type, size, limitPrice and optionally symbol, time in force and seconds to live");
                     break;
                 }
 
@@ -328,7 +334,9 @@ public class ClientSender implements Runnable {
                 }
 
                 // create order object
-                OrderValues orderVal = new OrderValues(type, size, limitPrice);
+                OrderValues orderVal = new OrderValues(type, size, limitPrice, symbolParam(paramList, 3));
+                orderVal.setTimeInForce(timeInForceParam(paramList, 3));
+                orderVal.setExpireAt(expiryParam(paramList, 3));
 
                 request = new Request<OrderValues>("insertLimitOrder", orderVal);
 
@@ -342,9 +350,9 @@ public class ClientSender implements Runnable {
                     break;
                 }
 
-                // check number of parameters -> type and size
-                if (paramList.size() != 2) {
-                    System.out.println("invalid number of parameters for market order, insert type and size");
+                // check number of parameters -> type, size and optionally symbol and time in force
+                if (paramList.size() < 2 || paramList.size() > 4) {
+                    System.out.println("invalid number of parameters for market order, insert type, size and optionally symbol and time in force");
                     break;
                 }
 
@@ -372,7 +380,8 @@ public class ClientSender implements Runnable {
                 }
 
                 // create order object, with price -1 (market orders don't have price)
-                orderVal = new OrderValues(type, size, -1);
+                orderVal = new OrderValues(type, size, -1, symbolParam(paramList, 2));
+                orderVal.setTimeInForce(timeInForceParam(paramList, 2));
 
                 request = new Request<OrderValues>("insertMarketOrder", orderVal);
 
@@ -386,9 +395,9 @@ public class ClientSender implements Runnable {
                     break;
                 }    
             
-                // check number of parameters -> type, size and stop price
-                if (paramList.size() != 3) {
-                    System.out.println("invalid number of parameters for stop order, insert type, size and stopPrice");
+                // check number of parameters -> type, size, stop price and optionally symbol and seconds to live
+                if (paramList.size() < 3 || paramList.size() > 5) {
+                    System.out.println("invalid number of parameters for stop order, insert type, size, stopPrice and optionally symbol and seconds to live");
                     break;
                 }
 
@@ -418,7 +427,8 @@ public class ClientSender implements Runnable {
                     break;
                 }
 
-                orderVal = new OrderValues(type, size, stopPrice);
+                orderVal = new OrderValues(type, size, stopPrice, symbolParam(paramList, 3));
+                orderVal.setExpireAt(expiryParam(paramList, 3));
 
                 request = new Request<OrderValues>("insertStopOrder", orderVal);            
 
@@ -432,9 +442,9 @@ public class ClientSender implements Runnable {
                     break;
                 }
 
-                // check number of parameters -> only order id
-                if (paramList.size() != 1) {
-                    System.out.println("invalid number of parameters, insert orderID");
+                // check number of parameters -> order id and optional symbol
+                if (paramList.size() != 1 && paramList.size() != 2) {
+                    System.out.println("invalid number of parameters, insert orderID and optionally symbol");
                     break;
                 }
 
@@ -448,21 +458,162 @@ public class ClientSender implements Runnable {
                 }
 
                 // build order response object with order id
-                OrderResponse ID = new OrderResponse(orderID);
+                OrderResponse ID = new OrderResponse(orderID, symbolParam(paramList, 1));
 
                 request = new Request<OrderResponse>("cancelOrder", ID);
 
             break;
 
+            // cancel all orders of the user
+            case "cancelAllOrders":
+                // check if registered and logged in
+                if (!registered.get() || !logged.get()) {
+                    System.out.println("operation not allowed");
+                    break;
+                }
+
+                // check number of parameters -> optional symbol, every symbol otherwise
+                if (paramList.size() > 1) {
+                    System.out.println("invalid number of parameters, insert optionally symbol");
+                    break;
+                }
+
+                if (paramList.isEmpty())
+                    request = new Request<Values>("cancelAllOrders", null);
+                else
+                    request = new Request<SymbolValues>("cancelAllOrders", new SymbolValues(paramList.get(0)));
+
+            break;
+
+            // change size and price of a resting limit order
+            case "amendOrder":
+                // check if registered and logged in
+                if (!registered.get() || !logged.get()) {
+                    System.out.println("operation not allowed");
+                    break;
+                }
+
+                // check number of parameters -> order id, size, price and optional symbol
+                if (paramList.size() != 3 && paramList.size() != 4) {
+                    System.out.println("invalid number of parameters, insert orderID, size, price and optionally symbol");
+                    break;
+                }
+
+                int amendId = 0;
+
+                try {
+                    amendId = Integer.parseInt(paramList.get(0));
+                    size = Integer.parseInt(paramList.get(1));
+                    limitPrice = Integer.parseInt(paramList.get(2));
+                }
+                catch (NumberFormatException e) {
+                    System.out.println("invalid number format");
+                    break;
+                }
+
+                if (amendId < 0 || size <= 0 || limitPrice <= 0) {
+                    System.out.println("invalid parameters");
+                    break;
+                }
+
+                request = new Request<AmendValues>("amendOrder", new AmendValues(amendId, size, limitPrice, symbolParam(paramList, 3)));
+
+            break;
+
+            // insert many limit orders at once, as type,size,price triples
+            case "insertOrders":
+            // replace quotes at some levels, as type,size,price triples where size 0 pulls the level
+            case "massQuote":
+                // check if registered and logged in
+                if (!registered.get() || !logged.get()) {
+                    System.out.println("operation not allowed");
+                    break;
+                }
+
+                // triples of type, size and price, optionally followed by the symbol
+                if (paramList.size() < 3 || paramList.size() % 3 == 2) {
+                    System.out.println("invalid number of parameters, insert type, size and price of every order and optionally symbol");
+                    break;
+                }
+
+                List<OrderValues> batchOrders = parseOrderTriples(paramList, operation.equals("massQuote"));
+
+                if (batchOrders == null)
+                    break;
+
+                String batchSymbol = paramList.size() % 3 == 1 ? paramList.get(paramList.size() - 1) : null;
+
+                request = new Request<BatchValues>(operation, BatchValues.ofOrders(batchOrders, batchSymbol));
+
+            break;
+
+            // cancel many orders at once
+            case "cancelOrders":
+                // check if registered and logged in
+                if (!registered.get() || !logged.get()) {
+                    System.out.println("operation not allowed");
+                    break;
+                }
+
+                if (paramList.isEmpty()) {
+                    System.out.println("invalid number of parameters, insert orderIDs and optionally symbol");
+                    break;
+                }
+
+                // last parameter is the symbol if it's not a number
+                batchSymbol = null;
+                int idCount = paramList.size();
+
+                if (!paramList.get(idCount - 1).matches("\\d+")) {
+                    batchSymbol = paramList.get(idCount - 1);
+                    idCount--;
+                }
+
+                List<Integer> batchIds = new ArrayList<>();
+
+                try {
+                    for (int i = 0; i < idCount; i++) {
+                        batchIds.add(Integer.parseInt(paramList.get(i)));
+                    }
+                }
+                catch (NumberFormatException e) {
+                    System.out.println("invalid orderID");
+                    break;
+                }
+
+                if (batchIds.isEmpty()) {
+                    System.out.println("invalid number of parameters, insert orderIDs and optionally symbol");
+                    break;
+                }
+
+                request = new Request<BatchValues>("cancelOrders", BatchValues.ofOrderIds(batchIds, batchSymbol));
+
+            break;
+
             // show order book
             case "getOrderBook":
-                // this command does not require parameters and can be executed also when not registered or logged in
+                // this command only takes an optional symbol and can be executed also when not registered or logged in
+                if (paramList.size() > 1) {
+                    System.out.println("invalid command");
+                    break;
+                }
+
+                if (paramList.isEmpty())
+                    request = new Request<Values>("getOrderBook", null);
+                else
+                    request = new Request<SymbolValues>("getOrderBook", new SymbolValues(paramList.get(0)));
+
+            break;
+
+            // show server metrics
+            case "getMetrics":
+                // no parameters, available without login like the order book
                 if (!paramList.isEmpty()) {
                     System.out.println("invalid command");
                     break;
                 }
 
-                request = new Request<Values>("getOrderBook", null);
+                request = new Request<Values>("getMetrics", null);
 
             break;
 
@@ -474,9 +625,9 @@ public class ClientSender implements Runnable {
                     break;
                 }
                 
-                // check number of parameters -> month and year
-                if (paramList.size() != 2) {
-                    System.out.println("invalid number of parameters, insert month and year");
+                // check number of parameters -> month, year and optional symbol
+                if (paramList.size() != 2 && paramList.size() != 3) {
+                    System.out.println("invalid number of parameters, insert month, year and optionally symbol");
                     break;
                 }
 
@@ -499,7 +650,7 @@ public class ClientSender implements Runnable {
                 String date = String.format("%02d%04d", month, year);
 
                 // build history values object
-                HistoryValues stats = new HistoryValues(date);
+                HistoryValues stats = new HistoryValues(date, symbolParam(paramList, 2));
 
                 request = new Request<HistoryValues>("getPriceHistory", stats);
 
@@ -513,6 +664,102 @@ public class ClientSender implements Runnable {
         return request;
     }
 
+    /**
+     * parses type, size and price triples of a batch command
+     * 
+     * @param paramList parameters of the command, optionally ending with the symbol
+     * @param allowEmpty true if a size of 0 is allowed
+     * @return the parsed orders, null if a triple is invalid
+     */
+    private static List<OrderValues> parseOrderTriples (List<String> paramList, boolean allowEmpty) {
+        List<OrderValues> orders = new ArrayList<>();
+
+        for (int i = 0; i + 2 < paramList.size(); i += 3) {
+            String type = paramList.get(i);
+
+            if (!type.equals("ask") && !type.equals("bid")) {
+                System.out.println("type must be ask or bid");
+                return null;
+            }
+
+            int size = 0;
+            int price = 0;
+
+            try {
+                size = Integer.parseInt(paramList.get(i + 1));
+                price = Integer.parseInt(paramList.get(i + 2));
+            }
+            catch (NumberFormatException e) {
+                System.out.println("invalid number format");
+                return null;
+            }
+
+            if (size < (allowEmpty ? 0 : 1) || price <= 0) {
+                System.out.println("invalid parameters");
+                return null;
+            }
+
+            orders.add(new OrderValues(type, size, price));
+        }
+
+        return orders;
+    }
+
+    /**
+     * gets the optional symbol parameter of a command
+     * 
+     * @param paramList parameters of the command
+     * @param index position of the symbol
+     * @return the symbol, null if not given
+     */
+    private static String symbolParam (List<String> paramList, int index) {
+        // time in force and seconds to live can be given in place of the symbol
+        for (int i = index; i < paramList.size(); i++) {
+            if (!isTimeInForce(paramList.get(i)) && !paramList.get(i).matches("\\d+"))
+                return paramList.get(i);
+        }
+
+        return null;
+    }
+
+    /**
+     * gets the optional time in force parameter of an order,
+     * given after or in place of the symbol
+     * 
+     * @param paramList parameters of the command
+     * @param index first optional parameter
+     * @return GTC, IOC or FOK, null if not given
+     */
+    private static String timeInForceParam (List<String> paramList, int index) {
+        for (int i = index; i < paramList.size(); i++) {
+            if (isTimeInForce(paramList.get(i)))
+                return paramList.get(i).toUpperCase();
+        }
+
+        return null;
+    }
+
+    /**
+     * gets the optional seconds to live of an order as an expiry time,
+     * the only numeric parameter after the order values
+     * 
+     * @param paramList parameters of the command
+     * @param index first optional parameter
+     * @return expiry in milliseconds since epoch, 0 if not given
+     */
+    private static long expiryParam (List<String> paramList, int index) {
+        for (int i = index; i < paramList.size(); i++) {
+            if (paramList.get(i).matches("\\d+"))
+                return System.currentTimeMillis() + Long.parseLong(paramList.get(i)) * 1000;
+        }
+
+        return 0;
+    }
+
+    private static boolean isTimeInForce (String param) {
+        return param.equalsIgnoreCase("GTC") || param.equalsIgnoreCase("IOC") || param.equalsIgnoreCase("FOK");
+    }
+
     /**
      * print available commands menu
      */
@@ -520,15 +767,22 @@ public class ClientSender implements Runnable {
         System.out.println("available commands:");
         System.out.println("----------------------------------------");
         System.out.printf("%-30s %s%n", "register(username,password)", "create your account");
-        System.out.printf("%-30s %s%n", "login(username,password)", "login to cross");
+        System.out.printf("%-30s %s%n", "login(username,password[,cancelOnDisconnect])", "login to cross, true to cancel your orders when disconnected");
         System.out.printf("%-30s %s%n", "updateCredentials(username,oldPassword,newPassword)", "update your credentials");
         System.out.printf("%-30s %s%n", "logout()", "logout from cross");
-        System.out.printf("%-30s %s%n", "insertLimitOrder(type,size,price)", "insert an ask or bid limit order, with size and limit price");
-        System.out.printf("%-30s %s%n", "insertMarketOrder(type,size)", "insert a market order");
-        System.out.printf("%-30s %s%n", "insertStopOrder(type,size,price)", "insert an ask or bid stop order, with size and stop price");
-        System.out.printf("%-30s %s%n", "cancelOrder(orderID)", "cancel an order with given orderID");
-        System.out.printf("%-30s %s%n", "getOrderBook()", "show the order book");
-        System.out.printf("%-30s %s%n", "getPriceHistory(month,year)", "show history for given month and year");
+        System.out.printf("%-30s %s%n", "insertLimitOrder(type,size,price[,symbol][,GTC|IOC|FOK][,seconds])", "insert an ask or bid limit order, with size and limit price, expiring after the given seconds");
+        System.out.printf("%-30s %s%n", "insertMarketOrder(type,size[,symbol][,IOC|FOK])", "insert a market order, fill or kill by default (IOC in batch auction mode)");
+        System.out.printf("%-30s %s%n", "insertStopOrder(type,size,price[,symbol][,seconds])", "insert an ask or bid stop order, with size and stop price, expiring after the given seconds");
+        System.out.printf("%-30s %s%n", "cancelOrder(orderID[,symbol])", "cancel an order with given orderID");
+        System.out.printf("%-30s %s%n", "cancelAllOrders([symbol])", "cancel all your orders, of every symbol when omitted");
+        System.out.printf("%-30s %s%n", "amendOrder(orderID,size,price[,symbol])", "change a limit order, a smaller size keeps its priority");
+        System.out.printf("%-30s %s%n", "insertOrders(type,size,price,...[,symbol])", "insert many limit orders at once");
+        System.out.printf("%-30s %s%n", "cancelOrders(orderID,...[,symbol])", "cancel many orders at once");
+        System.out.printf("%-30s %s%n", "massQuote(type,size,price,...[,symbol])", "set your resting size at each level, 0 to pull it");
+        System.out.printf("%-30s %s%n", "getOrderBook([symbol])", "show the order book");
+        System.out.printf("%-30s %s%n", "getPriceHistory(month,year[,symbol])", "show history for given month and year");
+        System.out.printf("%-30s %s%n", "", "symbol defaults to BTCUSD when omitted");
+        System.out.printf("%-30s %s%n", "getMetrics()", "show server metrics");
         System.out.printf("%-30s%n", "help()");
         System.out.printf("%-30s%n", "exit()");
         System.out.println("----------------------------------------\n");
@@ -76,12 +76,17 @@ public class UdpListener implements Runnable {
                     // build a notification object to deserialize the received JSON string
                     Notification notification = gson.fromJson(jsonString, Notification.class);
 
+                    // symbol of the trades, omitted by older servers
+                    String prefix = notification.getSymbol() != null ? "[" + notification.getSymbol() + "] " : "";
+
                     // print details of each trade in the notification
                     for (Trade trade : notification.getTrades()) {
                         if (notification.getNotification().equals("orderFailed"))
-                            System.out.println("error! " + trade.getOrderType() + " " + trade.getType() + " order " + trade.getOrderId() + " of " + trade.getSize() + " BTC at " + trade.getPrice() + " USD could not be executed");
+                            System.out.println(prefix + "error! " + trade.getOrderType() + " " + trade.getType() + " order " + trade.getOrderId() + " of " + trade.getSize() + " BTC at " + trade.getPrice() + " USD could not be executed");
+                        else if (notification.getNotification().equals("ordersExpired"))
+                            System.out.println(prefix + trade.getOrderType() + " " + trade.getType() + " order " + trade.getOrderId() + " of " + trade.getSize() + " BTC at " + trade.getPrice() + " USD has expired");
                         else
-                            System.out.println(trade.getOrderType() + " " + trade.getType() + " order " + trade.getOrderId() + " of " + trade.getSize() + " BTC at " + trade.getPrice() + " USD has been executed at " + formatDate(trade.getTimestamp()));
+                            System.out.println(prefix + trade.getOrderType() + " " + trade.getType() + " order " + trade.getOrderId() + " of " + trade.getSize() + " BTC at " + trade.getPrice() + " USD has been executed at " + formatDate(trade.getTimestamp()));
                     }
                 }
                 // timeout error
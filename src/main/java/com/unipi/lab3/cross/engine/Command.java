@@ -0,0 +1,232 @@
+package com.unipi.lab3.cross.engine;
+
+import java.util.List;
+
+import com.unipi.lab3.cross.model.OrderBook;
+import com.unipi.lab3.cross.model.orders.Quote;
+
+/**
+ * engine command as plain data: operation, symbol, user and order values
+ * 
+ * commands built from client requests, generated workloads or a journal
+ * are applied to an order book in the same way
+ */
+
+public class Command {
+
+    private String operation;
+    private String symbol;
+    private String username;
+
+    // order values, unused fields are left to their defaults
+    private String type;
+    private int size;
+    private int price;
+    private int orderId;
+
+    // GTC, IOC or FOK for limit and market orders, null for the default
+    private String timeInForce;
+
+    // expiry of limit and stop orders in milliseconds since epoch, 0 for none;
+    // time of the check for an expiry command
+    private long expireAt;
+
+    // levels of a mass quote
+    private List<Quote> quotes;
+
+    public Command () {}
+
+    public Command (String operation, String symbol, String username, String type, int size, int price, int orderId) {
+        this.operation = operation;
+        this.symbol = symbol;
+        this.username = username;
+        this.type = type;
+        this.size = size;
+        this.price = price;
+        this.orderId = orderId;
+    }
+
+    public Command (String operation, String symbol, String username, String type, int size, int price, int orderId, String timeInForce) {
+        this(operation, symbol, username, type, size, price, orderId);
+        this.timeInForce = timeInForce;
+    }
+
+    public Command (String operation, String symbol, String username, String type, int size, int price, int orderId, String timeInForce, long expireAt) {
+        this(operation, symbol, username, type, size, price, orderId, timeInForce);
+        this.expireAt = expireAt;
+    }
+
+    public static Command limit (String symbol, String username, String type, int size, int price) {
+        return new Command("insertLimitOrder", symbol, username, type, size, price, 0);
+    }
+
+    public static Command limit (String symbol, String username, String type, int size, int price, String timeInForce) {
+        return new Command("insertLimitOrder", symbol, username, type, size, price, 0, timeInForce);
+    }
+
+    public static Command limit (String symbol, String username, String type, int size, int price, String timeInForce, long expireAt) {
+        return new Command("insertLimitOrder", symbol, username, type, size, price, 0, timeInForce, expireAt);
+    }
+
+    public static Command market (String symbol, String username, String type, int size) {
+        return new Command("insertMarketOrder", symbol, username, type, size, -1, 0);
+    }
+
+    public static Command market (String symbol, String username, String type, int size, String timeInForce) {
+        return new Command("insertMarketOrder", symbol, username, type, size, -1, 0, timeInForce);
+    }
+
+    public static Command stop (String symbol, String username, String type, int size, int price) {
+        return new Command("insertStopOrder", symbol, username, type, size, price, 0);
+    }
+
+    public static Command stop (String symbol, String username, String type, int size, int price, long expireAt) {
+        return new Command("insertStopOrder", symbol, username, type, size, price, 0, null, expireAt);
+    }
+
+    public static Command cancel (String symbol, String username, int orderId) {
+        return new Command("cancelOrder", symbol, username, null, 0, 0, orderId);
+    }
+
+    public static Command amend (String symbol, String username, int orderId, int size, int price) {
+        return new Command("amendOrder", symbol, username, null, size, price, orderId);
+    }
+
+    public static Command cancelAll (String symbol, String username) {
+        return new Command("cancelAllOrders", symbol, username, null, 0, 0, 0);
+    }
+
+    public static Command massQuote (String symbol, String username, List<Quote> quotes) {
+        Command command = new Command("massQuote", symbol, username, null, 0, 0, 0);
+        command.quotes = quotes;
+        return command;
+    }
+
+    /**
+     * removal of the orders expired at the given time, run periodically by the engine
+     */
+    public static Command expire (String symbol, long now) {
+        return new Command("expireOrders", symbol, null, null, 0, 0, 0, null, now);
+    }
+
+    /**
+     * end of the current batch auction, run periodically by the engine
+     */
+    public static Command auction (String symbol) {
+        return new Command("runAuction", symbol, null, null, 0, 0, 0);
+    }
+
+    public String getOperation () {
+        return this.operation;
+    }
+
+    public String getSymbol () {
+        return this.symbol;
+    }
+
+    public String getUsername () {
+        return this.username;
+    }
+
+    public String getType () {
+        return this.type;
+    }
+
+    public int getSize () {
+        return this.size;
+    }
+
+    public int getPrice () {
+        return this.price;
+    }
+
+    public int getOrderId () {
+        return this.orderId;
+    }
+
+    public String getTimeInForce () {
+        return this.timeInForce;
+    }
+
+    public long getExpireAt () {
+        return this.expireAt;
+    }
+
+    public List<Quote> getQuotes () {
+        return this.quotes;
+    }
+
+    /**
+     * checks if the command only removes or reduces resting orders,
+     * so it can run ahead of new orders
+     * 
+     * @return true for cancellations and amendments
+     */
+    public boolean isPriority () {
+        return this.operation.equals("cancelOrder") || this.operation.equals("cancelAllOrders") || this.operation.equals("amendOrder");
+    }
+
+    /**
+     * checks if the command is run by the engine clock instead of a user
+     * 
+     * @return true for expiry checks and auctions
+     */
+    public boolean isTimer () {
+        return this.operation.equals("expireOrders") || this.operation.equals("runAuction");
+    }
+
+    /**
+     * applies the command to an order book
+     * must run on the engine thread owning the book
+     * 
+     * @param book order book of the command symbol
+     * @return order id for insertions, -1 on failure; 100 or 101 for cancellations and amendments;
+     *         number of cancelled orders for a cancel all; number of valid levels for a mass quote;
+     *         number of expired orders for an expiry check; executed size for an auction
+     */
+    public int apply (OrderBook book) {
+        switch (this.operation) {
+            case "insertLimitOrder":
+                return book.execLimitOrder(this.username, this.type, this.size, this.price, this.timeInForce, this.expireAt);
+
+            case "insertMarketOrder":
+                return book.execMarketOrder(this.size, this.type, "market", this.username, -1, this.timeInForce);
+
+            case "insertStopOrder":
+                return book.addStopOrder(this.username, this.size, this.price, this.type, this.expireAt);
+
+            case "cancelOrder":
+                return book.cancelOrder(this.orderId, this.username);
+
+            case "amendOrder":
+                return book.amendOrder(this.orderId, this.username, this.size, this.price);
+
+            case "cancelAllOrders":
+                return book.cancelAllOrders(this.username);
+
+            case "massQuote":
+                int valid = 0;
+
+                for (int result : book.massQuote(this.username, this.quotes)) {
+                    if (result != -1)
+                        valid++;
+                }
+
+                return valid;
+
+            case "expireOrders":
+                return book.expireOrders(this.expireAt);
+
+            case "runAuction":
+                return book.runAuction();
+
+            default:
+                throw new IllegalArgumentException("unknown engine operation " + this.operation);
+        }
+    }
+
+    public String toString () {
+        return "{operation: " + this.operation + ", symbol: " + this.symbol + ", user: " + this.username + ", type: " + this.type
+            + ", size: " + this.size + ", price: " + this.price + ", orderId: " + this.orderId + ", timeInForce: " + this.timeInForce + ", expireAt: " + this.expireAt + "}";
+    }
+}
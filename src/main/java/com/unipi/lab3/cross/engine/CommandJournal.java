@@ -0,0 +1,320 @@
+package com.unipi.lab3.cross.engine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * append only log of the commands applied to an order book, one json line per command
+ * with its input sequence and the time it was applied
+ *
+ * the engine thread only queues the entry; a background thread writes the queued
+ * entries and flushes once the queue is empty, so a crash loses at most the
+ * commands of the last flush interval
+ *
+ * once a snapshot covering a sequence is on disk the commands up to it are
+ * dropped, the journal only keeps what recovery would replay
+ */
+
+public class CommandJournal {
+
+    /**
+     * journaled command
+     */
+    public static final class Entry {
+        private long sequence;
+        private long timestamp;
+        // id the book gave to the first order of the command, 0 if not recorded
+        private int nextId;
+        private Command command;
+
+        public Entry (long sequence, long timestamp, Command command) {
+            this(sequence, timestamp, 0, command);
+        }
+
+        public Entry (long sequence, long timestamp, int nextId, Command command) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.nextId = nextId;
+            this.command = command;
+        }
+
+        public long getSequence () {
+            return this.sequence;
+        }
+
+        // milliseconds, since epoch for the engine journal, since the start of a generated flow
+        public long getTimestamp () {
+            return this.timestamp;
+        }
+
+        public int getNextId () {
+            return this.nextId;
+        }
+
+        public Command getCommand () {
+            return this.command;
+        }
+    }
+
+    // idle wait of the writer thread when the queue is empty
+    private static final long IDLE_NANOS = 1_000_000;
+
+    private static final Gson gson = new Gson();
+
+    private final String path;
+    // reopened by every compaction, null once closed
+    private BufferedWriter writer;
+
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // last sequence covered by a durable snapshot
+    private final AtomicLong covered = new AtomicLong(0);
+
+    // last sequence dropped from the file
+    private long compacted = 0;
+
+    /**
+     * opens the journal for append and starts its writer thread
+     *
+     * @param path journal file
+     * @throws IOException if the file can't be opened
+     */
+    public CommandJournal (String path) throws IOException {
+        this.path = path;
+        this.writer = new BufferedWriter(new FileWriter(path, true));
+
+        this.thread = new Thread(this::run, "journal-" + new File(path).getName());
+        this.thread.start();
+    }
+
+    public String getPath () {
+        return this.path;
+    }
+
+    /**
+     * queues a command applied to the book, called by the engine thread
+     * holding the book monitor, so entries are queued in sequence order
+     *
+     * @param sequence input sequence of the command
+     * @param timestamp time the command was applied at, in milliseconds since epoch
+     * @param nextId id of the next order of the book before the command
+     * @param command applied command
+     */
+    public void append (long sequence, long timestamp, int nextId, Command command) {
+        this.queue.add(new Entry(sequence, timestamp, nextId, command));
+    }
+
+    /**
+     * queues an entry with its own sequence and time, for journals written by tools
+     *
+     * @param entry entry to write
+     */
+    public void append (Entry entry) {
+        this.queue.add(entry);
+    }
+
+    /**
+     * drops the commands up to a sequence, once a snapshot including them is on disk;
+     * done by the writer thread, or at once if the journal is closed
+     *
+     * @param sequence input sequence of the durable snapshot
+     */
+    public void truncate (long sequence) {
+        this.covered.accumulateAndGet(sequence, Math::max);
+
+        if (this.thread.isAlive())
+            LockSupport.unpark(this.thread);
+        else
+            compact();
+    }
+
+    /**
+     * stops the writer thread after writing every queued entry,
+     * waiting for it so no entry is lost
+     */
+    public void close () {
+        this.running = false;
+        LockSupport.unpark(this.thread);
+
+        try {
+            this.thread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            try {
+                if (this.writer != null)
+                    this.writer.close();
+            }
+            catch (IOException e) {
+                System.err.println("error closing journal " + this.path + ": " + e.getMessage());
+            }
+
+            this.writer = null;
+        }
+    }
+
+    private void run () {
+        while (this.running) {
+            boolean written = drain();
+
+            compact();
+
+            if (!written)
+                LockSupport.parkNanos(IDLE_NANOS);
+        }
+
+        // entries queued before the stop
+        drain();
+        compact();
+    }
+
+    /**
+     * writes every queued entry, then flushes them together
+     *
+     * @return true if something was written
+     */
+    private boolean drain () {
+        boolean written = false;
+
+        try {
+            Entry entry;
+
+            while ((entry = this.queue.poll()) != null) {
+                this.writer.write(gson.toJson(entry));
+                this.writer.newLine();
+
+                written = true;
+            }
+
+            if (written)
+                this.writer.flush();
+        }
+        catch (IOException e) {
+            System.err.println("error writing journal " + this.path + ": " + e.getMessage());
+        }
+
+        return written;
+    }
+
+    /**
+     * rewrites the file without the commands covered by a snapshot,
+     * replacing it atomically so a crash keeps either the old or the new file
+     */
+    private synchronized void compact () {
+        long sequence = this.covered.get();
+
+        if (sequence <= this.compacted)
+            return;
+
+        // entries of the snapshot still queued
+        if (this.writer != null)
+            drain();
+
+        Path target = Paths.get(this.path);
+        Path temp = Paths.get(this.path + ".tmp");
+
+        boolean reopen = false;
+
+        try {
+            List<Entry> entries = read(this.path);
+
+            try (FileOutputStream out = new FileOutputStream(temp.toFile());
+                 BufferedWriter tempWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+                for (Entry entry : entries) {
+                    if (entry.getSequence() > sequence) {
+                        tempWriter.write(gson.toJson(entry));
+                        tempWriter.newLine();
+                    }
+                }
+
+                tempWriter.flush();
+                out.getFD().sync();
+            }
+
+            // the writer would append to the replaced file
+            if (this.writer != null) {
+                reopen = true;
+                this.writer.close();
+            }
+
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            this.compacted = sequence;
+        }
+        catch (IOException e) {
+            System.err.println("error compacting journal " + this.path + ": " + e.getMessage());
+        }
+
+        // appends go on in the current file, old or new
+        if (reopen) {
+            try {
+                this.writer = new BufferedWriter(new FileWriter(this.path, true));
+            }
+            catch (IOException e) {
+                System.err.println("error reopening journal " + this.path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * reads a journal file, skipping malformed lines like a last line cut by a crash
+     *
+     * @param path journal file
+     * @return entries in journal order, empty if the file doesn't exist
+     * @throws IOException if the file can't be read
+     */
+    public static List<Entry> read (String path) throws IOException {
+        ArrayList<Entry> entries = new ArrayList<>();
+
+        File file = new File(path);
+
+        if (!file.exists())
+            return entries;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank())
+                    continue;
+
+                try {
+                    Entry entry = gson.fromJson(line, Entry.class);
+
+                    if (entry != null && entry.getCommand() != null)
+                        entries.add(entry);
+                }
+                catch (JsonSyntaxException e) {
+                    System.err.println("skipping malformed journal line in " + path);
+                }
+            }
+        }
+
+        return entries;
+    }
+}
@@ -0,0 +1,291 @@
+package com.unipi.lab3.cross.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.Supplier;
+
+import com.unipi.lab3.cross.model.event.OrderEvent;
+import com.unipi.lab3.cross.model.orders.LimitOrder;
+import com.unipi.lab3.cross.model.orders.Order;
+import com.unipi.lab3.cross.model.orders.StopOrder;
+import com.unipi.lab3.cross.model.trade.Trade;
+
+/**
+ * runs a reference and a candidate matching engine side by side on the same commands,
+ * comparing after every command the results, the events (fills and notifications included),
+ * the best prices, the spread and the resting limit and stop orders
+ *
+ * a failing command stream can be shrunk to a minimal one still failing,
+ * to be kept as a journal and replayed while fixing the candidate
+ */
+
+public class DifferentialHarness {
+
+    /**
+     * first difference between the engines
+     */
+    public static final class Mismatch {
+        private final int step;
+        private final Command command;
+        private final String what;
+        private final String expected;
+        private final String actual;
+
+        public Mismatch (int step, Command command, String what, String expected, String actual) {
+            this.step = step;
+            this.command = command;
+            this.what = what;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        // index of the command after which the engines differ
+        public int getStep () {
+            return this.step;
+        }
+
+        public Command getCommand () {
+            return this.command;
+        }
+
+        // result, events, best ask, best bid, spread or book
+        public String getWhat () {
+            return this.what;
+        }
+
+        public String getExpected () {
+            return this.expected;
+        }
+
+        public String getActual () {
+            return this.actual;
+        }
+
+        public String toString () {
+            return this.what + " differs after command " + (this.step + 1) + " " + this.command
+                + "\n  reference: " + this.expected + "\n  candidate: " + this.actual;
+        }
+    }
+
+    private final Supplier<MatchingEngine> reference;
+    private final Supplier<MatchingEngine> candidate;
+
+    // command streams run so far, shrinking included
+    private long runs = 0;
+
+    /**
+     * creates a harness, every run uses new engines from the factories
+     *
+     * @param reference factory of the reference engine
+     * @param candidate factory of the engine under test
+     */
+    public DifferentialHarness (Supplier<MatchingEngine> reference, Supplier<MatchingEngine> candidate) {
+        this.reference = reference;
+        this.candidate = candidate;
+    }
+
+    public long getRuns () {
+        return this.runs;
+    }
+
+    /**
+     * applies the commands to a new reference and candidate engine, stopping at the first difference
+     *
+     * @param commands commands in order
+     * @return the first difference, null if the engines agree on every command
+     */
+    public Mismatch run (List<Command> commands) {
+        this.runs++;
+
+        MatchingEngine expected = this.reference.get();
+        MatchingEngine actual = this.candidate.get();
+
+        for (int i = 0; i < commands.size(); i++) {
+            Command command = commands.get(i);
+
+            Mismatch mismatch = compare(i, command, "result", apply(expected, command), apply(actual, command));
+
+            if (mismatch == null)
+                mismatch = compare(i, command, "events", describeEvents(expected.drainEvents()), describeEvents(actual.drainEvents()));
+
+            if (mismatch == null)
+                mismatch = compare(i, command, "best ask", String.valueOf(expected.getBestAskPrice()), String.valueOf(actual.getBestAskPrice()));
+
+            if (mismatch == null)
+                mismatch = compare(i, command, "best bid", String.valueOf(expected.getBestBidPrice()), String.valueOf(actual.getBestBidPrice()));
+
+            if (mismatch == null)
+                mismatch = compare(i, command, "spread", String.valueOf(expected.getSpread()), String.valueOf(actual.getSpread()));
+
+            if (mismatch == null)
+                mismatch = compare(i, command, "book", describeBook(expected), describeBook(actual));
+
+            if (mismatch != null)
+                return mismatch;
+        }
+
+        return null;
+    }
+
+    /**
+     * shrinks a failing command stream by delta debugging: drops the commands after
+     * the first difference, then removes chunks of commands, halving the chunks when
+     * none can go, until removing any single command makes the engines agree
+     *
+     * the shrunk stream may fail on another difference than the original one,
+     * order ids of later commands are not renumbered when inserts are removed
+     *
+     * @param commands failing commands
+     * @return minimal failing commands, the same commands if they don't fail
+     */
+    public List<Command> shrink (List<Command> commands) {
+        List<Command> failing = failingPrefix(commands);
+
+        if (failing == null)
+            return commands;
+
+        int granularity = 2;
+
+        while (failing.size() >= 2) {
+            int chunk = (failing.size() + granularity - 1) / granularity;
+            List<Command> reduced = null;
+
+            // a chunk failing alone
+            for (int start = 0; start < failing.size() && reduced == null; start += chunk) {
+                reduced = failingPrefix(failing.subList(start, Math.min(start + chunk, failing.size())));
+            }
+
+            if (reduced != null) {
+                failing = reduced;
+                granularity = 2;
+                continue;
+            }
+
+            // everything but a chunk failing
+            for (int start = 0; start < failing.size() && reduced == null; start += chunk) {
+                ArrayList<Command> complement = new ArrayList<>(failing.subList(0, start));
+                complement.addAll(failing.subList(Math.min(start + chunk, failing.size()), failing.size()));
+
+                reduced = failingPrefix(complement);
+            }
+
+            if (reduced != null) {
+                failing = reduced;
+                granularity = Math.max(granularity - 1, 2);
+                continue;
+            }
+
+            if (granularity >= failing.size())
+                break;
+
+            granularity = Math.min(granularity * 2, failing.size());
+        }
+
+        return failing;
+    }
+
+    /**
+     * @return the commands up to the first difference, null if the engines agree
+     */
+    private List<Command> failingPrefix (List<Command> commands) {
+        Mismatch mismatch = run(commands);
+
+        if (mismatch == null)
+            return null;
+
+        return new ArrayList<>(commands.subList(0, mismatch.getStep() + 1));
+    }
+
+    // an exception of the candidate is a difference, not a failure of the harness
+    private static String apply (MatchingEngine engine, Command command) {
+        try {
+            return String.valueOf(engine.apply(command));
+        }
+        catch (RuntimeException e) {
+            return e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+    }
+
+    /**
+     * compares two descriptions line by line
+     *
+     * @return the first differing lines, null if equal
+     */
+    private static Mismatch compare (int step, Command command, String what, String expected, String actual) {
+        if (expected.equals(actual))
+            return null;
+
+        String[] expectedLines = expected.split("\n", -1);
+        String[] actualLines = actual.split("\n", -1);
+
+        int line = 0;
+
+        while (line < expectedLines.length && line < actualLines.length && expectedLines[line].equals(actualLines[line])) {
+            line++;
+        }
+
+        return new Mismatch(step, command, what,
+            line < expectedLines.length ? expectedLines[line] : "<nothing more>",
+            line < actualLines.length ? actualLines[line] : "<nothing more>");
+    }
+
+    // times and trading days come from the clock, they are left out
+    private static String describeEvents (List<OrderEvent> events) {
+        StringBuilder builder = new StringBuilder();
+
+        for (OrderEvent event : events) {
+            builder.append(event.getType()).append(' ').append(event.getOrderId()).append(' ').append(event.getUsername())
+                .append(' ').append(event.getSide()).append(' ').append(event.getSize()).append('@').append(event.getPrice());
+
+            Trade trade = event.getTrade();
+
+            if (trade != null)
+                builder.append(" trade ").append(trade.getOrderType()).append(' ').append(trade.getSize()).append('@').append(trade.getPrice());
+
+            builder.append('\n');
+        }
+
+        return builder.toString();
+    }
+
+    private static String describeBook (MatchingEngine engine) {
+        StringBuilder builder = new StringBuilder();
+
+        describeLevels(builder, "ask", engine.getAsks());
+        describeLevels(builder, "bid", engine.getBids());
+
+        describeStops(builder, "stop ask", engine.getStopAsks());
+        describeStops(builder, "stop bid", engine.getStopBids());
+
+        return builder.toString();
+    }
+
+    private static void describeLevels (StringBuilder builder, String side, SortedMap<Integer, List<LimitOrder>> levels) {
+        for (Map.Entry<Integer, List<LimitOrder>> level : levels.entrySet()) {
+            builder.append(side).append(' ').append(level.getKey()).append(':');
+
+            for (LimitOrder order : level.getValue()) {
+                describeOrder(builder, order);
+            }
+
+            builder.append('\n');
+        }
+    }
+
+    private static void describeStops (StringBuilder builder, String side, List<StopOrder> stops) {
+        for (StopOrder stop : stops) {
+            builder.append(side).append(' ').append(stop.getStopPrice()).append(':');
+            describeOrder(builder, stop);
+            builder.append('\n');
+        }
+    }
+
+    private static void describeOrder (StringBuilder builder, Order order) {
+        builder.append(' ').append(order.getOrderId()).append('/').append(order.getUsername()).append('/').append(order.getSize());
+
+        if (order.getExpireAt() != 0)
+            builder.append("/exp").append(order.getExpireAt());
+    }
+}
@@ -0,0 +1,342 @@
+package com.unipi.lab3.cross.engine;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.unipi.lab3.cross.metrics.MetricsRegistry;
+import com.unipi.lab3.cross.model.OrderBook;
+
+/**
+ * engine thread owning a group of order books
+ * 
+ * every operation on the books of the shard runs on this thread,
+ * so books of different shards are matched in parallel on different cores
+ * 
+ * tasks arrive on two lanes, each one in arrival order: cancellations and amendments
+ * on the priority lane run ahead of new orders, at most a burst of them in a row
+ * while new orders are waiting, so new orders are never starved
+ * 
+ * the loop takes tasks from a queue and, between tasks, runs periodic tasks
+ * (expiry, auctions, ...) on the same thread, without locks against matching
+ */
+
+public class EngineShard implements Runnable {
+
+    /**
+     * task waiting in the queue
+     */
+    private static final class Task<T> {
+        private final OrderBook book;
+        private final Function<OrderBook, T> function;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final long enqueuedAt = System.nanoTime();
+        private final boolean priority;
+
+        private Task (OrderBook book, Function<OrderBook, T> function, boolean priority) {
+            this.book = book;
+            this.function = function;
+            this.priority = priority;
+        }
+
+        private void run () {
+            try {
+                this.result.complete(this.function.apply(this.book));
+            }
+            catch (Throwable e) {
+                this.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * task repeated on the engine thread
+     */
+    private static final class PeriodicTask {
+        private final Runnable task;
+        private final long period;
+        private long nextRun;
+
+        private PeriodicTask (Runnable task, long period, long now) {
+            this.task = task;
+            this.period = period;
+            this.nextRun = now + period;
+        }
+    }
+
+    private final int id;
+
+    // lanes of queued tasks, new orders and cancellations
+    private final ConcurrentLinkedQueue<Task<?>> queue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Task<?>> priorityQueue = new ConcurrentLinkedQueue<>();
+
+    // one permit per queued task, on either lane
+    private final Semaphore queued = new Semaphore(0);
+
+    // priority tasks run in a row while new orders are waiting
+    private final int priorityBurst;
+    private int burst = 0;
+
+    // periodic tasks, only accessed by the engine thread once started
+    private final ArrayList<PeriodicTask> periodicTasks = new ArrayList<>();
+    private final LinkedBlockingQueue<PeriodicTask> newPeriodicTasks = new LinkedBlockingQueue<>();
+
+    // queue wait and execution time, may be null
+    private final MetricsRegistry metrics;
+
+    private Thread thread;
+    private volatile boolean running = false;
+
+    // longest idle wait, also bounds the delay of periodic tasks added later
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // default burst of the priority lane
+    public static final int DEFAULT_PRIORITY_BURST = 16;
+
+    public EngineShard (int id, MetricsRegistry metrics) {
+        this(id, DEFAULT_PRIORITY_BURST, metrics);
+    }
+
+    public EngineShard (int id, int priorityBurst, MetricsRegistry metrics) {
+        if (priorityBurst <= 0)
+            throw new IllegalArgumentException("priority burst must be positive");
+
+        this.id = id;
+        this.priorityBurst = priorityBurst;
+        this.metrics = metrics;
+    }
+
+    public int getId () {
+        return this.id;
+    }
+
+    public int getQueueSize () {
+        return this.queue.size();
+    }
+
+    public int getPriorityQueueSize () {
+        return this.priorityQueue.size();
+    }
+
+    /**
+     * gets how long the oldest queued task has been waiting, on either lane
+     * 
+     * @return queue delay in nanoseconds, 0 if nothing is queued
+     */
+    public long getQueueDelay () {
+        long now = System.nanoTime();
+        long delay = 0;
+
+        Task<?> head = this.queue.peek();
+        if (head != null)
+            delay = now - head.enqueuedAt;
+
+        head = this.priorityQueue.peek();
+        if (head != null)
+            delay = Math.max(delay, now - head.enqueuedAt);
+
+        return Math.max(delay, 0);
+    }
+
+    /**
+     * starts the engine thread
+     */
+    public synchronized void start () {
+        if (this.thread != null)
+            return;
+
+        this.running = true;
+
+        this.thread = new Thread(this, "engine-" + this.id);
+        this.thread.start();
+    }
+
+    /**
+     * stops the engine thread, tasks still queued are cancelled
+     */
+    public synchronized void stop () {
+        this.running = false;
+
+        if (this.thread != null) {
+            this.thread.interrupt();
+
+            try {
+                this.thread.join(5000);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // nobody must wait forever on a task never run
+        Task<?> task;
+        while ((task = this.queue.poll()) != null || (task = this.priorityQueue.poll()) != null) {
+            task.result.completeExceptionally(new CancellationException("engine stopped"));
+        }
+    }
+
+    /**
+     * checks if the caller is the engine thread of this shard
+     */
+    public boolean isEngineThread () {
+        return Thread.currentThread() == this.thread;
+    }
+
+    /**
+     * queues a function to run on the engine thread against a book of the shard
+     * 
+     * @param book order book owned by this shard
+     * @param function operation on the book
+     * @return future completed with the result of the function
+     */
+    public <T> CompletableFuture<T> submit (OrderBook book, Function<OrderBook, T> function) {
+        return submit(book, function, false);
+    }
+
+    /**
+     * queues a function on one of the lanes of the engine thread
+     * 
+     * @param book order book owned by this shard
+     * @param function operation on the book
+     * @param priority true for the priority lane of cancellations and amendments
+     * @return future completed with the result of the function
+     */
+    public <T> CompletableFuture<T> submit (OrderBook book, Function<OrderBook, T> function, boolean priority) {
+        Task<T> task = new Task<>(book, function, priority);
+
+        if (!this.running) {
+            task.result.completeExceptionally(new CancellationException("engine not running"));
+            return task.result;
+        }
+
+        if (priority)
+            this.priorityQueue.add(task);
+        else
+            this.queue.add(task);
+
+        this.queued.release();
+
+        // stopped while queuing: the stop may have drained the lanes before the task was added
+        if (!this.running && (priority ? this.priorityQueue.remove(task) : this.queue.remove(task)))
+            task.result.completeExceptionally(new CancellationException("engine stopped"));
+
+        return task.result;
+    }
+
+    /**
+     * runs a task on the engine thread at a fixed period, between queued tasks
+     * 
+     * @param task task to run
+     * @param periodMillis period in milliseconds
+     */
+    public void schedule (Runnable task, long periodMillis) {
+        this.newPeriodicTasks.add(new PeriodicTask(task, TimeUnit.MILLISECONDS.toNanos(periodMillis), System.nanoTime()));
+    }
+
+    public void run () {
+        while (this.running) {
+            try {
+                if (this.queued.tryAcquire(idleWait(), TimeUnit.NANOSECONDS))
+                    execute(next());
+
+                runPeriodicTasks();
+            }
+            catch (InterruptedException e) {
+                // stop requested
+                break;
+            }
+        }
+    }
+
+    /**
+     * takes the next task, from the priority lane unless its burst is over
+     * and new orders are waiting
+     * a permit must have been acquired, so one of the lanes holds a task
+     * 
+     * @return task to run
+     */
+    private Task<?> next () {
+        Task<?> task = null;
+
+        if (this.burst < this.priorityBurst || this.queue.isEmpty())
+            task = this.priorityQueue.poll();
+
+        if (task == null) {
+            // new order, the priority lane gets a new burst
+            this.burst = 0;
+            return this.queue.poll();
+        }
+
+        this.burst++;
+
+        return task;
+    }
+
+    /**
+     * runs a task, recording queue wait, per lane too, and execution time
+     * 
+     * @param task task to run
+     */
+    private void execute (Task<?> task) {
+        long started = System.nanoTime();
+
+        task.run();
+
+        if (this.metrics != null) {
+            long done = System.nanoTime();
+
+            this.metrics.record("engine.wait", started - task.enqueuedAt);
+            this.metrics.record(task.priority ? "engine.wait.priority" : "engine.wait.orders", started - task.enqueuedAt);
+            this.metrics.record("engine.time", done - started);
+        }
+    }
+
+    /**
+     * @return nanoseconds the loop can wait for a task before a periodic task is due
+     */
+    private long idleWait () {
+        long wait = MAX_IDLE_NANOS;
+        long now = System.nanoTime();
+
+        for (PeriodicTask periodic : this.periodicTasks) {
+            wait = Math.min(wait, periodic.nextRun - now);
+        }
+
+        return Math.max(wait, 0);
+    }
+
+    /**
+     * runs the periodic tasks due
+     */
+    private void runPeriodicTasks () {
+        PeriodicTask added;
+        while ((added = this.newPeriodicTasks.poll()) != null) {
+            this.periodicTasks.add(added);
+        }
+
+        if (this.periodicTasks.isEmpty())
+            return;
+
+        long now = System.nanoTime();
+
+        for (PeriodicTask periodic : this.periodicTasks) {
+            if (periodic.nextRun - now > 0)
+                continue;
+
+            try {
+                periodic.task.run();
+            }
+            catch (Exception e) {
+                System.err.println("engine " + this.id + " periodic task error: " + e.getMessage());
+            }
+
+            // skip missed periods instead of running them back to back
+            periodic.nextRun = Math.max(periodic.nextRun + periodic.period, now);
+        }
+    }
+}
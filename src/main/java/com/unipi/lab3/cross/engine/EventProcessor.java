@@ -0,0 +1,160 @@
+package com.unipi.lab3.cross.engine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.unipi.lab3.cross.model.event.OrderEvent;
+import com.unipi.lab3.cross.model.event.OrderEventHandler;
+import com.unipi.lab3.cross.util.AsyncLogger;
+import com.unipi.lab3.cross.util.BroadcastRing;
+
+/**
+ * thread feeding a consumer with the events of an order book,
+ * reading the event ring at its own pace through its own cursor
+ *
+ * a lossless consumer holds back matching when it falls behind by a whole ring,
+ * so durable consumers see every event; a lossy one never slows matching down,
+ * the events overwritten before it reads them are skipped and counted as lost
+ */
+
+public class EventProcessor implements Runnable {
+
+    private final String name;
+    private final BroadcastRing<OrderEvent> ring;
+    private final BroadcastRing<OrderEvent>.Cursor cursor;
+    private final OrderEventHandler handler;
+
+    private Thread thread;
+    private volatile boolean running = false;
+
+    // lost events already logged
+    private long reportedLost = 0;
+
+    // idle wait, doubling from the shortest to the longest while no event arrives
+    private static final long MIN_IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final AsyncLogger log = AsyncLogger.get();
+
+    /**
+     * creates a processor reading the events published from now on
+     *
+     * @param name name of the consumer
+     * @param ring event ring of the order book
+     * @param handler consumer of the events
+     * @param lossless true if matching waits for the consumer instead of dropping events
+     */
+    public EventProcessor (String name, BroadcastRing<OrderEvent> ring, OrderEventHandler handler, boolean lossless) {
+        this.name = name;
+        this.ring = ring;
+        this.cursor = lossless ? ring.newGatingCursor() : ring.newCursor();
+        this.handler = handler;
+    }
+
+    public String getName () {
+        return this.name;
+    }
+
+    public long getLost () {
+        return this.cursor.getLost();
+    }
+
+    public long getLag () {
+        return this.cursor.getLag();
+    }
+
+    /**
+     * checks if the consumer has handled an event, only for lossless consumers
+     *
+     * @param sequence ring sequence of the event
+     * @return true if the event has been handled
+     */
+    public boolean hasHandled (long sequence) {
+        return this.cursor.hasRead(sequence);
+    }
+
+    /**
+     * starts the consumer thread
+     */
+    public synchronized void start () {
+        if (this.thread != null)
+            return;
+
+        this.running = true;
+
+        this.thread = new Thread(this, "events-" + this.name);
+        this.thread.start();
+    }
+
+    /**
+     * stops the consumer thread once the events already published are handled,
+     * matching no longer waits for it
+     */
+    public synchronized void stop () {
+        this.running = false;
+
+        if (this.thread != null) {
+            LockSupport.unpark(this.thread);
+
+            try {
+                this.thread.join(5000);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        this.ring.close(this.cursor);
+    }
+
+    public void run () {
+        long idle = MIN_IDLE_NANOS;
+
+        while (this.running) {
+            if (drain() > 0) {
+                idle = MIN_IDLE_NANOS;
+                continue;
+            }
+
+            LockSupport.parkNanos(idle);
+            idle = Math.min(idle * 2, MAX_IDLE_NANOS);
+        }
+
+        // events published before the stop
+        drain();
+    }
+
+    /**
+     * hands the published events to the consumer
+     *
+     * @return number of events handled
+     */
+    private int drain () {
+        int read = this.cursor.poll(event -> {
+            try {
+                this.handler.onEvent(event);
+            }
+            catch (Exception e) {
+                System.err.println("event consumer " + this.name + " error: " + e.getMessage());
+            }
+        }, Integer.MAX_VALUE);
+
+        if (read > 0) {
+            try {
+                this.handler.onEndOfBatch();
+            }
+            catch (Exception e) {
+                System.err.println("event consumer " + this.name + " error: " + e.getMessage());
+            }
+        }
+
+        long lost = this.cursor.getLost();
+
+        if (lost > this.reportedLost) {
+            log.error("event consumer lapped, events lost", "consumer", this.name, "lost", lost - this.reportedLost);
+            this.reportedLost = lost;
+        }
+
+        return read;
+    }
+}
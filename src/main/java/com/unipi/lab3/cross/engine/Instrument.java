@@ -0,0 +1,158 @@
+package com.unipi.lab3.cross.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.unipi.lab3.cross.model.OrderBook;
+import com.unipi.lab3.cross.model.event.OrderEvent;
+import com.unipi.lab3.cross.model.event.OrderEventHandler;
+import com.unipi.lab3.cross.model.trade.TradeBuffer;
+import com.unipi.lab3.cross.model.trade.TradeMap;
+
+/**
+ * tradable symbol with its own order book, trade history and trade buffer,
+ * owned by a single engine shard
+ * 
+ * trade history and trade buffer are fed by the events of the book,
+ * each one on its own thread, off the matching path
+ */
+
+public class Instrument {
+
+    private final String symbol;
+
+    private final OrderBook orderBook;
+    private final TradeMap tradeMap;
+    private final TradeBuffer bufferedTrades;
+
+    private final EngineShard shard;
+
+    // journal of the commands applied to the book, null if not journaled
+    private final CommandJournal journal;
+
+    // consumers of the events of the book
+    private final ArrayList<EventProcessor> processors = new ArrayList<>();
+
+    // consumer filling the trade buffer
+    private final EventProcessor persistence;
+
+    public Instrument (String symbol, OrderBook orderBook, TradeMap tradeMap, TradeBuffer bufferedTrades, EngineShard shard, CommandJournal journal) {
+        this.symbol = symbol;
+        this.orderBook = orderBook;
+        this.tradeMap = tradeMap;
+        this.bufferedTrades = bufferedTrades;
+        this.shard = shard;
+        this.journal = journal;
+
+        orderBook.setSymbol(symbol);
+
+        // executed orders, by trading day
+        subscribe("trades", event -> {
+            if (event.getType() == OrderEvent.Type.FILLED)
+                tradeMap.addTrade(event.getDate().toString(), event.getTrade());
+        });
+
+        // executed orders waiting to be persisted, waits for the persistence thread when the buffer is full
+        subscribe("persistence", event -> {
+            if (event.getType() == OrderEvent.Type.FILLED)
+                bufferedTrades.put(event.getTrade());
+        });
+
+        this.persistence = this.processors.get(this.processors.size() - 1);
+    }
+
+    public String getSymbol () {
+        return this.symbol;
+    }
+
+    public OrderBook getOrderBook () {
+        return this.orderBook;
+    }
+
+    public TradeMap getTradeMap () {
+        return this.tradeMap;
+    }
+
+    public TradeBuffer getBufferedTrades () {
+        return this.bufferedTrades;
+    }
+
+    public EngineShard getShard () {
+        return this.shard;
+    }
+
+    public CommandJournal getJournal () {
+        return this.journal;
+    }
+
+    /**
+     * adds a lossless consumer of the events of the book, before the instrument is started
+     * 
+     * @param name name of the consumer
+     * @param handler consumer of the events
+     */
+    public void subscribe (String name, OrderEventHandler handler) {
+        subscribe(name, handler, true);
+    }
+
+    /**
+     * adds a consumer of the events of the book, before the instrument is started
+     * 
+     * @param name name of the consumer
+     * @param handler consumer of the events
+     * @param lossless true if matching waits for the consumer, false for best effort consumers
+     *                 skipping the events they fall behind on
+     */
+    public void subscribe (String name, OrderEventHandler handler, boolean lossless) {
+        this.processors.add(new EventProcessor(this.symbol + "-" + name, this.orderBook.getEvents(), handler, lossless));
+    }
+
+    /**
+     * waits until the trades of the events up to a ring sequence are in the trade buffer
+     * 
+     * @param eventSequence ring sequence of the last event, as taken by a snapshot
+     * @param timeoutMillis longest wait
+     * @return true if they are, false on timeout
+     */
+    public boolean awaitBuffered (long eventSequence, long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        while (!this.persistence.hasHandled(eventSequence)) {
+            if (System.nanoTime() - deadline > 0)
+                return false;
+
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        return true;
+    }
+
+    public List<EventProcessor> getProcessors () {
+        return Collections.unmodifiableList(this.processors);
+    }
+
+    /**
+     * starts the event consumers
+     */
+    public void start () {
+        for (EventProcessor processor : this.processors) {
+            processor.start();
+        }
+    }
+
+    /**
+     * stops the event consumers, after the events already emitted are handled,
+     * and closes the journal
+     */
+    public void stop () {
+        for (EventProcessor processor : this.processors) {
+            processor.stop();
+        }
+
+        if (this.journal != null)
+            this.journal.close();
+    }
+}
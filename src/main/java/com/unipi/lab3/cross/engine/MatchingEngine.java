@@ -0,0 +1,69 @@
+package com.unipi.lab3.cross.engine;
+
+import java.util.List;
+import java.util.SortedMap;
+
+import com.unipi.lab3.cross.model.event.OrderEvent;
+import com.unipi.lab3.cross.model.orders.LimitOrder;
+import com.unipi.lab3.cross.model.orders.StopOrder;
+
+/**
+ * matching engine of a single symbol, as seen by the differential harness:
+ * commands go in, events and the resting book come out
+ *
+ * the order book is the reference implementation, a reworked engine
+ * implements this interface to be checked against it
+ */
+
+public interface MatchingEngine {
+
+    /**
+     * applies a command, as Command.apply does on an order book
+     *
+     * @param command command to apply
+     * @return result of the command, same codes as Command.apply
+     */
+    int apply (Command command);
+
+    /**
+     * gets the events emitted since the last call, in emission order
+     *
+     * @return events of the last commands
+     */
+    List<OrderEvent> drainEvents ();
+
+    /**
+     * @return best ask price, 0 if there are no asks
+     */
+    int getBestAskPrice ();
+
+    /**
+     * @return best bid price, 0 if there are no bids
+     */
+    int getBestBidPrice ();
+
+    /**
+     * @return spread, -1 if a side is empty
+     */
+    int getSpread ();
+
+    /**
+     * @return resting asks by price from the best, orders of a level in priority order
+     */
+    SortedMap<Integer, List<LimitOrder>> getAsks ();
+
+    /**
+     * @return resting bids by price from the best, orders of a level in priority order
+     */
+    SortedMap<Integer, List<LimitOrder>> getBids ();
+
+    /**
+     * @return waiting stop asks, in trigger order
+     */
+    List<StopOrder> getStopAsks ();
+
+    /**
+     * @return waiting stop bids, in trigger order
+     */
+    List<StopOrder> getStopBids ();
+}
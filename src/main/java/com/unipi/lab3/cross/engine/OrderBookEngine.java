@@ -0,0 +1,103 @@
+package com.unipi.lab3.cross.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.unipi.lab3.cross.model.OrderBook;
+import com.unipi.lab3.cross.model.OrderGroup;
+import com.unipi.lab3.cross.model.event.OrderEvent;
+import com.unipi.lab3.cross.model.orders.LimitOrder;
+import com.unipi.lab3.cross.model.orders.StopOrder;
+import com.unipi.lab3.cross.util.BroadcastRing;
+
+/**
+ * the order book as a matching engine, reference model of the differential harness
+ */
+
+public class OrderBookEngine implements MatchingEngine {
+
+    private final OrderBook book;
+
+    private final BroadcastRing<OrderEvent>.Cursor cursor;
+
+    /**
+     * creates an engine over an empty book
+     */
+    public OrderBookEngine () {
+        this(new OrderBook());
+    }
+
+    /**
+     * creates an engine over a book, reading its events from now on
+     * must not be used while an engine thread owns the book
+     *
+     * @param book order book to drive
+     */
+    public OrderBookEngine (OrderBook book) {
+        this.book = book;
+        this.cursor = book.getEvents().newCursor();
+    }
+
+    public OrderBook getOrderBook () {
+        return this.book;
+    }
+
+    public int apply (Command command) {
+        synchronized (this.book) {
+            return command.apply(this.book);
+        }
+    }
+
+    public List<OrderEvent> drainEvents () {
+        ArrayList<OrderEvent> events = new ArrayList<>();
+
+        // read after every command, the ring never laps the harness
+        this.cursor.poll(events::add, Integer.MAX_VALUE);
+
+        return events;
+    }
+
+    public int getBestAskPrice () {
+        return this.book.getBestAskPrice();
+    }
+
+    public int getBestBidPrice () {
+        return this.book.getBestBidPrice();
+    }
+
+    public int getSpread () {
+        return this.book.getSpread();
+    }
+
+    public SortedMap<Integer, List<LimitOrder>> getAsks () {
+        return levels(this.book.getLimitAsks());
+    }
+
+    public SortedMap<Integer, List<LimitOrder>> getBids () {
+        return levels(this.book.getLimitBids());
+    }
+
+    public List<StopOrder> getStopAsks () {
+        return new ArrayList<>(this.book.getStopAsks());
+    }
+
+    public List<StopOrder> getStopBids () {
+        return new ArrayList<>(this.book.getStopBids());
+    }
+
+    // copies a side keeping the order of its levels, empty levels left by the book are skipped
+    private static SortedMap<Integer, List<LimitOrder>> levels (ConcurrentSkipListMap<Integer, OrderGroup> side) {
+        TreeMap<Integer, List<LimitOrder>> levels = new TreeMap<>(side.comparator());
+
+        for (Map.Entry<Integer, OrderGroup> level : side.entrySet()) {
+            if (!level.getValue().getLimitOrders().isEmpty())
+                levels.put(level.getKey(), new ArrayList<>(level.getValue().getLimitOrders()));
+        }
+
+        return levels;
+    }
+}
@@ -0,0 +1,94 @@
+package com.unipi.lab3.cross.engine;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.unipi.lab3.cross.model.OrderBook;
+import com.unipi.lab3.cross.model.event.OrderEvent;
+import com.unipi.lab3.cross.model.event.OrderEventHandler;
+import com.unipi.lab3.cross.util.BroadcastRing;
+
+/**
+ * feeds journaled commands to an order book, at full speed or at the pace they were recorded
+ *
+ * commands already applied to the book, up to its input sequence, are skipped,
+ * so the same journal recovers a book loaded from any snapshot taken while it was written
+ * every command is applied at its recorded time and with the ids it gave,
+ * so a replay reaches the same state and trades
+ */
+
+public class Replayer {
+
+    private Replayer () {}
+
+    /**
+     * replays the commands of a journal after the input sequence of the book
+     * must not run while an engine thread owns the book
+     *
+     * @param book order book to feed
+     * @param entries journaled commands in journal order
+     * @param realtime true to wait between commands as long as when they were recorded
+     * @param handler consumer of the events of the replay, called on this thread, may be null
+     * @return number of commands applied
+     */
+    public static int replay (OrderBook book, List<CommandJournal.Entry> entries, boolean realtime, OrderEventHandler handler) {
+        BroadcastRing<OrderEvent>.Cursor cursor = book.getEvents().newCursor();
+
+        long startNanos = System.nanoTime();
+        long firstTimestamp = -1;
+
+        int applied = 0;
+
+        for (CommandJournal.Entry entry : entries) {
+            long expected = book.getInputSequence() + 1;
+
+            if (entry.getSequence() < expected)
+                continue;
+
+            if (entry.getSequence() > expected)
+                System.err.println("journal gap: expected command " + expected + ", found " + entry.getSequence());
+
+            if (realtime) {
+                if (firstTimestamp < 0)
+                    firstTimestamp = entry.getTimestamp();
+
+                long due = startNanos + TimeUnit.MILLISECONDS.toNanos(entry.getTimestamp() - firstTimestamp);
+                long wait;
+
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+
+            synchronized (book) {
+                // ids as recorded, whatever namespace the book numbers from
+                if (entry.getNextId() > 0)
+                    book.setNextId(entry.getNextId());
+
+                // trades and expiries dated as when recorded, not as when replayed
+                book.setClock(entry.getTimestamp());
+
+                try {
+                    entry.getCommand().apply(book);
+                }
+                catch (IllegalArgumentException e) {
+                    System.err.println("skipping journaled command " + entry.getSequence() + ": " + e.getMessage());
+                }
+                finally {
+                    book.setClock(OrderBook.WALL_CLOCK);
+                }
+
+                book.setInputSequence(entry.getSequence());
+            }
+
+            applied++;
+
+            // read after every command, the ring never laps the replay
+            if (handler != null && cursor.poll(handler::onEvent, Integer.MAX_VALUE) > 0)
+                handler.onEndOfBatch();
+        }
+
+        return applied;
+    }
+}
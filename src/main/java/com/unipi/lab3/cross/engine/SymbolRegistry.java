@@ -0,0 +1,366 @@
+package com.unipi.lab3.cross.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+
+import com.unipi.lab3.cross.metrics.MetricsRegistry;
+import com.unipi.lab3.cross.model.OrderBook;
+import com.unipi.lab3.cross.model.orders.Quote;
+import com.unipi.lab3.cross.model.trade.TradeBuffer;
+import com.unipi.lab3.cross.model.trade.TradeMap;
+
+/**
+ * registry of the tradable symbols and of the engine shards running them
+ * 
+ * every symbol has an independent order book, symbols are hashed to a fixed
+ * number of shards, each one a single engine thread, so different symbols
+ * are matched in parallel and a symbol is always matched by the same thread
+ */
+
+public class SymbolRegistry {
+
+    // symbol used by requests without one, keeps the original single book files
+    public static final String DEFAULT_SYMBOL = "BTCUSD";
+
+    // period of the expiry check of every order book, the tick of its expiry wheel
+    private static final long EXPIRY_PERIOD_MILLIS = 100;
+
+    // instruments in configuration order
+    private final LinkedHashMap<String, Instrument> instruments = new LinkedHashMap<>();
+
+    private final EngineShard[] shards;
+
+    // server metrics, may be null
+    private final MetricsRegistry metrics;
+
+    public SymbolRegistry (int shards, MetricsRegistry metrics) {
+        this(shards, EngineShard.DEFAULT_PRIORITY_BURST, metrics);
+    }
+
+    /**
+     * creates the engine shards
+     * 
+     * @param shards number of engine threads
+     * @param priorityBurst cancellations run in a row ahead of waiting new orders
+     * @param metrics server metrics, may be null
+     */
+    public SymbolRegistry (int shards, int priorityBurst, MetricsRegistry metrics) {
+        if (shards <= 0)
+            throw new IllegalArgumentException("number of shards must be positive");
+
+        this.shards = new EngineShard[shards];
+        this.metrics = metrics;
+
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new EngineShard(i, priorityBurst, metrics);
+
+            if (metrics != null) {
+                metrics.registerGauge("engine.queue." + i, this.shards[i]::getQueueSize);
+                metrics.registerGauge("engine.priorityQueue." + i, this.shards[i]::getPriorityQueueSize);
+            }
+        }
+    }
+
+    public Instrument add (String symbol, OrderBook orderBook, TradeMap tradeMap, TradeBuffer bufferedTrades) {
+        return add(symbol, orderBook, tradeMap, bufferedTrades, null);
+    }
+
+    /**
+     * adds a symbol with its order book, before the registry is started
+     * the matching mode of the book must already be set
+     * 
+     * @param symbol symbol name
+     * @param orderBook order book of the symbol
+     * @param tradeMap trade history of the symbol
+     * @param bufferedTrades trades of the symbol waiting to be persisted
+     * @param journal journal of the commands applied to the book, null to not journal them
+     * @return the new instrument
+     */
+    public Instrument add (String symbol, OrderBook orderBook, TradeMap tradeMap, TradeBuffer bufferedTrades, CommandJournal journal) {
+        if (this.instruments.containsKey(symbol))
+            throw new IllegalArgumentException("duplicate symbol " + symbol);
+
+        Instrument instrument = new Instrument(symbol, orderBook, tradeMap, bufferedTrades, shardFor(symbol), journal);
+
+        this.instruments.put(symbol, instrument);
+
+        // expired orders are removed by the engine thread between commands
+        instrument.getShard().schedule(() -> apply(instrument, Command.expire(symbol, System.currentTimeMillis()), Command::apply), EXPIRY_PERIOD_MILLIS);
+
+        // batch auction mode, collected orders are matched at the end of every interval
+        if (orderBook.getAuctionInterval() > 0)
+            instrument.getShard().schedule(() -> apply(instrument, Command.auction(symbol), Command::apply), orderBook.getAuctionInterval());
+
+        return instrument;
+    }
+
+    /**
+     * maps a symbol to its shard
+     * 
+     * @param symbol symbol name
+     * @return shard running the symbol
+     */
+    public EngineShard shardFor (String symbol) {
+        return this.shards[Math.floorMod(symbol.hashCode(), this.shards.length)];
+    }
+
+    /**
+     * gets an instrument by symbol
+     * 
+     * @param symbol symbol name, null for the default symbol
+     * @return the instrument, null if the symbol is unknown
+     */
+    public Instrument get (String symbol) {
+        return this.instruments.get(symbol == null ? DEFAULT_SYMBOL : symbol);
+    }
+
+    public Collection<Instrument> getInstruments () {
+        return Collections.unmodifiableCollection(this.instruments.values());
+    }
+
+    public List<EngineShard> getShards () {
+        return List.of(this.shards);
+    }
+
+    /**
+     * gets the queue delay of the shard running a symbol
+     * 
+     * @param symbol symbol name, null for the default symbol
+     * @return queue delay in nanoseconds, 0 if the symbol is unknown
+     */
+    public long getQueueDelay (String symbol) {
+        Instrument instrument = get(symbol);
+
+        return instrument == null ? 0 : instrument.getShard().getQueueDelay();
+    }
+
+    /**
+     * runs a command on the engine thread of its symbol,
+     * cancellations and amendments on the priority lane
+     * 
+     * @param command command to run
+     * @return future completed with the return code of the command,
+     *         null if the symbol is unknown
+     */
+    public CompletableFuture<Integer> execute (Command command) {
+        Instrument instrument = get(command.getSymbol());
+
+        if (instrument == null)
+            return null;
+
+        return instrument.getShard().submit(instrument.getOrderBook(), book -> apply(instrument, command, Command::apply), command.isPriority());
+    }
+
+    /**
+     * replaces the quotes of a user on the order book of a symbol, on its engine thread
+     * 
+     * @param symbol symbol of the order book, null for the default one
+     * @param username user quoting
+     * @param quotes target levels
+     * @return future completed with the result of every quote, as returned by the order book,
+     *         null if the symbol is unknown
+     */
+    public CompletableFuture<int[]> massQuote (String symbol, String username, List<Quote> quotes) {
+        Instrument instrument = get(symbol);
+
+        if (instrument == null)
+            return null;
+
+        Command command = Command.massQuote(instrument.getSymbol(), username, quotes);
+
+        return instrument.getShard().submit(instrument.getOrderBook(), book -> apply(instrument, command, (c, b) -> b.massQuote(username, quotes)));
+    }
+
+    /**
+     * runs a batch of commands of the same symbol as a single engine task,
+     * holding the order book monitor once for the whole batch
+     * 
+     * @param symbol symbol of every command, null for the default one
+     * @param commands commands to run in order
+     * @return future completed with the return code of every command, in order,
+     *         null if the symbol is unknown
+     */
+    public CompletableFuture<int[]> executeBatch (String symbol, List<Command> commands) {
+        Instrument instrument = get(symbol);
+
+        if (instrument == null)
+            return null;
+
+        // a batch of cancellations only takes the priority lane
+        boolean priority = !commands.isEmpty() && commands.stream().allMatch(Command::isPriority);
+
+        return instrument.getShard().submit(instrument.getOrderBook(), book -> {
+            int[] results = new int[commands.size()];
+
+            // order book methods reenter the monitor without contention
+            synchronized (book) {
+                for (int i = 0; i < results.length; i++) {
+                    results[i] = apply(instrument, commands.get(i), Command::apply);
+                }
+            }
+
+            return results;
+        }, priority);
+    }
+
+    /**
+     * applies a command to the order book of an instrument and journals it
+     * together, under the book monitor, so a snapshot never splits them
+     * must run on the engine thread owning the book
+     * 
+     * @param instrument instrument of the command
+     * @param command command to apply and journal
+     * @param operation application of the command to the book
+     * @return result of the operation
+     */
+    private static <T> T apply (Instrument instrument, Command command, BiFunction<Command, OrderBook, T> operation) {
+        OrderBook book = instrument.getOrderBook();
+
+        synchronized (book) {
+            long sequence = book.getSequence();
+            int nextId = book.getNextId();
+
+            // trades and expiries of the command get the time it is journaled with
+            long now = System.currentTimeMillis();
+            book.setClock(now);
+
+            T result;
+
+            try {
+                result = operation.apply(command, book);
+            }
+            finally {
+                book.setClock(OrderBook.WALL_CLOCK);
+            }
+
+            // idle expiry checks and empty auctions leave the book untouched, nothing to replay
+            if (command.isTimer() && book.getSequence() == sequence)
+                return result;
+
+            book.setInputSequence(book.getInputSequence() + 1);
+
+            if (instrument.getJournal() != null)
+                instrument.getJournal().append(book.getInputSequence(), now, nextId, command);
+
+            return result;
+        }
+    }
+
+    /**
+     * cancels every order of a user over every symbol,
+     * each order book on its own engine thread
+     * 
+     * @param username username of the user
+     * @return number of cancelled orders
+     */
+    public int cancelAllOrders (String username) {
+        ArrayList<CompletableFuture<Integer>> futures = new ArrayList<>();
+
+        for (Instrument instrument : this.instruments.values()) {
+            futures.add(execute(Command.cancelAll(instrument.getSymbol(), username)));
+        }
+
+        int count = 0;
+
+        for (CompletableFuture<Integer> future : futures) {
+            count += future.join();
+        }
+
+        return count;
+    }
+
+    /**
+     * counts the pending stop orders of a user over every symbol
+     * 
+     * @param username username of the user
+     * @return number of pending stop orders
+     */
+    public int countUserStopOrders (String username) {
+        int count = 0;
+
+        for (Instrument instrument : this.instruments.values()) {
+            count += instrument.getOrderBook().countUserStopOrders(username);
+        }
+
+        return count;
+    }
+
+    /**
+     * starts the event consumers of every instrument, then the engine threads
+     */
+    public void start () {
+        for (Instrument instrument : this.instruments.values()) {
+            if (this.metrics != null) {
+                for (EventProcessor processor : instrument.getProcessors()) {
+                    this.metrics.registerCounter("events.lost." + processor.getName(), processor::getLost);
+                    this.metrics.registerGauge("events.lag." + processor.getName(), processor::getLag);
+                }
+            }
+
+            instrument.start();
+        }
+
+        for (EngineShard shard : this.shards) {
+            shard.start();
+        }
+    }
+
+    /**
+     * stops the engine threads, pending commands are cancelled,
+     * then the event consumers once they have handled every event emitted
+     */
+    public void stop () {
+        for (EngineShard shard : this.shards) {
+            shard.stop();
+        }
+
+        for (Instrument instrument : this.instruments.values()) {
+            instrument.stop();
+        }
+    }
+
+    /**
+     * gets the orders file of a symbol
+     * the default symbol keeps the file of the single book server
+     * 
+     * @param symbol symbol name
+     * @return path of the orders file
+     */
+    public static String ordersFile (String symbol) {
+        if (DEFAULT_SYMBOL.equals(symbol))
+            return "src/main/resources/orders.json";
+
+        return "src/main/resources/orders_" + symbol + ".json";
+    }
+
+    /**
+     * gets the trades file of a symbol
+     * 
+     * @param symbol symbol name
+     * @return path of the trades file
+     */
+    public static String tradesFile (String symbol) {
+        if (DEFAULT_SYMBOL.equals(symbol))
+            return "src/main/resources/storicoOrdini.json";
+
+        return "src/main/resources/storicoOrdini_" + symbol + ".json";
+    }
+
+    /**
+     * gets the command journal file of a symbol
+     * 
+     * @param symbol symbol name
+     * @return path of the journal file
+     */
+    public static String journalFile (String symbol) {
+        if (DEFAULT_SYMBOL.equals(symbol))
+            return "src/main/resources/journal.log";
+
+        return "src/main/resources/journal_" + symbol + ".log";
+    }
+}
@@ -0,0 +1,74 @@
+package com.unipi.lab3.cross.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * order book operation, from entry to exit of the engine method
+ * the time spent waiting for the order book monitor is not included
+ */
+
+@Name("com.unipi.lab3.cross.Engine")
+@Label("Engine Operation")
+@Category({"Cross", "Engine"})
+@Description("Order book operation, including stop orders triggered by it")
+@StackTrace(false)
+public class EngineEvent extends Event {
+
+    @Label("Operation")
+    private String operation;
+
+    @Label("Order ID")
+    @Description("Order id returned by the engine, -1 on failure")
+    private int orderId;
+
+    @Label("User")
+    private String username;
+
+    @Label("Side")
+    private String side;
+
+    @Label("Size")
+    private int size;
+
+    @Label("Price")
+    private int price;
+
+    @Label("Levels Swept")
+    @Description("Price levels matched against, including triggered stop orders")
+    private int levelsSwept;
+
+    @Label("Fills")
+    private int fills;
+
+    /**
+     * sets the values of the operation
+     *
+     * @param operation engine method
+     * @param orderId returned order id or code
+     * @param username user placing or cancelling the order
+     * @param side ask or bid, null for cancellations
+     * @param size size of the order
+     * @param price limit or stop price, -1 if none
+     */
+    public void setOrder (String operation, int orderId, String username, String side, int size, int price) {
+        this.operation = operation;
+        this.orderId = orderId;
+        this.username = username;
+        this.side = side;
+        this.size = size;
+        this.price = price;
+    }
+
+    public void setLevelsSwept (int levelsSwept) {
+        this.levelsSwept = levelsSwept;
+    }
+
+    public void setFills (int fills) {
+        this.fills = fills;
+    }
+}
@@ -0,0 +1,62 @@
+package com.unipi.lab3.cross.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * resting order filled, fully or partially, by an incoming order
+ */
+
+@Name("com.unipi.lab3.cross.Fill")
+@Label("Fill")
+@Category({"Cross", "Engine"})
+@StackTrace(false)
+public class FillEvent extends Event {
+
+    @Label("Order ID")
+    private int orderId;
+
+    @Label("Maker")
+    private String maker;
+
+    @Label("Taker")
+    private String taker;
+
+    @Label("Side")
+    private String side;
+
+    @Label("Size")
+    private int size;
+
+    @Label("Price")
+    private int price;
+
+    @Label("Remaining")
+    @Description("Size left on the resting order")
+    private int remaining;
+
+    /**
+     * sets the values of the fill
+     *
+     * @param orderId id of the resting order
+     * @param maker owner of the resting order
+     * @param taker user of the incoming order
+     * @param side side of the resting order
+     * @param size filled size
+     * @param price price of the level
+     * @param remaining size left on the resting order
+     */
+    public void setFill (int orderId, String maker, String taker, String side, int size, int price, int remaining) {
+        this.orderId = orderId;
+        this.maker = maker;
+        this.taker = taker;
+        this.side = side;
+        this.size = size;
+        this.price = price;
+        this.remaining = remaining;
+    }
+}
@@ -0,0 +1,65 @@
+package com.unipi.lab3.cross.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * order request handled by a client handler,
+ * from the reception of the json line to the response
+ */
+
+@Name("com.unipi.lab3.cross.OrderReceived")
+@Label("Order Received")
+@Category({"Cross", "Requests"})
+@Description("Order request handled by a client handler, from parsing to response")
+@StackTrace(false)
+public class OrderReceivedEvent extends Event {
+
+    @Label("Operation")
+    private String operation;
+
+    @Label("User")
+    private String username;
+
+    @Label("Order ID")
+    @Description("Assigned or cancelled order id, -1 on failure")
+    private int orderId = -1;
+
+    @Label("Side")
+    private String side;
+
+    @Label("Size")
+    private int size;
+
+    @Label("Price")
+    private int price;
+
+    public void setOperation (String operation) {
+        this.operation = operation;
+    }
+
+    public void setUsername (String username) {
+        this.username = username;
+    }
+
+    public void setOrderId (int orderId) {
+        this.orderId = orderId;
+    }
+
+    /**
+     * sets the values of the requested order
+     *
+     * @param side ask or bid
+     * @param size size of the order
+     * @param price limit or stop price, -1 for market orders
+     */
+    public void setOrder (String side, int size, int price) {
+        this.side = side;
+        this.size = size;
+        this.price = price;
+    }
+}
@@ -0,0 +1,25 @@
+package com.unipi.lab3.cross.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * periodic save of one of the data files
+ */
+
+@Name("com.unipi.lab3.cross.PersistenceSave")
+@Label("Persistence Save")
+@Category({"Cross", "Persistence"})
+@StackTrace(false)
+public class PersistenceSaveEvent extends Event {
+
+    @Label("Data")
+    private String data;
+
+    public PersistenceSaveEvent (String data) {
+        this.data = data;
+    }
+}
@@ -0,0 +1,43 @@
+package com.unipi.lab3.cross.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * stop orders triggered by a change of the best prices,
+ * the whole cascade is one event
+ */
+
+@Name("com.unipi.lab3.cross.StopTrigger")
+@Label("Stop Trigger Cascade")
+@Category({"Cross", "Engine"})
+@Description("Stop orders triggered by a change of the best prices")
+@StackTrace(false)
+public class StopTriggerEvent extends Event {
+
+    @Label("Triggered")
+    @Description("Stop orders executed or failed in the cascade")
+    private int triggered;
+
+    @Label("Levels Swept")
+    private int levelsSwept;
+
+    @Label("Fills")
+    private int fills;
+
+    public void setTriggered (int triggered) {
+        this.triggered = triggered;
+    }
+
+    public void setLevelsSwept (int levelsSwept) {
+        this.levelsSwept = levelsSwept;
+    }
+
+    public void setFills (int fills) {
+        this.fills = fills;
+    }
+}
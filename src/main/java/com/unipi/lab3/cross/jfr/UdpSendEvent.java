@@ -0,0 +1,47 @@
+package com.unipi.lab3.cross.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * udp notification serialized and sent to a client
+ */
+
+@Name("com.unipi.lab3.cross.UdpSend")
+@Label("UDP Notification")
+@Category({"Cross", "Notifications"})
+@StackTrace(false)
+public class UdpSendEvent extends Event {
+
+    @Label("User")
+    private String username;
+
+    @Label("Notification")
+    private String notification;
+
+    @Label("Trades")
+    private int trades;
+
+    @Label("Bytes")
+    @DataAmount
+    private int bytes;
+
+    /**
+     * sets the values of the notification
+     *
+     * @param username user notified
+     * @param notification notification type
+     * @param trades number of trades in the notification
+     * @param bytes size of the datagram
+     */
+    public void setNotification (String username, String notification, int trades, int bytes) {
+        this.username = username;
+        this.notification = notification;
+        this.trades = trades;
+        this.bytes = bytes;
+    }
+}
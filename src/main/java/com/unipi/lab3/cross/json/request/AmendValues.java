@@ -0,0 +1,37 @@
+package com.unipi.lab3.cross.json.request;
+
+public class AmendValues implements Values {
+    private int orderID;
+    private int size;
+    private int price;
+
+    // symbol of the order book, null for the default one
+    private String symbol;
+
+    public AmendValues (int orderID, int size, int price, String symbol) {
+        this.orderID = orderID;
+        this.size = size;
+        this.price = price;
+        this.symbol = symbol;
+    }
+
+    public int getOrderID () {
+        return this.orderID;
+    }
+
+    public int getSize () {
+        return this.size;
+    }
+
+    public int getPrice () {
+        return this.price;
+    }
+
+    public String getSymbol () {
+        return this.symbol;
+    }
+
+    public String toString () {
+        return "{orderID: " + this.orderID + ", size: " + this.size + ", price: " + this.price + ", symbol: " + this.symbol + "}";
+    }
+}
@@ -0,0 +1,46 @@
+package com.unipi.lab3.cross.json.request;
+
+import java.util.List;
+
+public class BatchValues implements Values {
+    // symbol of every order in the batch, null for the default one
+    private String symbol;
+
+    // limit orders to insert
+    private List<OrderValues> orders;
+
+    // ids of the orders to cancel
+    private List<Integer> orderIds;
+
+    public BatchValues () {}
+
+    public static BatchValues ofOrders (List<OrderValues> orders, String symbol) {
+        BatchValues values = new BatchValues();
+        values.orders = orders;
+        values.symbol = symbol;
+        return values;
+    }
+
+    public static BatchValues ofOrderIds (List<Integer> orderIds, String symbol) {
+        BatchValues values = new BatchValues();
+        values.orderIds = orderIds;
+        values.symbol = symbol;
+        return values;
+    }
+
+    public String getSymbol () {
+        return this.symbol;
+    }
+
+    public List<OrderValues> getOrders () {
+        return this.orders;
+    }
+
+    public List<Integer> getOrderIds () {
+        return this.orderIds;
+    }
+
+    public String toString () {
+        return "{symbol: " + this.symbol + ", orders: " + this.orders + ", orderIds: " + this.orderIds + "}";
+    }
+}
@@ -3,14 +3,26 @@ package com.unipi.lab3.cross.json.request;
 public class HistoryValues implements Values {
     private String date;
 
+    // symbol of the trade history, null for the default one
+    private String symbol;
+
     public HistoryValues (String date) {
         this.date = date;
     }
 
+    public HistoryValues (String date, String symbol) {
+        this.date = date;
+        this.symbol = symbol;
+    }
+
     public String getDate () {
         return this.date;
     }
 
+    public String getSymbol () {
+        return this.symbol;
+    }
+
     public int getMonth() {
         return Integer.parseInt(date.substring(0, 2));
     }
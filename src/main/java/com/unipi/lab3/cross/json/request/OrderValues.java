@@ -5,12 +5,26 @@ public class OrderValues implements Values {
     private int size;
     private int price;
 
+    // symbol of the order book, null for the default one
+    private String symbol;
+
+    // GTC, IOC or FOK, null for the default of the order type
+    private String timeInForce;
+
+    // expiry of limit and stop orders in milliseconds since epoch, 0 for none
+    private long expireAt;
+
     public OrderValues(String type, int size, int price) {
         this.type = type;
         this.size = size;
         this.price = price;
     }
 
+    public OrderValues(String type, int size, int price, String symbol) {
+        this(type, size, price);
+        this.symbol = symbol;
+    }
+
     public String getType () {
         return type;
     }
@@ -23,6 +37,18 @@ public class OrderValues implements Values {
         return price;
     }
 
+    public String getSymbol () {
+        return symbol;
+    }
+
+    public String getTimeInForce () {
+        return timeInForce;
+    }
+
+    public long getExpireAt () {
+        return expireAt;
+    }
+
     public void setType (String type) {
         this.type = type;
     }
@@ -35,6 +61,18 @@ public class OrderValues implements Values {
         this.price = price;
     }
 
+    public void setSymbol (String symbol) {
+        this.symbol = symbol;
+    }
+
+    public void setTimeInForce (String timeInForce) {
+        this.timeInForce = timeInForce;
+    }
+
+    public void setExpireAt (long expireAt) {
+        this.expireAt = expireAt;
+    }
+
     public String toString () {
         return "{type: " + this.type + ", size: " + this.size + ", price: " + this.price + "}";
     }
@@ -0,0 +1,21 @@
+package com.unipi.lab3.cross.json.request;
+
+public class SymbolValues implements Values {
+    private String symbol;
+
+    public SymbolValues (String symbol) {
+        this.symbol = symbol;
+    }
+
+    public String getSymbol () {
+        return this.symbol;
+    }
+
+    public void setSymbol (String symbol) {
+        this.symbol = symbol;
+    }
+
+    public String toString () {
+        return "{symbol: " + this.symbol + "}";
+    }
+}
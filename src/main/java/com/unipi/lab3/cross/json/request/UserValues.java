@@ -6,6 +6,9 @@ public class UserValues implements Values {
     private String newPassword;
     private NetworkValues networkValues;
 
+    // cancel every order of the user when the connection is lost, login only
+    private boolean cancelOnDisconnect;
+
     public UserValues (String username) {
         this.username = username;
     }
@@ -21,6 +24,13 @@ public class UserValues implements Values {
         this.networkValues = netVal;
     }
 
+    public UserValues (String username, String password, NetworkValues netVal, boolean cancelOnDisconnect) {
+        this.username = username;
+        this.password = password;
+        this.networkValues = netVal;
+        this.cancelOnDisconnect = cancelOnDisconnect;
+    }
+
     public UserValues (String username, String password, String newPassword) {
         this.username = username;
         this.password = password;
@@ -43,6 +53,10 @@ public class UserValues implements Values {
         return networkValues;
     }
 
+    public boolean getCancelOnDisconnect () {
+        return cancelOnDisconnect;
+    }
+
     public void setUsername (String username) {
         this.username = username;
     }
@@ -0,0 +1,24 @@
+package com.unipi.lab3.cross.json.response;
+
+public class BatchResponse extends Response {
+    private String operation;
+
+    // one result per item, in request order:
+    // order id or -1 for insertions, 100 or 101 for cancellations
+    private int[] results;
+
+    public BatchResponse() {}
+
+    public BatchResponse(String operation, int[] results) {
+        this.operation = operation;
+        this.results = results;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public int[] getResults() {
+        return results;
+    }
+}
@@ -0,0 +1,41 @@
+package com.unipi.lab3.cross.json.response;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.unipi.lab3.cross.metrics.LatencyHistogram;
+import com.unipi.lab3.cross.metrics.LatencySummary;
+import com.unipi.lab3.cross.metrics.MetricsRegistry;
+
+public class MetricsResponse extends Response {
+
+    private TreeMap<String, Long> counters;
+    private TreeMap<String, Long> gauges;
+
+    // latencies in microseconds
+    private TreeMap<String, LatencySummary> latencies;
+
+    public MetricsResponse() {}
+
+    public MetricsResponse(MetricsRegistry metrics) {
+        this.counters = metrics.getCounters();
+        this.gauges = metrics.getGauges();
+        this.latencies = new TreeMap<>();
+
+        for (Map.Entry<String, LatencyHistogram> entry : metrics.getHistograms().entrySet()) {
+            this.latencies.put(entry.getKey(), new LatencySummary(entry.getValue()));
+        }
+    }
+
+    public TreeMap<String, Long> getCounters() {
+        return counters;
+    }
+
+    public TreeMap<String, Long> getGauges() {
+        return gauges;
+    }
+
+    public TreeMap<String, LatencySummary> getLatencies() {
+        return latencies;
+    }
+}
@@ -9,6 +9,12 @@ public class Notification {
     private final String notification;
     private final LinkedList<Trade> trades;
 
+    // symbol of the order book the trades belong to
+    private String symbol;
+
+    // send time in microseconds since epoch, set by the notifier
+    private long sentAt;
+
     public Notification (String notification, LinkedList<Trade> trades) {
         this.notification = notification;
         this.trades = new LinkedList<>(trades);
@@ -22,4 +28,20 @@ public class Notification {
         return this.trades;
     }
 
+    public String getSymbol () {
+        return this.symbol;
+    }
+
+    public void setSymbol (String symbol) {
+        this.symbol = symbol;
+    }
+
+    public long getSentAt () {
+        return this.sentAt;
+    }
+
+    public void setSentAt (long sentAt) {
+        this.sentAt = sentAt;
+    }
+
 }
\ No newline at end of file
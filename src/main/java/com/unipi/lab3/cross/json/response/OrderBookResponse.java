@@ -1,18 +1,30 @@
 package com.unipi.lab3.cross.json.response;
 
-import com.unipi.lab3.cross.model.OrderBook;
+import com.unipi.lab3.cross.model.OrderBookSnapshot;
 
 public class OrderBookResponse extends Response {
     
-    OrderBook orderBook;
+    // copy taken under the book monitor, without engine counters
+    OrderBookSnapshot orderBook;
+
+    String symbol;
 
     public OrderBookResponse() {}
 
-    public OrderBookResponse(OrderBook orderBook) {
+    public OrderBookResponse(OrderBookSnapshot orderBook) {
+        this.orderBook = orderBook;
+    }
+
+    public OrderBookResponse(OrderBookSnapshot orderBook, String symbol) {
         this.orderBook = orderBook;
+        this.symbol = symbol;
+    }
+
+    public String getSymbol() {
+        return symbol;
     }
 
-    public OrderBook getOrderBook() {
+    public OrderBookSnapshot getOrderBook() {
         return orderBook;
     }    
 }
@@ -5,13 +5,25 @@ import com.unipi.lab3.cross.json.request.*;
 public class OrderResponse extends Response implements Values{
     private int orderID;
 
+    // symbol of the order, only set by cancel requests
+    private String symbol;
+
     public OrderResponse() {}
 
     public OrderResponse(int orderID) {
         this.orderID = orderID;
     }
 
+    public OrderResponse(int orderID, String symbol) {
+        this.orderID = orderID;
+        this.symbol = symbol;
+    }
+
     public int getOrderID() {
         return orderID;
     }
+
+    public String getSymbol() {
+        return symbol;
+    }
 }
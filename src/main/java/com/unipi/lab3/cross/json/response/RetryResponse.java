@@ -0,0 +1,17 @@
+package com.unipi.lab3.cross.json.response;
+
+public class RetryResponse extends UserResponse {
+    // milliseconds the client should wait before retrying
+    private long retryAfter;
+
+    public RetryResponse() {}
+
+    public RetryResponse(String operation, int response, String errorMessage, long retryAfter) {
+        super(operation, response, errorMessage);
+        this.retryAfter = retryAfter;
+    }
+
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,334 @@
+package com.unipi.lab3.cross.loadgen;
+
+import java.io.*;
+import java.net.*;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import com.unipi.lab3.cross.engine.Command;
+import com.unipi.lab3.cross.json.request.*;
+import com.unipi.lab3.cross.json.response.Notification;
+import com.unipi.lab3.cross.json.response.OrderResponse;
+import com.unipi.lab3.cross.workload.OrderFlowGenerator;
+
+/**
+ * a synthetic client session of the load generator
+ * registers and logs in a user, then sends requests at a fixed rate
+ * following the configured operation mix, waiting for each response
+ * 
+ * requests are scheduled at fixed intended times, and response times are measured
+ * from the intended time, so a slow response also counts the delay
+ * it caused to the following requests
+ */
+
+public class LoadSession implements Runnable {
+
+    private final String address;
+    private final int tcpPort;
+
+    private final String username;
+    private final String password;
+
+    // symbol traded by this session, null for the server default
+    private final String symbol;
+
+    // operation mix, names and cumulative weights
+    private final String[] operations;
+    private final int[] cumulativeWeights;
+
+    // interval between two requests of this session in nanoseconds
+    private final long interval;
+
+    // timing of the run, in System.nanoTime
+    private final long startTime;
+    private final long measureTime;
+    private final long endTime;
+
+    // prices and sizes of generated orders
+    private final int basePrice;
+    private final int priceRange;
+    private final int maxSize;
+
+    private final LoadStats stats;
+    private final CountDownLatch ready;
+
+    private final SplittableRandom random;
+
+    // ids of orders placed by this session, candidates for cancellation
+    private final ArrayList<Integer> placedOrders = new ArrayList<>();
+
+    // generated order flow of the session replacing the operation mix, null to use the mix
+    private final OrderFlowGenerator flow;
+
+    private final Gson gson = new Gson();
+
+    private volatile boolean listening = false;
+
+    public LoadSession (String address, int tcpPort, String username, String password, String symbol, String[] operations, int[] cumulativeWeights,
+                        long interval, long startTime, long measureTime, long endTime, int basePrice, int priceRange, int maxSize,
+                        LoadStats stats, CountDownLatch ready, long seed, OrderFlowGenerator flow) {
+        this.address = address;
+        this.tcpPort = tcpPort;
+        this.username = username;
+        this.password = password;
+        this.symbol = symbol;
+        this.operations = operations;
+        this.cumulativeWeights = cumulativeWeights;
+        this.interval = interval;
+        this.startTime = startTime;
+        this.measureTime = measureTime;
+        this.endTime = endTime;
+        this.basePrice = basePrice;
+        this.priceRange = priceRange;
+        this.maxSize = maxSize;
+        this.stats = stats;
+        this.ready = ready;
+        this.random = new SplittableRandom(seed);
+        this.flow = flow;
+    }
+
+    public void run () {
+        boolean counted = false;
+
+        try (Socket socket = new Socket(address, tcpPort);
+             DatagramSocket udpSocket = new DatagramSocket();
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+
+            // listen for notifications to measure delivery lag
+            Thread listener = startListener(udpSocket);
+
+            // register, the user may already exist from a previous run
+            out.println(gson.toJson(new Request<UserValues>("register", new UserValues(username, password))));
+            in.readLine();
+
+            out.println(gson.toJson(new Request<UserValues>("login", new UserValues(username, password, new NetworkValues(udpSocket.getLocalPort())))));
+            JsonObject login = JsonParser.parseString(in.readLine()).getAsJsonObject();
+
+            ready.countDown();
+            counted = true;
+
+            if (login.get("response").getAsInt() != 100) {
+                System.err.println("session " + username + " login failed: " + login.get("errorMessage").getAsString());
+                return;
+            }
+
+            // first request of the session, sessions are staggered over an interval,
+            // generated flows send at their own poisson arrival times
+            Command command = flow == null ? null : flow.next().getCommand();
+            long intended = flow == null ? startTime + random.nextLong(interval) : startTime + flow.getElapsedNanos();
+
+            while (intended < endTime) {
+                // wait for the intended send time
+                long now;
+                while ((now = System.nanoTime()) < intended) {
+                    LockSupport.parkNanos(intended - now);
+                }
+
+                String operation = command == null ? nextOperation() : command.getOperation();
+
+                long sent = System.nanoTime();
+
+                out.println(command == null ? buildRequest(operation) : buildRequest(command));
+                String response = in.readLine();
+
+                long received = System.nanoTime();
+
+                // server closed the connection
+                if (response == null)
+                    break;
+
+                boolean error = handleResponse(operation, response);
+
+                if (intended >= measureTime)
+                    stats.record(operation, received - intended, received - sent, error);
+
+                if (flow == null) {
+                    intended += interval;
+                }
+                else {
+                    command = flow.next().getCommand();
+                    intended = startTime + flow.getElapsedNanos();
+                }
+            }
+
+            out.println(gson.toJson(new Request<Values>("logout", null)));
+            in.readLine();
+
+            listening = false;
+            listener.interrupt();
+        }
+        catch (Exception e) {
+            System.err.println("session " + username + " error: " + e.getMessage());
+        }
+        finally {
+            // never block the other sessions
+            if (!counted)
+                ready.countDown();
+        }
+    }
+
+    /**
+     * starts a daemon thread receiving udp notifications
+     * 
+     * @param udpSocket socket registered at login
+     * @return the listener thread
+     */
+    private Thread startListener (DatagramSocket udpSocket) throws SocketException {
+        udpSocket.setSoTimeout(500);
+        listening = true;
+
+        Thread listener = new Thread(() -> {
+            byte[] buf = new byte[65536];
+
+            while (listening) {
+                try {
+                    DatagramPacket packet = new DatagramPacket(buf, buf.length);
+                    udpSocket.receive(packet);
+
+                    long receivedAt = nowMicros();
+
+                    Notification notification = gson.fromJson(new String(packet.getData(), 0, packet.getLength()), Notification.class);
+
+                    if (notification.getSentAt() > 0)
+                        stats.recordNotificationLag(receivedAt - notification.getSentAt());
+                }
+                catch (SocketTimeoutException e) {
+                    continue;
+                }
+                catch (Exception e) {
+                    break;
+                }
+            }
+        });
+
+        listener.setDaemon(true);
+        listener.start();
+
+        return listener;
+    }
+
+    /**
+     * picks the next operation following the configured weights
+     * 
+     * @return operation name
+     */
+    private String nextOperation () {
+        int draw = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+
+        for (int i = 0; i < operations.length; i++) {
+            if (draw < cumulativeWeights[i])
+                return operations[i];
+        }
+
+        return operations[operations.length - 1];
+    }
+
+    /**
+     * builds the json request for an operation with random values
+     * 
+     * @param operation operation name
+     * @return json request string
+     */
+    private String buildRequest (String operation) {
+        String type = random.nextBoolean() ? "ask" : "bid";
+        int size = 1 + random.nextInt(maxSize);
+        int price = Math.max(1, basePrice - priceRange + random.nextInt(2 * priceRange + 1));
+
+        switch (operation) {
+            case "insertLimitOrder":
+            case "insertStopOrder":
+                return gson.toJson(new Request<OrderValues>(operation, new OrderValues(type, size, price, symbol)));
+
+            case "insertMarketOrder":
+                return gson.toJson(new Request<OrderValues>(operation, new OrderValues(type, size, -1, symbol)));
+
+            case "cancelOrder":
+                // nothing placed yet, cancel a non existent order
+                int orderId = -1;
+
+                if (!placedOrders.isEmpty())
+                    orderId = placedOrders.remove(random.nextInt(placedOrders.size()));
+
+                return gson.toJson(new Request<OrderResponse>(operation, new OrderResponse(orderId, symbol)));
+
+            case "getPriceHistory":
+                LocalDate today = LocalDate.now();
+                String date = String.format("%02d%04d", today.getMonthValue(), today.getYear());
+
+                return gson.toJson(new Request<HistoryValues>(operation, new HistoryValues(date, symbol)));
+
+            case "getOrderBook":
+                return gson.toJson(new Request<SymbolValues>(operation, symbol == null ? null : new SymbolValues(symbol)));
+
+            default:
+                return gson.toJson(new Request<Values>(operation, null));
+        }
+    }
+
+    /**
+     * builds the json request of a generated command, on the symbol of the session
+     * 
+     * @param command generated command
+     * @return json request string
+     */
+    private String buildRequest (Command command) {
+        switch (command.getOperation()) {
+            case "cancelOrder":
+                return gson.toJson(new Request<OrderResponse>("cancelOrder", new OrderResponse(command.getOrderId(), symbol)));
+
+            case "insertMarketOrder":
+                return gson.toJson(new Request<OrderValues>("insertMarketOrder", new OrderValues(command.getType(), command.getSize(), -1, symbol)));
+
+            default:
+                return gson.toJson(new Request<OrderValues>(command.getOperation(), new OrderValues(command.getType(), command.getSize(), command.getPrice(), symbol)));
+        }
+    }
+
+    /**
+     * keeps track of placed orders and checks for errors
+     * 
+     * @param operation operation of the request
+     * @param response json response string
+     * @return true if the response is an error
+     */
+    private boolean handleResponse (String operation, String response) {
+        JsonObject obj = JsonParser.parseString(response).getAsJsonObject();
+
+        if (obj.has("orderID")) {
+            int orderId = obj.get("orderID").getAsInt();
+
+            // cancellations of the flow target the ids given by the server
+            if (flow != null)
+                flow.acknowledge(orderId);
+
+            if (orderId == -1)
+                return true;
+
+            // market orders don't rest in the book, the flow keeps its own orders
+            if (flow == null && !operation.equals("insertMarketOrder"))
+                placedOrders.add(orderId);
+
+            return false;
+        }
+
+        // user responses carry a code, 100 on success
+        if (obj.has("response"))
+            return obj.get("response").getAsInt() != 100;
+
+        return false;
+    }
+
+    private static long nowMicros () {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000L + now.getNano() / 1_000;
+    }
+}
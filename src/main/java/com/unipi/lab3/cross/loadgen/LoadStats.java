@@ -0,0 +1,108 @@
+package com.unipi.lab3.cross.loadgen;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.unipi.lab3.cross.metrics.LatencyHistogram;
+
+/**
+ * statistics collected by the load generator sessions
+ * 
+ * for every operation keeps two histograms, in nanoseconds:
+ * response time from the intended send time of the request, which includes
+ * the time a request waited for the previous one (no coordinated omission),
+ * and service time from the actual send time
+ */
+
+public class LoadStats {
+
+    // map operation - histogram of response times from intended send time
+    private final ConcurrentHashMap<String, LatencyHistogram> responseTimes = new ConcurrentHashMap<>();
+
+    // map operation - histogram of response times from actual send time
+    private final ConcurrentHashMap<String, LatencyHistogram> serviceTimes = new ConcurrentHashMap<>();
+
+    // map operation - number of error responses
+    private final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    // delivery lag of udp notifications, in microseconds
+    private final LatencyHistogram notificationLag = new LatencyHistogram();
+
+    /**
+     * records a completed request
+     * 
+     * @param operation operation of the request
+     * @param responseTime nanoseconds from the intended send time to the response
+     * @param serviceTime nanoseconds from the actual send time to the response
+     * @param error true if the server answered with an error
+     */
+    public void record (String operation, long responseTime, long serviceTime, boolean error) {
+        this.responseTimes.computeIfAbsent(operation, op -> new LatencyHistogram()).record(responseTime);
+        this.serviceTimes.computeIfAbsent(operation, op -> new LatencyHistogram()).record(serviceTime);
+
+        if (error)
+            this.errors.computeIfAbsent(operation, op -> new LongAdder()).increment();
+    }
+
+    /**
+     * records the delivery lag of a udp notification
+     * 
+     * @param lag microseconds from the notifier send time to the reception
+     */
+    public void recordNotificationLag (long lag) {
+        this.notificationLag.record(lag);
+    }
+
+    /**
+     * prints a report of the collected statistics
+     * 
+     * @param seconds duration of the measurement in seconds
+     */
+    public void printReport (double seconds) {
+        System.out.println("\n=============================================================================================");
+        System.out.println("                                  LOAD GENERATOR REPORT                                      ");
+        System.out.println("=============================================================================================\n");
+
+        System.out.println("response time from intended send time (us):");
+        printTable(this.responseTimes, seconds, 1_000);
+
+        System.out.println("\nservice time from actual send time (us):");
+        printTable(this.serviceTimes, seconds, 1_000);
+
+        System.out.println("\nudp notification delivery lag (us):");
+        System.out.printf("%-20s %10s %10s %10s %10s %10s %10s%n", "", "count", "p50", "p90", "p99", "p99.9", "max");
+        printRow("notifications", this.notificationLag, 1);
+
+        System.out.println("=============================================================================================\n");
+    }
+
+    private void printTable (ConcurrentHashMap<String, LatencyHistogram> histograms, double seconds, long unit) {
+        System.out.printf("%-20s %10s %10s %10s %10s %10s %10s %10s %10s%n", "operation", "count", "errors", "ops/s", "p50", "p90", "p99", "p99.9", "max");
+        System.out.println("---------------------------------------------------------------------------------------------");
+
+        // sorted by operation name
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            LongAdder errorCount = this.errors.get(entry.getKey());
+
+            System.out.printf("%-20s %10d %10d %10.1f ", entry.getKey(), histogram.getCount(), errorCount == null ? 0 : errorCount.sum(), histogram.getCount() / seconds);
+            printPercentiles(histogram, unit);
+        }
+    }
+
+    private void printRow (String name, LatencyHistogram histogram, long unit) {
+        System.out.printf("%-20s %10d ", name, histogram.getCount());
+        printPercentiles(histogram, unit);
+    }
+
+    private void printPercentiles (LatencyHistogram histogram, long unit) {
+        System.out.printf("%10d %10d %10d %10d %10d%n",
+            histogram.getValueAtPercentile(50) / unit,
+            histogram.getValueAtPercentile(90) / unit,
+            histogram.getValueAtPercentile(99) / unit,
+            histogram.getValueAtPercentile(99.9) / unit,
+            histogram.getMax() / unit);
+    }
+}
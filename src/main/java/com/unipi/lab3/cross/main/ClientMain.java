@@ -75,15 +75,21 @@ public class ClientMain {
     System.out.println("Available Commands:");
     System.out.println("================================================================================");
     System.out.printf("  %-45s -> %s%n", "register(username,password)", "create your account");
-    System.out.printf("  %-45s -> %s%n", "login(username,password)", "login to cross");
+    System.out.printf("  %-45s -> %s%n", "login(username,password[,cancelOnDisconnect])", "login to cross, true to cancel your orders when disconnected");
     System.out.printf("  %-45s -> %s%n", "updateCredentials(username,oldPassword,newPassword)", "update your credentials");
     System.out.printf("  %-45s -> %s%n", "logout()", "logout from cross");
-    System.out.printf("  %-45s -> %s%n", "insertLimitOrder(type,size,price)", "insert an ask or bid limit order");
-    System.out.printf("  %-45s -> %s%n", "insertMarketOrder(type,size)", "insert a market order");
-    System.out.printf("  %-45s -> %s%n", "insertStopOrder(type,size,price)", "insert an ask or bid stop order");
-    System.out.printf("  %-45s -> %s%n", "cancelOrder(orderID)", "cancel an order");
-    System.out.printf("  %-45s -> %s%n", "getOrderBook()", "show the order book");
-    System.out.printf("  %-45s -> %s%n", "getPriceHistory(month,year)", "show history for given month/year");
+    System.out.printf("  %-45s -> %s%n", "insertLimitOrder(type,size,price[,symbol][,GTC|IOC|FOK][,seconds])", "insert an ask or bid limit order, expiring after the given seconds");
+    System.out.printf("  %-45s -> %s%n", "insertMarketOrder(type,size[,symbol][,IOC|FOK])", "insert a market order, fill or kill by default");
+    System.out.printf("  %-45s -> %s%n", "insertStopOrder(type,size,price[,symbol][,seconds])", "insert an ask or bid stop order, expiring after the given seconds");
+    System.out.printf("  %-45s -> %s%n", "cancelOrder(orderID[,symbol])", "cancel an order");
+    System.out.printf("  %-45s -> %s%n", "cancelAllOrders([symbol])", "cancel all your orders, of every symbol when omitted");
+    System.out.printf("  %-45s -> %s%n", "amendOrder(orderID,size,price[,symbol])", "change size and price of a limit order");
+    System.out.printf("  %-45s -> %s%n", "insertOrders(type,size,price,...[,symbol])", "insert many limit orders at once");
+    System.out.printf("  %-45s -> %s%n", "cancelOrders(orderID,...[,symbol])", "cancel many orders at once");
+    System.out.printf("  %-45s -> %s%n", "massQuote(type,size,price,...[,symbol])", "replace your quotes at the given levels");
+    System.out.printf("  %-45s -> %s%n", "getOrderBook([symbol])", "show the order book");
+    System.out.printf("  %-45s -> %s%n", "getPriceHistory(month,year[,symbol])", "show history for given month/year");
+    System.out.printf("  %-45s -> %s%n", "getMetrics()", "show server metrics");
     System.out.printf("  %-45s -> %s%n", "help()", "show this help message");
     System.out.printf("  %-45s -> %s%n", "exit()", "exit the application");
     System.out.println("================================================================================\n");
@@ -0,0 +1,172 @@
+package com.unipi.lab3.cross.main;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Supplier;
+
+import com.unipi.lab3.cross.engine.Command;
+import com.unipi.lab3.cross.engine.CommandJournal;
+import com.unipi.lab3.cross.engine.DifferentialHarness;
+import com.unipi.lab3.cross.engine.MatchingEngine;
+import com.unipi.lab3.cross.engine.OrderBookEngine;
+import com.unipi.lab3.cross.util.AsyncLogger;
+import com.unipi.lab3.cross.workload.OrderFlowGenerator;
+import com.unipi.lab3.cross.workload.WorkloadProfile;
+
+/**
+ * main class for the differential check of a matching engine against the order book
+ *
+ * runs the candidate engine and the order book on a recorded journal, starting
+ * from an empty book, or on generated flows of a workload with consecutive seeds;
+ * at the first difference shrinks the failing commands and writes them as a journal
+ *
+ * usage: DiffMain candidateClass [journalFile | workloadFile | default | deepBook | stopCascade] [runs] [commands]
+ */
+
+public class DiffMain {
+
+    // journal of the shrunk failing commands
+    private static final String reproducerFile = "diff_repro.log";
+
+    public static void main (String[] args) {
+        if (args.length < 1) {
+            System.err.println("usage: DiffMain candidateClass [journalFile | workloadFile | default | deepBook | stopCascade] [runs] [commands]");
+            System.exit(1);
+        }
+
+        String input = args.length > 1 ? args[1] : "default";
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int count = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+
+        Supplier<MatchingEngine> candidate;
+
+        try {
+            candidate = engineFactory(args[0]);
+        }
+        catch (ReflectiveOperationException | IllegalArgumentException e) {
+            System.err.println("error loading candidate engine " + args[0] + ": " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        // engine logs would outweigh the check, rejected stops are warned thousands of times
+        AsyncLogger.get().setLevel(AsyncLogger.Level.ERROR);
+
+        DifferentialHarness harness = new DifferentialHarness(OrderBookEngine::new, candidate);
+
+        List<List<Command>> streams = new ArrayList<>();
+
+        try {
+            if (new File(input).exists() && !input.endsWith(".properties")) {
+                streams.add(commands(CommandJournal.read(input)));
+            }
+            else {
+                WorkloadProfile profile = new File(input).exists() ? loadProfile(input) : WorkloadProfile.preset(input);
+                long seed = profile.getSeed();
+
+                for (int i = 0; i < runs; i++) {
+                    profile.setSeed(seed + i);
+                    streams.add(commands(new OrderFlowGenerator(profile, null).generate(count)));
+                }
+            }
+        }
+        catch (IOException | IllegalArgumentException e) {
+            System.err.println("error reading " + input + ": " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        long checked = 0;
+
+        for (int i = 0; i < streams.size(); i++) {
+            List<Command> commands = streams.get(i);
+            DifferentialHarness.Mismatch mismatch = harness.run(commands);
+
+            if (mismatch == null) {
+                checked += commands.size();
+                continue;
+            }
+
+            System.out.println("stream " + i + ": " + mismatch);
+
+            List<Command> reproducer = harness.shrink(commands);
+
+            System.out.println("shrunk " + commands.size() + " commands to " + reproducer.size() + " in " + harness.getRuns() + " runs:");
+
+            for (Command command : reproducer) {
+                System.out.println("  " + command);
+            }
+
+            System.out.println(harness.run(reproducer));
+
+            writeReproducer(reproducer);
+
+            System.exit(1);
+        }
+
+        System.out.println("engines agree on " + streams.size() + " streams, " + checked + " commands");
+    }
+
+    private static Supplier<MatchingEngine> engineFactory (String className) throws ReflectiveOperationException {
+        Class<?> engineClass = Class.forName(className);
+
+        if (!MatchingEngine.class.isAssignableFrom(engineClass))
+            throw new IllegalArgumentException("not a matching engine");
+
+        // fails now rather than on every run
+        engineClass.getDeclaredConstructor().newInstance();
+
+        return () -> {
+            try {
+                return (MatchingEngine) engineClass.getDeclaredConstructor().newInstance();
+            }
+            catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private static List<Command> commands (List<CommandJournal.Entry> entries) {
+        ArrayList<Command> commands = new ArrayList<>(entries.size());
+
+        for (CommandJournal.Entry entry : entries) {
+            commands.add(entry.getCommand());
+        }
+
+        return commands;
+    }
+
+    // renumbered from 1, so ReplayMain applies every command to a fresh book
+    private static void writeReproducer (List<Command> commands) {
+        new File(reproducerFile).delete();
+
+        try {
+            CommandJournal journal = new CommandJournal(reproducerFile);
+
+            for (int i = 0; i < commands.size(); i++) {
+                journal.append(new CommandJournal.Entry(i + 1, i, commands.get(i)));
+            }
+
+            journal.close();
+
+            System.out.println("reproducer written to " + reproducerFile);
+        }
+        catch (IOException e) {
+            System.err.println("error writing reproducer: " + e.getMessage());
+        }
+    }
+
+    private static WorkloadProfile loadProfile (String path) throws IOException {
+        Properties props = new Properties();
+
+        try (FileInputStream inputFile = new FileInputStream(path)) {
+            props.load(inputFile);
+        }
+
+        return WorkloadProfile.load(props);
+    }
+}
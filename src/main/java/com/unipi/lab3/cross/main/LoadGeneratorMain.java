@@ -0,0 +1,183 @@
+package com.unipi.lab3.cross.main;
+
+import java.io.*;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.unipi.lab3.cross.loadgen.LoadSession;
+import com.unipi.lab3.cross.loadgen.LoadStats;
+import com.unipi.lab3.cross.workload.OrderFlowGenerator;
+import com.unipi.lab3.cross.workload.WorkloadProfile;
+
+/**
+ * main class for the cross load generator
+ * 
+ * opens concurrent client sessions against a running server on loopback,
+ * sends a configurable mix of requests at a constant aggregate rate
+ * and prints latency percentiles per operation at the end of the run
+ */
+
+public class LoadGeneratorMain {
+
+    // load generator configuration
+    private static final String configFile = "src/main/resources/loadgen.properties";
+
+    // server address
+    private static String address;
+    private static int tcpPort;
+
+    // number of concurrent sessions
+    private static int sessions;
+
+    // aggregate requests per second over all sessions
+    private static int rate;
+
+    // duration of the run and of the initial warmup, in seconds
+    private static int duration;
+    private static int warmup;
+
+    // symbols traded by the sessions, assigned round robin, empty for the server default
+    private static String[] symbols;
+
+    // operation mix, operation:weight pairs
+    private static String mix;
+
+    // values of generated orders
+    private static int basePrice;
+    private static int priceRange;
+    private static int maxSize;
+
+    // password of the generated users
+    private static String password;
+
+    // seed of the random generators
+    private static long seed;
+
+    // workload properties of a generated order flow replacing the mix, empty to use the mix
+    private static String workload;
+
+    public static void main (String[] args) {
+        try {
+            getProperties();
+        }
+        catch (Exception e) {
+            System.err.println("error reading load generator properties: " + e.getMessage());
+            System.exit(1);
+        }
+
+        String[] entries = mix.split(",");
+        String[] operations = new String[entries.length];
+        int[] cumulativeWeights = new int[entries.length];
+
+        int total = 0;
+
+        for (int i = 0; i < entries.length; i++) {
+            String[] pair = entries[i].trim().split(":");
+
+            operations[i] = pair[0].trim();
+            total += Integer.parseInt(pair[1].trim());
+            cumulativeWeights[i] = total;
+        }
+
+        if (total <= 0 || sessions <= 0 || rate <= 0) {
+            System.err.println("invalid load generator configuration");
+            System.exit(1);
+        }
+
+        // every session sends at an equal share of the aggregate rate
+        long interval = 1_000_000_000L * sessions / rate;
+
+        // generated order flow, every session sends its share of the rate as its own user
+        WorkloadProfile profile = null;
+
+        if (!workload.isEmpty()) {
+            try (FileInputStream inputFile = new FileInputStream(workload)) {
+                Properties props = new Properties();
+                props.load(inputFile);
+
+                profile = WorkloadProfile.load(props);
+                profile.setRate((double) rate / sessions);
+            }
+            catch (IOException | IllegalArgumentException e) {
+                System.err.println("error reading workload " + workload + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        LoadStats stats = new LoadStats();
+        CountDownLatch ready = new CountDownLatch(sessions);
+
+        ExecutorService pool = Executors.newFixedThreadPool(sessions);
+
+        System.out.println("connecting " + sessions + " sessions to " + address + ":" + tcpPort);
+
+        // schedule starts after a short delay to let every session log in
+        long startTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        long measureTime = startTime + TimeUnit.SECONDS.toNanos(warmup);
+        long endTime = measureTime + TimeUnit.SECONDS.toNanos(duration);
+
+        for (int i = 0; i < sessions; i++) {
+            String symbol = symbols.length == 0 ? null : symbols[i % symbols.length];
+            String username = "load" + i;
+
+            OrderFlowGenerator flow = profile == null ? null : new OrderFlowGenerator(profile, symbol, List.of(username), seed + i, 1);
+
+            pool.execute(new LoadSession(address, tcpPort, username, password, symbol, operations, cumulativeWeights,
+                                              interval, startTime, measureTime, endTime, basePrice, priceRange, maxSize,
+                                              stats, ready, seed + i, flow));
+        }
+
+        try {
+            ready.await();
+
+            System.out.println("running " + rate + " requests/s for " + duration + "s after " + warmup + "s of warmup");
+
+            pool.shutdown();
+
+            if (!pool.awaitTermination(warmup + duration + 60, TimeUnit.SECONDS)) {
+                System.err.println("sessions did not terminate in time");
+                pool.shutdownNow();
+            }
+        }
+        catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        stats.printReport(duration);
+    }
+
+    /**
+     * loads load generator parameters from the properties file
+     * 
+     * @throws FileNotFoundException exception if file cannot be found
+     * @throws IOException exception if an error occurs reading file
+     */
+    public static void getProperties () throws FileNotFoundException, IOException {
+        Properties props = new Properties();
+
+        FileInputStream inputFile = new FileInputStream(configFile);
+        props.load(inputFile);
+
+        address = props.getProperty("address", "localhost");
+        tcpPort = Integer.parseInt(props.getProperty("tcpPort"));
+        sessions = Integer.parseInt(props.getProperty("sessions", "16"));
+        rate = Integer.parseInt(props.getProperty("rate", "1000"));
+        duration = Integer.parseInt(props.getProperty("duration", "30"));
+        warmup = Integer.parseInt(props.getProperty("warmup", "5"));
+        mix = props.getProperty("mix");
+        symbols = props.getProperty("symbols", "").isBlank() ? new String[0] : props.getProperty("symbols").trim().split("\\s*,\\s*");
+        basePrice = Integer.parseInt(props.getProperty("basePrice", "10000"));
+        priceRange = Integer.parseInt(props.getProperty("priceRange", "50"));
+        maxSize = Integer.parseInt(props.getProperty("maxSize", "10"));
+        password = props.getProperty("password", "loadtest1");
+        seed = Long.parseLong(props.getProperty("seed", "42"));
+        workload = props.getProperty("workload", "").trim();
+
+        inputFile.close();
+    }
+}
@@ -0,0 +1,87 @@
+package com.unipi.lab3.cross.main;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.unipi.lab3.cross.engine.CommandJournal;
+import com.unipi.lab3.cross.engine.Replayer;
+import com.unipi.lab3.cross.model.OrderBook;
+import com.unipi.lab3.cross.model.event.OrderEvent;
+import com.unipi.lab3.cross.model.trade.Trade;
+import com.unipi.lab3.cross.util.AsyncLogger;
+
+/**
+ * main class for the journal replay tool
+ *
+ * feeds the commands of a journal into a fresh order book, or into the book of
+ * an orders file taken before them, at full speed or at the recorded pace,
+ * then prints the throughput, the trades and the checksum of the final state,
+ * to compare with the checksum printed by the server at shutdown
+ *
+ * usage: ReplayMain journalFile [ordersFile] [--realtime]
+ */
+
+public class ReplayMain {
+
+    public static void main (String[] args) {
+        String journalFile = null;
+        String ordersFile = null;
+        boolean realtime = false;
+
+        for (String arg : args) {
+            if (arg.equals("--realtime"))
+                realtime = true;
+            else if (journalFile == null)
+                journalFile = arg;
+            else
+                ordersFile = arg;
+        }
+
+        if (journalFile == null) {
+            System.err.println("usage: ReplayMain journalFile [ordersFile] [--realtime]");
+            System.exit(1);
+        }
+
+        List<CommandJournal.Entry> entries;
+
+        try {
+            entries = CommandJournal.read(journalFile);
+        }
+        catch (IOException e) {
+            System.err.println("error reading journal: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        // engine logs would outweigh the replay
+        AsyncLogger.get().setLevel(AsyncLogger.Level.WARN);
+
+        OrderBook orderBook = ordersFile == null ? new OrderBook() : ServerMain.loadOrderBook(ordersFile);
+
+        // trades in execution order, timestamps excluded since they come from the clock
+        CRC32 tradesCrc = new CRC32();
+        long[] trades = new long[1];
+
+        long start = System.nanoTime();
+
+        int applied = Replayer.replay(orderBook, entries, realtime, event -> {
+            if (event.getType() != OrderEvent.Type.FILLED)
+                return;
+
+            Trade trade = event.getTrade();
+            String line = trade.getOrderId() + "," + trade.getUsername() + "," + trade.getType() + "," + trade.getOrderType()
+                + "," + trade.getSize() + "," + trade.getPrice() + "\n";
+
+            tradesCrc.update(line.getBytes(StandardCharsets.UTF_8));
+            trades[0]++;
+        });
+
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("replayed %d of %d commands in %.3f s (%.0f commands/s)%n", applied, entries.size(), elapsed / 1e9, applied / (elapsed / 1e9));
+        System.out.println("trades " + trades[0] + " checksum " + Long.toHexString(tradesCrc.getValue()));
+        System.out.println("input " + orderBook.getInputSequence() + " checksum " + Long.toHexString(orderBook.checksum()));
+    }
+}
@@ -1,9 +1,17 @@
 package com.unipi.lab3.cross.main;
 
+import com.unipi.lab3.cross.engine.CommandJournal;
+import com.unipi.lab3.cross.engine.EngineShard;
+import com.unipi.lab3.cross.engine.Instrument;
+import com.unipi.lab3.cross.engine.Replayer;
+import com.unipi.lab3.cross.engine.SymbolRegistry;
+import com.unipi.lab3.cross.metrics.MetricsRegistry;
 import com.unipi.lab3.cross.model.*;
+import com.unipi.lab3.cross.model.event.OrderEvent;
 import com.unipi.lab3.cross.model.trade.*;
 import com.unipi.lab3.cross.model.user.*;
 import com.unipi.lab3.cross.server.*;
+import com.unipi.lab3.cross.util.AsyncLogger;
 
 import java.io.*;
 import java.net.*;
@@ -15,6 +23,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.ToLongFunction;
 import java.lang.reflect.Type;
 import java.time.*;
 
@@ -46,12 +55,8 @@ public class ServerMain {
     // user manager for handling user operations
     private static UserManager userManager;
 
-    // order book
-    private static OrderBook orderBook;
-
-    // trade map
-    private static TradeMap tradeMap;
-    private static LinkedList<Trade> bufferedTrades;
+    // order books of the traded symbols and their engine threads
+    private static SymbolRegistry symbolRegistry;
 
     // map of active clients (for inactivity handling)
     public static ConcurrentHashMap<Socket, ClientHandler> activeClients;
@@ -63,16 +68,62 @@ public class ServerMain {
     public static InactivityHandler inactivityHandler;
     public static Thread inactivityThread;
 
-    // inactivity timeout for users in seconds
+    // inactivity timeout for users in milliseconds
     public static int inactivityTimeout;
 
-    // scan interval for inactivity handler in seconds
+    // tick of the inactivity handler timing wheel in milliseconds
     public static int scanInterval;
 
+    // maximum number of trades waiting to be persisted, per symbol
+    public static int tradeBufferCapacity;
+
+    // traded symbols, always including the default one
+    public static List<String> symbols;
+
+    // number of engine threads the symbols are spread over
+    public static int shards;
+
+    // interval of the frequent batch auctions in milliseconds, 0 for continuous matching
+    public static int auctionInterval;
+
+    // cancellations run in a row ahead of waiting new orders
+    public static int priorityBurst;
+
+    // order and query requests per second and burst, per connection and per user, rate 0 for no limit
+    public static double orderRate;
+    public static int orderBurst;
+    public static double queryRate;
+    public static int queryBurst;
+
+    // engine queue delay in milliseconds above which expensive reads are shed, 0 to never shed
+    public static int sheddingSlo;
+
+    // true to journal the commands of every symbol, to recover them after a crash and replay them
+    public static boolean journal;
+
+    // minimum level of logged events
+    public static AsyncLogger.Level logLevel;
+
+    // minimum interval between two order book views in milliseconds, 0 to disable
+    public static int bookViewInterval;
+
+    // interval of the metrics log line in seconds, 0 to disable
+    public static int metricsInterval;
+
+    // port of the prometheus metrics listener, 0 to disable
+    public static int metricsPort;
+
+    // server metrics
+    public static final MetricsRegistry metrics = new MetricsRegistry();
+    public static MetricsHttpServer metricsServer;
+
     // persistence handler
     public static ScheduledExecutorService scheduler;
     public static PersistenceHandler persistenceHandler;
 
+    // saves full trade buffers
+    public static ExecutorService tradeFlusher;
+
     public static Gson gson = new Gson();
 
     //threadpool
@@ -95,6 +146,8 @@ public class ServerMain {
 
         System.out.println("server configuration loaded!");
 
+        AsyncLogger.get().setLevel(logLevel);
+
         try {
             // create TCP socket
             serverSocket = new ServerSocket(tcpPort);
@@ -117,25 +170,61 @@ public class ServerMain {
             // load existing users into user manager
             userManager = new UserManager(users);
 
-            loadTrades();
+            // load order book and trades of every symbol, each one owned by an engine shard
+            symbolRegistry = new SymbolRegistry(shards, priorityBurst, metrics);
 
-            loadOrderBook();
+            for (String symbol : symbols) {
+                TradeMap tradeMap = loadTrades(SymbolRegistry.tradesFile(symbol));
+                OrderBook orderBook = loadOrderBook(SymbolRegistry.ordersFile(symbol));
 
-            // initialize all data structures
+                // order ids of every symbol from its own range, in configuration order
+                orderBook.setIdNamespace(symbols.indexOf(symbol));
+                orderBook.setAuctionInterval(auctionInterval);
 
-            bufferedTrades = new LinkedList<>();
+                TradeBuffer bufferedTrades = new TradeBuffer(tradeBufferCapacity);
+                CommandJournal commandJournal = null;
 
-            orderBook.setUdpNotifier(udpNotifier);
-            orderBook.setTradeMap(tradeMap);
-            orderBook.setBufferedTrades(bufferedTrades);
+                if (journal) {
+                    // commands applied after the last snapshot, lost by a crash
+                    recoverOrderBook(symbol, orderBook, tradeMap, bufferedTrades);
+
+                    commandJournal = new CommandJournal(SymbolRegistry.journalFile(symbol));
+                }
+
+                Instrument instrument = symbolRegistry.add(symbol, orderBook, tradeMap, bufferedTrades, commandJournal);
+
+                // udp notifications of executed, expired and failed orders, off the matching path,
+                // best effort: a slow notifier skips events instead of holding back matching
+                instrument.subscribe("udp", new NotificationPublisher(symbol, udpNotifier), false);
+            }
+
+            symbolRegistry.start();
+
+            System.out.println("trading " + symbols + " on " + shards + " engine threads" + (auctionInterval > 0 ? ", batch auctions every " + auctionInterval + " ms" : ""));
 
             activeClients = new ConcurrentHashMap<>();
 
             // persistence thread
-            persistenceHandler = new PersistenceHandler(orderBook, userManager, bufferedTrades);
+            persistenceHandler = new PersistenceHandler(symbolRegistry, userManager, metrics);
+
+            registerMetrics();
+
+            // optional http listener for metrics scrapers
+            if (metricsPort > 0) {
+                try {
+                    metricsServer = new MetricsHttpServer(metricsPort, metrics);
+                    metricsServer.start();
+
+                    System.out.println("metrics available on http://localhost:" + metricsPort + "/metrics");
+                }
+                catch (IOException e) {
+                    System.err.println("error starting metrics listener: " + e.getMessage());
+                }
+            }
 
             // schedule periodic (every minute) persistence task, saving data
-            scheduler = Executors.newScheduledThreadPool(1);
+            // more threads for metrics and book view, not delayed by slow saves
+            scheduler = Executors.newScheduledThreadPool(3);
             scheduler.scheduleAtFixedRate(() -> {
                 try {
                     persistenceHandler.saveAll();
@@ -144,8 +233,30 @@ public class ServerMain {
                 }
             }, 1, 1, java.util.concurrent.TimeUnit.MINUTES);
 
+            // a full trade buffer is saved at once instead of at the next minute,
+            // on its own thread: matching waits for it through the event ring
+            tradeFlusher = Executors.newSingleThreadExecutor();
+
+            for (Instrument instrument : symbolRegistry.getInstruments()) {
+                instrument.getBufferedTrades().setFullHandler(() -> tradeFlusher.execute(() -> persistenceHandler.saveTrades(instrument)));
+            }
+
+            // schedule periodic metrics log line
+            if (metricsInterval > 0) {
+                MetricsReporter reporter = new MetricsReporter(metrics);
+                scheduler.scheduleAtFixedRate(reporter, metricsInterval, metricsInterval, TimeUnit.SECONDS);
+            }
+
+            // console view of the order book, rendered off the matching path
+            if (bookViewInterval > 0) {
+                scheduler.scheduleWithFixedDelay(new BookView(symbolRegistry), bookViewInterval, bookViewInterval, TimeUnit.MILLISECONDS);
+            }
+
+            // admission control shared by every connection
+            RateLimiter rateLimiter = new RateLimiter(orderRate, orderBurst, queryRate, queryBurst, sheddingSlo, symbolRegistry, metrics);
+
             // inactivity handler thread
-            inactivityHandler = new InactivityHandler(activeClients, userManager, orderBook, inactivityTimeout, scanInterval);
+            inactivityHandler = new InactivityHandler(activeClients, userManager, symbolRegistry, inactivityTimeout, scanInterval);
             inactivityThread = new Thread(inactivityHandler);
             inactivityThread.start();
 
@@ -156,11 +267,14 @@ public class ServerMain {
                     Socket clientSocket = serverSocket.accept();
 
                     // create a client handler for the new connected client
-                    ClientHandler handler = new ClientHandler(clientSocket, userManager, orderBook, tradeMap, udpNotifier, inactivityHandler);
+                    ClientHandler handler = new ClientHandler(clientSocket, userManager, symbolRegistry, udpNotifier, inactivityHandler, metrics, rateLimiter);
 
                     // add handler to active clients map
                     addActiveClient(clientSocket, handler);
 
+                    // start inactivity timeout of the client
+                    inactivityHandler.register(handler);
+
                     System.out.println("new client connected: " + clientSocket.getInetAddress() + ":" + clientSocket.getPort());
 
                     // submit client handler to the thread pool for execution
@@ -230,14 +344,60 @@ public class ServerMain {
             System.err.println("error reading users file: " + e.getMessage());
             users = new ConcurrentHashMap<>();
         }
+
+        // apply changes saved after the last compaction
+        loadUserChanges();
+    }
+
+    /**
+     * replays the user change log over the loaded users map
+     * every line holds the latest state of a registered or updated user
+    */
+    public static void loadUserChanges () {
+        // path to user change log
+        File file = new File("src/main/resources/users.log");
+
+        if (!file.exists())
+            return;
+
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+
+            while ((line = br.readLine()) != null) {
+                // skip empty lines
+                if (line.isBlank())
+                    continue;
+
+                try {
+                    User user = gson.fromJson(line, User.class);
+
+                    // later entries override earlier ones
+                    if (user != null && user.getUsername() != null)
+                        users.put(user.getUsername(), user);
+                }
+                // partially written last line
+                catch (JsonSyntaxException e) {
+                    System.err.println("skipping malformed user change: " + e.getMessage());
+                }
+            }
+        }
+        catch (IOException e) {
+            System.err.println("error reading user changes: " + e.getMessage());
+        }
     }
 
     /**
-     * loads trade history from the storicoOrdini.json file into the trade map
+     * loads trade history of a symbol from its trades file into a trade map
+     * 
+     * @param path path of the trades file
+     * @return trade map with the loaded trades, empty if the file is missing or invalid
     */
-    public static void loadTrades () {
+    public static TradeMap loadTrades (String path) {
         // path to trades file
-        File file = new File("src/main/resources/storicoOrdini.json");
+        File file = new File(path);
+
+        // create trade map and add loaded trades
+        TradeMap tradeMap = new TradeMap();
 
         try (FileReader fr = new FileReader(file)) {
             // check if file is not empty
@@ -255,9 +415,6 @@ public class ServerMain {
                 // deserialize json array into list of trades within gson
                 LinkedList<Trade> trades = gson.fromJson(tradesArray, tradeListType);
 
-                // create trade map and add loaded trades
-                tradeMap = new TradeMap();
-
                 // add trades by date
                 for (Trade trade : trades) {
                     // convert trade timestamp to local date
@@ -266,79 +423,198 @@ public class ServerMain {
                     tradeMap.addTrade(dateStr, trade);
                 }
             }
-            else
-                // empty file
-                tradeMap = new TradeMap();
         }
         catch (FileNotFoundException e) {
-            System.err.println("trades file not found");
-            tradeMap = new TradeMap();
+            System.err.println("trades file not found: " + path);
         } 
         catch (JsonIOException e) {
             System.err.println("error parsing trades file: " + e.getMessage());
-            tradeMap = new TradeMap();
         }
         catch (JsonSyntaxException e) {
             System.err.println("error in trades file syntax: " + e.getMessage());
-            tradeMap = new TradeMap();
         }
         catch (IOException e) {
             System.err.println("error reading trades file: " + e.getMessage());
-            tradeMap = new TradeMap();
         }
+
+        return tradeMap;
+    }
+
+    /**
+     * replays the journal of a symbol over its loaded order book,
+     * from the first command after the snapshot in the orders file
+     * 
+     * trades of the replayed commands are added to the trade history and persisted,
+     * except the ones already saved before the crash
+     * 
+     * @param symbol symbol of the order book
+     * @param orderBook order book loaded from the orders file
+     * @param tradeMap trade history loaded from the trades file
+     * @param bufferedTrades trades waiting to be persisted
+    */
+    public static void recoverOrderBook (String symbol, OrderBook orderBook, TradeMap tradeMap, TradeBuffer bufferedTrades) {
+        List<CommandJournal.Entry> entries;
+
+        try {
+            entries = CommandJournal.read(SymbolRegistry.journalFile(symbol));
+        }
+        catch (IOException e) {
+            System.err.println("error reading journal of " + symbol + ": " + e.getMessage());
+            return;
+        }
+
+        // ids of the trades already persisted, one trade per order
+        HashSet<Integer> savedTrades = new HashSet<>();
+
+        for (LinkedList<Trade> trades : tradeMap.getDailyTrades().values()) {
+            for (Trade trade : trades) {
+                savedTrades.add(trade.getOrderId());
+            }
+        }
+
+        // the persistence thread isn't running yet, recovered trades can't wait for it
+        ArrayList<Trade> recoveredTrades = new ArrayList<>();
+
+        int replayed = Replayer.replay(orderBook, entries, false, event -> {
+            if (event.getType() == OrderEvent.Type.FILLED && savedTrades.add(event.getOrderId())) {
+                tradeMap.addTrade(event.getDate().toString(), event.getTrade());
+                recoveredTrades.add(event.getTrade());
+            }
+        });
+
+        bufferedTrades.restore(recoveredTrades);
+
+        if (replayed > 0)
+            System.out.println("recovered " + symbol + ": replayed " + replayed + " journaled commands");
     }
 
     /**
-     * loads order book from the orders.json file into the order book object
+     * loads an order book from its orders file
+     * 
+     * @param path path of the orders file
+     * @return the loaded order book, empty if the file is missing or invalid
     */
-    public static void loadOrderBook () {
+    public static OrderBook loadOrderBook (String path) {
         // path to orders file
-        File file = new File ("src/main/resources/orders.json");
+        File file = new File (path);
 
         try (FileReader fr = new FileReader(file)) {
-            if (file.length() != 0) {
-                // define type for deserialization
-                Type type = new TypeToken<OrderBook>() {}.getType();
+            if (file.length() == 0)
+                // empty file
+                return new OrderBook();
 
-                // parse json file into order book object within gson
-                orderBook = gson.fromJson(fr, type);
+            JsonObject obj = gson.fromJson(fr, JsonObject.class);
 
-                // initialize any missing data structures
-                if (orderBook.getLimitAsks() == null)
-                    orderBook.setAskOrders(new ConcurrentSkipListMap<>());
+            // define type for deserialization
+            Type type = new TypeToken<OrderBook>() {}.getType();
 
-                if (orderBook.getLimitBids() == null)
-                    orderBook.setBidOrders(new ConcurrentSkipListMap<>(Comparator.reverseOrder()));
+            // parse json file into order book object within gson
+            OrderBook orderBook = gson.fromJson(obj, type);
 
-                if (orderBook.getStopAsks() == null)
-                    orderBook.setStopAsks(new ConcurrentLinkedQueue<>());
+            // engine counter, saved next to the book
+            if (obj.has("inputSequence"))
+                orderBook.setInputSequence(obj.get("inputSequence").getAsLong());
 
-                if (orderBook.getStopBids() == null)
-                    orderBook.setStopBids(new ConcurrentLinkedQueue<>());
+            // initialize any missing data structures
+            if (orderBook.getLimitAsks() == null)
+                orderBook.setAskOrders(new ConcurrentSkipListMap<>());
 
-                // restore static id counter for orders
-                orderBook.restoreId();
-            }
-            else
-                // empty file
-                orderBook = new OrderBook();
+            // gson builds the map with natural ordering, bids must be sorted from the highest price
+            ConcurrentSkipListMap<Integer, OrderGroup> bids = new ConcurrentSkipListMap<>(Comparator.reverseOrder());
+
+            if (orderBook.getLimitBids() != null)
+                bids.putAll(orderBook.getLimitBids());
+
+            orderBook.setBidOrders(bids);
+
+            if (orderBook.getStopAsks() == null)
+                orderBook.setStopAsks(new ConcurrentLinkedQueue<>());
+
+            if (orderBook.getStopBids() == null)
+                orderBook.setStopBids(new ConcurrentLinkedQueue<>());
+
+            // restore id counter for orders
+            orderBook.restoreId();
+
+            // rebuild the live order index and per user stop orders counts
+            orderBook.restoreOrderIndex();
+
+            return orderBook;
         }
         catch (FileNotFoundException e) {
-            System.err.println("orderBook file not found");
-            orderBook = new OrderBook();
+            System.err.println("orderBook file not found: " + path);
         }
         catch (JsonIOException e) {
             System.err.println("error parsing order book file: " + e.getMessage());
-            orderBook = new OrderBook();
         } 
         catch (JsonSyntaxException e) {
             System.err.println("error in order book file syntax: " + e.getMessage());
-            orderBook = new OrderBook();
         }
         catch (IOException e) {
             System.err.println("error reading order book file: " + e.getMessage());
-            orderBook = new OrderBook();
-        }  
+        }
+
+        return new OrderBook();
+    }
+
+    /**
+     * registers the values read from the server components as metrics
+     * every supplier reads concurrent structures, without taking the order book monitor
+     */
+    public static void registerMetrics () {
+        // order book depth and stop queues, summed over every symbol
+        metrics.registerGauge("book.askLevels", () -> sumBooks(book -> book.getLimitAsks().size()));
+        metrics.registerGauge("book.bidLevels", () -> sumBooks(book -> book.getLimitBids().size()));
+        metrics.registerGauge("book.stopAsks", () -> sumBooks(book -> book.getStopAsks().size()));
+        metrics.registerGauge("book.stopBids", () -> sumBooks(book -> book.getStopBids().size()));
+        metrics.registerCounter("trades.executed", () -> sumBooks(OrderBook::getExecutedTrades));
+        metrics.registerCounter("orders.expired", () -> sumBooks(OrderBook::getExpiredOrders));
+
+        // connections
+        metrics.registerGauge("clients.active", () -> activeClients.size());
+
+        // udp notifier backlog
+        metrics.registerGauge("notifier.inFlight", udpNotifier::getInFlight);
+        metrics.registerCounter("notifier.sent", udpNotifier::getSent);
+        metrics.registerCounter("notifier.failed", udpNotifier::getFailed);
+
+        // trades waiting to be persisted
+        metrics.registerGauge("tradeBuffer.size", () -> sumBuffers(TradeBuffer::getSize));
+        metrics.registerGauge("tradeBuffer.highWatermark", () -> sumBuffers(TradeBuffer::getHighWatermark));
+        metrics.registerCounter("tradeBuffer.stalls", () -> sumBuffers(TradeBuffer::getStalls));
+        metrics.registerCounter("tradeBuffer.stalledNanos", () -> sumBuffers(TradeBuffer::getStalledNanos));
+    }
+
+    /**
+     * sums a value over the order books of every symbol
+     * 
+     * @param value value read from an order book
+     * @return sum of the values
+     */
+    private static long sumBooks (ToLongFunction<OrderBook> value) {
+        long sum = 0;
+
+        for (Instrument instrument : symbolRegistry.getInstruments()) {
+            sum += value.applyAsLong(instrument.getOrderBook());
+        }
+
+        return sum;
+    }
+
+    /**
+     * sums a value over the trade buffers of every symbol
+     * 
+     * @param value value read from a trade buffer
+     * @return sum of the values
+     */
+    private static long sumBuffers (ToLongFunction<TradeBuffer> value) {
+        long sum = 0;
+
+        for (Instrument instrument : symbolRegistry.getInstruments()) {
+            sum += value.applyAsLong(instrument.getBufferedTrades());
+        }
+
+        return sum;
     }
 
     /**
@@ -388,6 +664,19 @@ public class ServerMain {
             }
         }
 
+        // stop engine threads, nothing is left to match,
+        // and wait for the event consumers so every trade reaches the trade buffer
+        if (symbolRegistry != null) {
+            symbolRegistry.stop();
+
+            // final state of every book, to check a replay of its journal
+            for (Instrument instrument : symbolRegistry.getInstruments()) {
+                OrderBook orderBook = instrument.getOrderBook();
+
+                System.out.println(instrument.getSymbol() + " input " + orderBook.getInputSequence() + " checksum " + Long.toHexString(orderBook.checksum()));
+            }
+        }
+
         // save all data to file
         try {
             if (persistenceHandler != null) {
@@ -434,6 +723,19 @@ public class ServerMain {
             }
         }
 
+        // close trade flush thread, after the event consumers stopped
+        if (tradeFlusher != null) {
+            tradeFlusher.shutdown();
+            try {
+                if (!tradeFlusher.awaitTermination(5, TimeUnit.SECONDS)) {
+                    tradeFlusher.shutdownNow();
+                }
+            } 
+            catch (InterruptedException e) {
+                tradeFlusher.shutdownNow();
+            }
+        }
+
         // close thread pool for client handlers
         pool.shutdown();
         try {
@@ -445,11 +747,19 @@ public class ServerMain {
             pool.shutdownNow();
         }
 
+        // close metrics listener
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+
         // close UDP notifier
         if (udpNotifier != null) {
             udpNotifier.close();
         }
 
+        // write pending log events
+        AsyncLogger.get().close();
+
         System.out.println("server closed");
     }
 
@@ -469,6 +779,32 @@ public class ServerMain {
         udpPort = Integer.parseInt(props.getProperty("udpPort"));
         inactivityTimeout = Integer.parseInt(props.getProperty("timeout"));
         scanInterval = Integer.parseInt(props.getProperty("interval"));
+        tradeBufferCapacity = Integer.parseInt(props.getProperty("tradeBufferCapacity", "100000"));
+        metricsInterval = Integer.parseInt(props.getProperty("metricsInterval", "10"));
+        metricsPort = Integer.parseInt(props.getProperty("metricsPort", "0"));
+        logLevel = AsyncLogger.Level.valueOf(props.getProperty("logLevel", "INFO").trim().toUpperCase());
+        bookViewInterval = Integer.parseInt(props.getProperty("bookViewInterval", "1000"));
+        auctionInterval = Integer.parseInt(props.getProperty("auctionInterval", "0"));
+        priorityBurst = Integer.parseInt(props.getProperty("priorityBurst", String.valueOf(EngineShard.DEFAULT_PRIORITY_BURST)));
+        orderRate = Double.parseDouble(props.getProperty("orderRate", "0"));
+        orderBurst = Integer.parseInt(props.getProperty("orderBurst", "1"));
+        queryRate = Double.parseDouble(props.getProperty("queryRate", "0"));
+        queryBurst = Integer.parseInt(props.getProperty("queryBurst", "1"));
+        sheddingSlo = Integer.parseInt(props.getProperty("sheddingSlo", "0"));
+        journal = Boolean.parseBoolean(props.getProperty("journal", "false").trim());
+
+        symbols = new ArrayList<>();
+        for (String symbol : props.getProperty("symbols", SymbolRegistry.DEFAULT_SYMBOL).split(",")) {
+            if (!symbol.isBlank() && !symbols.contains(symbol.trim()))
+                symbols.add(symbol.trim());
+        }
+
+        // the default symbol is always traded, requests without a symbol go there
+        if (!symbols.contains(SymbolRegistry.DEFAULT_SYMBOL))
+            symbols.add(0, SymbolRegistry.DEFAULT_SYMBOL);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        shards = Integer.parseInt(props.getProperty("shards", String.valueOf(Math.min(symbols.size(), cores))));
         // other properties ...
 
         inputFile.close();
@@ -0,0 +1,79 @@
+package com.unipi.lab3.cross.main;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import com.unipi.lab3.cross.engine.CommandJournal;
+import com.unipi.lab3.cross.workload.OrderFlowGenerator;
+import com.unipi.lab3.cross.workload.WorkloadProfile;
+
+/**
+ * main class writing a synthetic order flow as a journal,
+ * to be replayed by ReplayMain or used as benchmark input
+ *
+ * usage: WorkloadMain journalFile count [workloadFile | default | deepBook | stopCascade]
+ */
+
+public class WorkloadMain {
+
+    // default workload configuration
+    private static final String configFile = "src/main/resources/workload.properties";
+
+    public static void main (String[] args) {
+        if (args.length < 2) {
+            System.err.println("usage: WorkloadMain journalFile count [workloadFile | default | deepBook | stopCascade]");
+            System.exit(1);
+        }
+
+        String journalFile = args[0];
+        int count = Integer.parseInt(args[1]);
+        String workload = args.length > 2 ? args[2] : configFile;
+
+        WorkloadProfile profile;
+
+        try {
+            profile = new File(workload).exists() ? loadProfile(workload) : WorkloadProfile.preset(workload);
+        }
+        catch (IOException | IllegalArgumentException e) {
+            System.err.println("error reading workload " + workload + ": " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        // a replay starts from an empty book, remove an older flow
+        new File(journalFile).delete();
+
+        CommandJournal journal;
+
+        try {
+            journal = new CommandJournal(journalFile);
+        }
+        catch (IOException e) {
+            System.err.println("error opening journal: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        OrderFlowGenerator generator = new OrderFlowGenerator(profile, null);
+
+        for (int i = 0; i < count; i++) {
+            journal.append(generator.next());
+        }
+
+        journal.close();
+
+        System.out.printf("wrote %d commands over %.1f s of flow to %s%n", count, generator.getElapsedNanos() / 1e9, journalFile);
+    }
+
+    private static WorkloadProfile loadProfile (String path) throws IOException {
+        Properties props = new Properties();
+
+        try (FileInputStream inputFile = new FileInputStream(path)) {
+            props.load(inputFile);
+        }
+
+        return WorkloadProfile.load(props);
+    }
+}
@@ -0,0 +1,185 @@
+package com.unipi.lab3.cross.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * lock-free latency histogram with fixed log-linear buckets
+ *
+ * every power of two is split in 32 linear sub-buckets, so any recorded value
+ * is reported with a relative error below about 3%, from 0 up to Long.MAX_VALUE
+ * with a fixed amount of memory
+ *
+ * values are plain longs, the unit is chosen by the caller
+ */
+
+public class LatencyHistogram {
+
+    // linear sub-buckets per power of two
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // enough buckets for every positive long
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalSum = new LongAdder();
+    private final AtomicLong maxValue = new AtomicLong(0);
+
+    public LatencyHistogram () {}
+
+    /**
+     * records a value
+     *
+     * @param value value to record, negative values are recorded as 0
+     */
+    public void record (long value) {
+        if (value < 0)
+            value = 0;
+
+        this.counts.incrementAndGet(bucketIndex(value));
+
+        this.totalCount.increment();
+        this.totalSum.add(value);
+
+        if (value > this.maxValue.get())
+            this.maxValue.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * records a value correcting for coordinated omission:
+     * when a value exceeds the expected interval between two samples,
+     * the samples that should have been taken meanwhile are recorded too,
+     * with linearly decreasing values
+     *
+     * @param value value to record
+     * @param expectedInterval expected interval between samples, same unit as value
+     */
+    public void recordCorrected (long value, long expectedInterval) {
+        record(value);
+
+        if (expectedInterval <= 0)
+            return;
+
+        for (long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+            record(missing);
+        }
+    }
+
+    public long getCount () {
+        return this.totalCount.sum();
+    }
+
+    public long getSum () {
+        return this.totalSum.sum();
+    }
+
+    public long getMax () {
+        return this.maxValue.get();
+    }
+
+    public double getMean () {
+        long count = this.totalCount.sum();
+
+        return count == 0 ? 0 : (double) this.totalSum.sum() / count;
+    }
+
+    /**
+     * gets the value at a given percentile
+     *
+     * @param percentile percentile between 0 and 100
+     * @return highest value equivalent to the bucket reaching the percentile, 0 if empty
+     */
+    public long getValueAtPercentile (double percentile) {
+        long count = this.totalCount.sum();
+
+        if (count == 0)
+            return 0;
+
+        // rank of the requested sample, at least the first one
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts.get(i);
+
+            if (seen >= rank)
+                return Math.min(highestEquivalentValue(i), getMax());
+        }
+
+        return getMax();
+    }
+
+    /**
+     * adds all values recorded in another histogram to this one
+     *
+     * @param other histogram to add
+     */
+    public void add (LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long bucketCount = other.counts.get(i);
+
+            if (bucketCount != 0)
+                this.counts.addAndGet(i, bucketCount);
+        }
+
+        this.totalCount.add(other.totalCount.sum());
+        this.totalSum.add(other.totalSum.sum());
+        this.maxValue.accumulateAndGet(other.getMax(), Math::max);
+    }
+
+    /**
+     * clears all recorded values
+     * values recorded concurrently with the reset may be partially lost
+     */
+    public void reset () {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts.set(i, 0);
+        }
+
+        this.totalCount.reset();
+        this.totalSum.reset();
+        this.maxValue.set(0);
+    }
+
+    /**
+     * maps a value to its bucket
+     *
+     * @param value non negative value
+     * @return index of the bucket
+     */
+    private static int bucketIndex (long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        // position of the highest bit, at least SUB_BUCKET_BITS
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * gets the highest value mapped to a bucket
+     *
+     * @param index index of the bucket
+     * @return highest value of the bucket
+     */
+    private static long highestEquivalentValue (int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS;
+
+        long lowest = (SUB_BUCKETS + subBucket) << shift;
+
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,66 @@
+package com.unipi.lab3.cross.metrics;
+
+/**
+ * summary of a latency histogram, in microseconds
+ * plain fields so it can be serialized in responses
+ */
+
+public class LatencySummary {
+
+    private long count;
+    private double mean;
+    private long p50;
+    private long p90;
+    private long p99;
+    private long p999;
+    private long max;
+
+    public LatencySummary () {}
+
+    /**
+     * summarizes a histogram recorded in nanoseconds
+     *
+     * @param histogram histogram to summarize
+     */
+    public LatencySummary (LatencyHistogram histogram) {
+        this.count = histogram.getCount();
+        this.mean = histogram.getMean() / 1_000;
+        this.p50 = histogram.getValueAtPercentile(50) / 1_000;
+        this.p90 = histogram.getValueAtPercentile(90) / 1_000;
+        this.p99 = histogram.getValueAtPercentile(99) / 1_000;
+        this.p999 = histogram.getValueAtPercentile(99.9) / 1_000;
+        this.max = histogram.getMax() / 1_000;
+    }
+
+    public long getCount () {
+        return this.count;
+    }
+
+    public double getMean () {
+        return this.mean;
+    }
+
+    public long getP50 () {
+        return this.p50;
+    }
+
+    public long getP90 () {
+        return this.p90;
+    }
+
+    public long getP99 () {
+        return this.p99;
+    }
+
+    public long getP999 () {
+        return this.p999;
+    }
+
+    public long getMax () {
+        return this.max;
+    }
+
+    public String toString () {
+        return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d p99.9=%d max=%d", count, mean, p50, p90, p99, p999, max);
+    }
+}
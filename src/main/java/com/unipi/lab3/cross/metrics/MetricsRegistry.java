@@ -0,0 +1,144 @@
+package com.unipi.lab3.cross.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * lock-free registry of server metrics
+ *
+ * counters are striped (LongAdder), so hot paths on many threads don't contend on a single cache line,
+ * latencies go to fixed-bucket histograms, and gauges are read on demand
+ * from the component that owns the value
+ *
+ * reading the registry never blocks the threads updating it
+ */
+
+public class MetricsRegistry {
+
+    // counters updated through the registry
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    // cumulative counts kept by other components
+    private final ConcurrentHashMap<String, LongSupplier> functionCounters = new ConcurrentHashMap<>();
+
+    // current values read from other components
+    private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    // latency histograms, in nanoseconds
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    public MetricsRegistry () {}
+
+    /**
+     * gets a counter, creating it if missing
+     * callers on hot paths can keep the returned counter
+     *
+     * @param name name of the counter
+     * @return the counter
+     */
+    public LongAdder counter (String name) {
+        return this.counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * gets a latency histogram, creating it if missing
+     *
+     * @param name name of the histogram
+     * @return the histogram
+     */
+    public LatencyHistogram histogram (String name) {
+        return this.histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    public void increment (String name) {
+        counter(name).increment();
+    }
+
+    /**
+     * records a latency
+     *
+     * @param name name of the histogram
+     * @param nanos latency in nanoseconds
+     */
+    public void record (String name, long nanos) {
+        histogram(name).record(nanos);
+    }
+
+    /**
+     * registers a cumulative count kept by another component
+     *
+     * @param name name of the counter
+     * @param supplier function reading the count, must not block
+     */
+    public void registerCounter (String name, LongSupplier supplier) {
+        this.functionCounters.put(name, supplier);
+    }
+
+    /**
+     * registers a value read on demand
+     *
+     * @param name name of the gauge
+     * @param supplier function reading the value, must not block
+     */
+    public void registerGauge (String name, LongSupplier supplier) {
+        this.gauges.put(name, supplier);
+    }
+
+    /**
+     * reads a counter or a gauge
+     *
+     * @param name name of the metric
+     * @return current value, 0 if not registered
+     */
+    public long getValue (String name) {
+        LongAdder counter = this.counters.get(name);
+        if (counter != null)
+            return counter.sum();
+
+        LongSupplier supplier = this.functionCounters.get(name);
+        if (supplier == null)
+            supplier = this.gauges.get(name);
+
+        return supplier == null ? 0 : supplier.getAsLong();
+    }
+
+    /**
+     * @return current values of all counters, sorted by name
+     */
+    public TreeMap<String, Long> getCounters () {
+        TreeMap<String, Long> values = new TreeMap<>();
+
+        for (Map.Entry<String, LongAdder> entry : this.counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().sum());
+        }
+
+        for (Map.Entry<String, LongSupplier> entry : this.functionCounters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+
+        return values;
+    }
+
+    /**
+     * @return current values of all gauges, sorted by name
+     */
+    public TreeMap<String, Long> getGauges () {
+        TreeMap<String, Long> values = new TreeMap<>();
+
+        for (Map.Entry<String, LongSupplier> entry : this.gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+
+        return values;
+    }
+
+    /**
+     * @return all histograms, sorted by name
+     */
+    public TreeMap<String, LatencyHistogram> getHistograms () {
+        return new TreeMap<>(this.histograms);
+    }
+}
@@ -0,0 +1,137 @@
+package com.unipi.lab3.cross.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * renders a metrics registry in the prometheus text exposition format
+ *
+ * metric names are prefixed with cross_ and converted to snake case,
+ * histograms become summaries in seconds; histograms of a family
+ * (request.login, request.logout, ...) share one metric with a label
+ */
+
+public final class PrometheusFormatter {
+
+    private static final String PREFIX = "cross_";
+
+    // histogram families rendered as one labelled summary: family - {metric name, label}
+    private static final Map<String, String[]> FAMILIES = Map.of(
+        "request", new String[] {"request_duration_seconds", "operation"},
+        "persistence", new String[] {"persistence_save_duration_seconds", "file"});
+
+    // quantiles exported for every summary
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private PrometheusFormatter () {}
+
+    /**
+     * renders all metrics of the registry
+     * reads only the registry, so it never blocks the server threads
+     *
+     * @param metrics registry to render
+     * @return metrics in text exposition format
+     */
+    public static String render (MetricsRegistry metrics) {
+        StringBuilder sb = new StringBuilder(4096);
+
+        for (Map.Entry<String, Long> entry : metrics.getCounters().entrySet()) {
+            String name = PREFIX + snakeCase(entry.getKey());
+
+            // counters end with _total, without repeating it
+            if (!name.endsWith("_total"))
+                name += "_total";
+
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            sb.append(name).append(' ').append(entry.getValue()).append('\n');
+        }
+
+        for (Map.Entry<String, Long> entry : metrics.getGauges().entrySet()) {
+            String name = PREFIX + snakeCase(entry.getKey());
+
+            sb.append("# TYPE ").append(name).append(" gauge\n");
+            sb.append(name).append(' ').append(entry.getValue()).append('\n');
+        }
+
+        // group histograms by metric name, so every summary has a single type line
+        TreeMap<String, TreeMap<String, LatencyHistogram>> summaries = new TreeMap<>();
+        TreeMap<String, String> labels = new TreeMap<>();
+
+        for (Map.Entry<String, LatencyHistogram> entry : metrics.getHistograms().entrySet()) {
+            String key = entry.getKey();
+            int dot = key.indexOf('.');
+
+            String[] family = dot > 0 ? FAMILIES.get(key.substring(0, dot)) : null;
+
+            if (family != null) {
+                String name = PREFIX + family[0];
+
+                summaries.computeIfAbsent(name, n -> new TreeMap<>()).put(key.substring(dot + 1), entry.getValue());
+                labels.put(name, family[1]);
+            }
+            else {
+                summaries.computeIfAbsent(PREFIX + snakeCase(key) + "_seconds", n -> new TreeMap<>()).put("", entry.getValue());
+            }
+        }
+
+        for (Map.Entry<String, TreeMap<String, LatencyHistogram>> summary : summaries.entrySet()) {
+            String name = summary.getKey();
+            String label = labels.get(name);
+
+            sb.append("# TYPE ").append(name).append(" summary\n");
+
+            for (Map.Entry<String, LatencyHistogram> entry : summary.getValue().entrySet()) {
+                String labelPair = label == null ? "" : label + "=\"" + entry.getKey() + "\"";
+                appendSummary(sb, name, labelPair, entry.getValue());
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * appends quantiles, sum and count of a histogram recorded in nanoseconds
+     */
+    private static void appendSummary (StringBuilder sb, String name, String labelPair, LatencyHistogram histogram) {
+        String separator = labelPair.isEmpty() ? "" : ",";
+
+        for (double quantile : QUANTILES) {
+            sb.append(name).append('{').append(labelPair).append(separator)
+              .append("quantile=\"").append(quantile).append("\"} ")
+              .append(seconds(histogram.getValueAtPercentile(quantile * 100))).append('\n');
+        }
+
+        String labels = labelPair.isEmpty() ? "" : "{" + labelPair + "}";
+
+        sb.append(name).append("_sum").append(labels).append(' ').append(seconds(histogram.getSum())).append('\n');
+        sb.append(name).append("_count").append(labels).append(' ').append(histogram.getCount()).append('\n');
+    }
+
+    private static String seconds (long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    /**
+     * converts a dotted camel case name to snake case, book.askLevels to book_ask_levels
+     */
+    private static String snakeCase (String name) {
+        StringBuilder sb = new StringBuilder(name.length() + 8);
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+
+            if (Character.isUpperCase(c)) {
+                sb.append('_').append(Character.toLowerCase(c));
+            }
+            else if (Character.isLetterOrDigit(c)) {
+                sb.append(c);
+            }
+            else {
+                sb.append('_');
+            }
+        }
+
+        return sb.toString();
+    }
+}
@@ -1,19 +1,39 @@
 package com.unipi.lab3.cross.model;
 
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.Formatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
 
 import com.unipi.lab3.cross.model.orders.*;
 import com.unipi.lab3.cross.model.trade.*;
-import com.unipi.lab3.cross.server.UdpNotifier;
-import com.unipi.lab3.cross.json.response.Notification;
+import com.unipi.lab3.cross.model.event.OrderEvent;
+import com.unipi.lab3.cross.jfr.EngineEvent;
+import com.unipi.lab3.cross.jfr.FillEvent;
+import com.unipi.lab3.cross.jfr.StopTriggerEvent;
+import com.unipi.lab3.cross.util.AsyncLogger;
+import com.unipi.lab3.cross.util.BroadcastRing;
+import com.unipi.lab3.cross.util.TimingWheel;
 
 /**
     class representing the order book
@@ -22,6 +42,9 @@ import com.unipi.lab3.cross.json.response.Notification;
 
 public class OrderBook {
 
+    // symbol traded in this book, set by the symbol registry
+    private transient String symbol;
+
     // map price - list ask limit orders
     // ascending order for keys
     private ConcurrentSkipListMap<Integer, OrderGroup> askOrders;
@@ -36,25 +59,116 @@ public class OrderBook {
     private ConcurrentLinkedQueue<StopOrder> stopAsks;
     private ConcurrentLinkedQueue<StopOrder> stopBids;
 
+    // map username - number of pending stop orders of the user
+    private transient ConcurrentHashMap<String, Integer> userStopCounts;
+
+    // index of live orders, limit and stop, to reach an order without scanning the book
+    // only touched while holding the monitor
+    private transient HashMap<Integer, Order> liveOrders;
+
+    // map username - ids of the live orders of the user, in insertion order
+    private transient HashMap<String, LinkedHashSet<Integer>> userOrders;
+
+    // expiry of good till time orders, advanced by the engine thread
+    private transient TimingWheel<Order> expiryWheel;
+
     // best prices -> not included in json file
     private transient int bestAskPrice;
     private transient int bestBidPrice;
 
-    // counter for unique order ids
-    private transient static final AtomicInteger idCounter = new AtomicInteger(0);
+    // counter for unique order ids, per book so replaying a symbol gives the same ids,
+    // starting from the namespace of the book so ids are unique across symbols
+    private transient final AtomicInteger idCounter = new AtomicInteger(1);
+    private transient int idBase = 0;
     private int lastId = 0;
 
-    // map date - list of trades executed on that date
-    private transient TradeMap tradeMap;
-    private transient LinkedList<Trade> bufferedTrades;
+    // time of the command being applied in milliseconds since epoch, WALL_CLOCK to read the system clock;
+    // set by the engine and by replays, so trades and expiries of a replay get their recorded time
+    private transient long clock = WALL_CLOCK;
+
+    // number of operations applied to the book, identifies a consistent state for snapshots
+    private transient long sequence = 0;
+
+    // sequence of the last journaled command applied to the book,
+    // recovery replays the journal from the next one; saved in the orders file by the snapshot
+    private transient long inputSequence = 0;
+
+    // events of the book, read by trade history, persistence and notifications on their own threads
+    // only written while holding the monitor
+    private transient final BroadcastRing<OrderEvent> events = new BroadcastRing<>(EVENT_RING_SIZE);
 
-    private transient UdpNotifier udpNotifier;
+    // true while a multi-order step holds its events back, to publish them at once
+    private transient boolean batching = false;
+
+    // best levels last published, to emit level events only on changes
+    private transient int publishedAskPrice = 0;
+    private transient int publishedAskSize = 0;
+    private transient int publishedBidPrice = 0;
+    private transient int publishedBidSize = 0;
 
     // flag to avoid recursive calls when updating best prices
     private transient boolean update = false;
 
-    private transient final String NOTIFICATION_SUCCESS = "closedTrades";
-    private transient final String NOTIFICATION_ERROR = "orderFailed";
+    // asynchronous logger, the engine never writes to the console directly
+    private transient static final AsyncLogger log = AsyncLogger.get();
+
+    // no command time set, the book reads the system clock
+    public transient static final long WALL_CLOCK = -1;
+
+    // ids of a book namespace, 127 namespaces fit a positive int
+    public transient static final int ID_SPACE = 1 << 24;
+
+    // slots of the event ring, matching waits for a lossless consumer further behind
+    private transient static final int EVENT_RING_SIZE = 1 << 16;
+
+    // expiry wheel: 100 ms ticks, about 100 seconds per round
+    private transient static final long EXPIRY_TICK_MILLIS = 100;
+    private transient static final int EXPIRY_WHEEL_SIZE = 1024;
+
+    // time in force of limit and market orders
+    public static final String GTC = "GTC"; // good till cancelled, rests in the book
+    public static final String IOC = "IOC"; // immediate or cancel, never rests
+    public static final String FOK = "FOK"; // fill or kill, fully executed or not at all
+
+    /**
+     * limit or market order collected for the next auction,
+     * market orders have no limit price (-1)
+     */
+    private static final class AuctionOrder extends LimitOrder {
+        // false for immediate or cancel and market orders
+        private final boolean rest;
+
+        // size executed in the auction
+        private transient int filled;
+
+        private AuctionOrder (int orderId, String username, String type, int size, int price, boolean rest, long expireAt) {
+            super(orderId, username, type, size, price);
+            this.rest = rest;
+            setExpireAt(expireAt);
+        }
+
+        private boolean isMarket () {
+            return getLimitPrice() == -1;
+        }
+    }
+
+    // number of trades executed since startup
+    private transient LongAdder executedTrades = new LongAdder();
+
+    // number of orders expired since startup
+    private transient LongAdder expiredOrders = new LongAdder();
+
+    // interval of the frequent batch auctions in milliseconds, 0 for continuous matching
+    private transient long auctionInterval = 0;
+
+    // limit and market orders waiting for the next auction, in arrival order;
+    // saved in the orders file by the snapshot, their commands are before its input sequence
+    private LinkedHashMap<Integer, AuctionOrder> auctionOrders;
+
+    // engine counters for jfr events, only touched while holding the monitor
+    private transient long sweptLevels = 0;
+    private transient long fills = 0;
+    private transient long triggeredStops = 0;
 
     // constructors
 
@@ -66,23 +180,24 @@ public class OrderBook {
         this.bestBidPrice = 0;
         this.stopAsks = new ConcurrentLinkedQueue<>();
         this.stopBids = new ConcurrentLinkedQueue<>();
-
-        this.tradeMap = new TradeMap();
-        this.bufferedTrades = new LinkedList<>();
-
-        this.udpNotifier = null;
+        this.userStopCounts = new ConcurrentHashMap<>();
+        this.liveOrders = new HashMap<>();
+        this.userOrders = new HashMap<>();
+        this.expiryWheel = newExpiryWheel();
+        this.auctionOrders = new LinkedHashMap<>();
     }
 
-    public OrderBook (ConcurrentSkipListMap<Integer, OrderGroup> askOrders, ConcurrentSkipListMap<Integer, OrderGroup> bidOrders, ConcurrentLinkedQueue<StopOrder> stopAsks, ConcurrentLinkedQueue<StopOrder> stopBids, UdpNotifier notifier, TradeMap tradeMap) {
+    public OrderBook (ConcurrentSkipListMap<Integer, OrderGroup> askOrders, ConcurrentSkipListMap<Integer, OrderGroup> bidOrders, ConcurrentLinkedQueue<StopOrder> stopAsks, ConcurrentLinkedQueue<StopOrder> stopBids) {
         this.askOrders = askOrders;
         this.bidOrders = bidOrders;
         this.stopAsks = stopAsks;
         this.stopBids = stopBids;
-
-        this.tradeMap = tradeMap;
-        this.bufferedTrades = new LinkedList<>();
-        
-        this.udpNotifier = notifier;
+        this.userStopCounts = new ConcurrentHashMap<>();
+        this.liveOrders = new HashMap<>();
+        this.userOrders = new HashMap<>();
+        this.expiryWheel = newExpiryWheel();
+        this.auctionOrders = new LinkedHashMap<>();
+        restoreOrderIndex();
 
         updateBestPrices();
     }
@@ -94,6 +209,7 @@ public class OrderBook {
     // setter for ask orders map
     public void setAskOrders (ConcurrentSkipListMap<Integer, OrderGroup> askOrders) {
         this.askOrders = askOrders;
+        restoreOrderIndex();
         // update prices after setting the map
         updateBestPrices();
     }
@@ -105,6 +221,7 @@ public class OrderBook {
     // setter for bid orders map
     public void setBidOrders (ConcurrentSkipListMap<Integer, OrderGroup> bidOrders) {
         this.bidOrders = bidOrders;
+        restoreOrderIndex();
         updateBestPrices();
     }
 
@@ -118,6 +235,7 @@ public class OrderBook {
 
     public void setStopAsks (ConcurrentLinkedQueue<StopOrder> stopAsks) {
         this.stopAsks = stopAsks;
+        restoreOrderIndex();
     }
 
     public ConcurrentLinkedQueue<StopOrder> getStopBids () {
@@ -126,12 +244,21 @@ public class OrderBook {
 
     public void setStopBids (ConcurrentLinkedQueue<StopOrder> stopBids) {
         this.stopBids = stopBids;
+        restoreOrderIndex();
     }
 
     public OrderBook getOrderBook () {
         return this;
     }
 
+    public String getSymbol () {
+        return this.symbol;
+    }
+
+    public void setSymbol (String symbol) {
+        this.symbol = symbol;
+    }
+
     public int getBestAskPrice () {
         return this.bestAskPrice;
     }
@@ -148,20 +275,138 @@ public class OrderBook {
         this.lastId = lastId;
     }
 
+    public long getExecutedTrades () {
+        return this.executedTrades.sum();
+    }
+
+    public long getExpiredOrders () {
+        return this.expiredOrders.sum();
+    }
+
+    public long getAuctionInterval () {
+        return this.auctionInterval;
+    }
+
+    /**
+     * sets the matching mode of the book
+     * the auctions must be run by the owner of the book at the given interval
+     * 
+     * @param auctionInterval interval of the batch auctions in milliseconds, 0 for continuous matching
+     */
+    public synchronized void setAuctionInterval (long auctionInterval) {
+        this.auctionInterval = auctionInterval;
+    }
+
+    public long getSequence () {
+        return this.sequence;
+    }
+
+    public long getInputSequence () {
+        return this.inputSequence;
+    }
+
+    /**
+     * sets the sequence of the last journaled command applied to the book
+     * must be called while holding the monitor, together with the command
+     * 
+     * @param inputSequence sequence of the command
+     */
+    public void setInputSequence (long inputSequence) {
+        this.inputSequence = inputSequence;
+    }
+
+    /**
+     * sets the time of the commands applied from now on
+     * must be called while holding the monitor, together with the commands
+     * 
+     * @param clock milliseconds since epoch, WALL_CLOCK to go back to the system clock
+     */
+    public void setClock (long clock) {
+        this.clock = clock;
+    }
+
+    // time of the current command in milliseconds
+    private long now () {
+        return this.clock != WALL_CLOCK ? this.clock : System.currentTimeMillis();
+    }
+
+    // time of the current command in seconds, as recorded by trades
+    private long nowSeconds () {
+        return now() / 1000;
+    }
+
+    // trading day of the current command
+    private LocalDate today () {
+        return LocalDate.ofInstant(Instant.ofEpochMilli(now()), ZoneId.systemDefault());
+    }
+
+    /**
+     * takes a detached copy of the order book at the current sequence point
+     * the monitor is held only for the copy, serialization happens outside
+     * 
+     * @return snapshot of the current order book state
+     */
+    public synchronized OrderBookSnapshot snapshot () {
+        return new OrderBookSnapshot(this);
+    }
+
     // generate unique order id using an incremental counter
     public int counterOrderId () {
-        int newId = idCounter.getAndIncrement();
+        int newId = this.idCounter.get();
+
+        // past its range the id would belong to the orders of another symbol
+        if (newId >= this.idBase + ID_SPACE) {
+            log.error("order ids exhausted", "last", this.lastId);
+            throw new IllegalStateException("order ids of the book exhausted");
+        }
+
+        this.idCounter.set(newId + 1);
         // update last used id
         this.lastId = newId;
         return newId;
     }
 
+    // number of ids the book can still give
+    private int remainingIds () {
+        return Math.max(this.idBase + ID_SPACE - this.idCounter.get(), 0);
+    }
+
     // restore id counter after loading order book from json
     public void restoreId () {
-        if (this.lastId >= idCounter.get()) {
-            idCounter.set(this.lastId + 1);
+        if (this.lastId >= this.idCounter.get() && this.lastId < this.idBase + ID_SPACE) {
+            this.idCounter.set(this.lastId + 1);
         }
     }
+
+    /**
+     * numbers the orders of the book from a namespace of ids,
+     * different for every symbol so an order id identifies its book
+     * 
+     * @param namespace namespace of the book, from 0 to 126
+     */
+    public void setIdNamespace (int namespace) {
+        if (namespace < 0 || namespace >= Integer.MAX_VALUE / ID_SPACE)
+            throw new IllegalArgumentException("id namespace out of range: " + namespace);
+
+        this.idBase = namespace * ID_SPACE;
+
+        int next = this.idCounter.get();
+
+        if (next <= this.idBase || next >= this.idBase + ID_SPACE)
+            this.idCounter.set(this.idBase + 1);
+
+        restoreId();
+    }
+
+    // id the next order will get, journaled with every command
+    public int getNextId () {
+        return this.idCounter.get();
+    }
+
+    // sets the id of the next order, to replay a journaled command with its ids
+    public void setNextId (int nextId) {
+        this.idCounter.set(nextId);
+    }
  
     // getter for total size of asks
     public int getAsksSize () {
@@ -232,16 +477,36 @@ public class OrderBook {
             // if one of the prices is 0, spread is invalid
             this.spread = -1;
         }
+
+        publishBestLevels();
         
         // update stop orders
         if (!update) {
             update = true;
+
+            StopTriggerEvent event = new StopTriggerEvent();
+            event.begin();
+
+            long triggered = this.triggeredStops;
+            long levels = this.sweptLevels;
+            long fillCount = this.fills;
+
             try {
                 execStopOrders();
             }
             finally {
                 update = false;
             }
+
+            event.end();
+
+            // only cascades that triggered something
+            if (this.triggeredStops > triggered && event.shouldCommit()) {
+                event.setTriggered((int) (this.triggeredStops - triggered));
+                event.setLevelsSwept((int) (this.sweptLevels - levels));
+                event.setFills((int) (this.fills - fillCount));
+                event.commit();
+            }
         }
     }
 
@@ -271,20 +536,175 @@ public class OrderBook {
         return userStopOrders;
     }
 
-    public void setTradeMap (TradeMap tradeMap) {
-        this.tradeMap = tradeMap;
+    /**
+     * gets the number of pending stop orders of a user in constant time
+     * 
+     * @param username username of the user
+     * @return number of stop orders of the user waiting in the queues
+     */
+    public int countUserStopOrders (String username) {
+        return this.userStopCounts.getOrDefault(username, 0);
+    }
+
+    /**
+     * rebuilds the live order index and the per user stop orders counts
+     * from the maps and queues, used after loading the order book from json
+     * or replacing its data structures
+     */
+    public synchronized void restoreOrderIndex () {
+        this.userStopCounts.clear();
+        this.liveOrders.clear();
+        this.userOrders.clear();
+
+        // drop the timeouts of the previous index, they are scheduled again below
+        this.expiryWheel = newExpiryWheel();
+
+        for (ConcurrentSkipListMap<Integer, OrderGroup> selectedMap : Arrays.asList(this.askOrders, this.bidOrders)) {
+            if (selectedMap == null)
+                continue;
+
+            for (OrderGroup group : selectedMap.values()) {
+                for (LimitOrder order : group.getLimitOrders()) {
+                    indexOrder(order);
+                }
+            }
+        }
+
+        for (ConcurrentLinkedQueue<StopOrder> selectedQueue : Arrays.asList(this.stopAsks, this.stopBids)) {
+            if (selectedQueue == null)
+                continue;
+
+            for (StopOrder order : selectedQueue) {
+                indexOrder(order);
+            }
+        }
     }
 
-    public void setBufferedTrades (LinkedList<Trade> trades) {
-        this.bufferedTrades = trades;
+    /**
+     * adds a resting order to the live order index
+     * 
+     * @param order limit or stop order entering the book
+     */
+    private void indexOrder (Order order) {
+        this.liveOrders.put(order.getOrderId(), order);
+        this.userOrders.computeIfAbsent(order.getUsername(), k -> new LinkedHashSet<>()).add(order.getOrderId());
+
+        if (order instanceof StopOrder)
+            incrementStopCount(order.getUsername());
+
+        if (order.getExpireAt() > 0)
+            this.expiryWheel.schedule(order, order.getExpireAt());
     }
 
-    public void setUdpNotifier (UdpNotifier notifier) {
-        this.udpNotifier = notifier;
+    // the wheel starts at the first expiry check, so a replay can run it on journaled times
+    private static TimingWheel<Order> newExpiryWheel () {
+        return new TimingWheel<>(EXPIRY_TICK_MILLIS, EXPIRY_WHEEL_SIZE);
     }
 
     /**
-     * calls the method to execute a limit order
+     * removes the orders whose expiry time has passed,
+     * notifying every owner once for all of their expired orders
+     * must be called periodically by the engine thread owning the book
+     * 
+     * @param now current time in milliseconds
+     * @return number of expired orders
+     */
+    public synchronized int expireOrders (long now) {
+        ArrayList<Order> expired = new ArrayList<>();
+
+        this.expiryWheel.advance(now, order -> {
+            // skip orders already filled, cancelled or replaced by an amendment
+            if (this.liveOrders.get(order.getOrderId()) == order)
+                expired.add(order);
+        });
+
+        if (expired.isEmpty())
+            return 0;
+
+        this.sequence++;
+
+        boolean batch = beginEventBatch();
+
+        for (Order order : expired) {
+            detachOrder(order);
+
+            Trade expiredOrder;
+
+            if (order instanceof StopOrder)
+                expiredOrder = new Trade(order.getOrderId(), order.getType(), "stop", order.getSize(), ((StopOrder) order).getStopPrice(), order.getUsername(), nowSeconds());
+            else
+                expiredOrder = new Trade(order.getOrderId(), order.getType(), "limit", order.getSize(), ((LimitOrder) order).getLimitPrice(), order.getUsername(), nowSeconds());
+
+            publish(OrderEvent.trade(OrderEvent.Type.EXPIRED, expiredOrder, today()));
+        }
+
+        updateBestPrices();
+
+        if (batch)
+            flushEventBatch();
+
+        this.expiredOrders.add(expired.size());
+
+        log.info("orders expired", "count", expired.size());
+
+        return expired.size();
+    }
+
+    /**
+     * removes an order leaving the book from the live order index
+     * 
+     * @param order limit or stop order leaving the book
+     */
+    private void unindexOrder (Order order) {
+        if (this.liveOrders.remove(order.getOrderId()) == null)
+            return;
+
+        LinkedHashSet<Integer> ids = this.userOrders.get(order.getUsername());
+
+        if (ids != null) {
+            ids.remove(order.getOrderId());
+
+            if (ids.isEmpty())
+                this.userOrders.remove(order.getUsername());
+        }
+
+        if (order instanceof StopOrder)
+            decrementStopCount(order.getUsername());
+    }
+
+    /**
+     * counts the live limit and stop orders of a user
+     * 
+     * @param username username of the user
+     * @return number of orders of the user resting in the book
+     */
+    public synchronized int countUserOrders (String username) {
+        LinkedHashSet<Integer> ids = this.userOrders.get(username);
+
+        return ids == null ? 0 : ids.size();
+    }
+
+    // add a pending stop order to the user count
+    private void incrementStopCount (String username) {
+        this.userStopCounts.merge(username, 1, Integer::sum);
+    }
+
+    // remove a pending stop order from the user count, dropping users with no stop orders
+    private void decrementStopCount (String username) {
+        this.userStopCounts.computeIfPresent(username, (user, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * gets the event ring of the book, consumers read it through their own cursor
+     * 
+     * @return ring of the events emitted while matching
+     */
+    public BroadcastRing<OrderEvent> getEvents () {
+        return this.events;
+    }
+
+    /**
+     * calls the method to execute a good till cancelled limit order
      * based on its type (ask or bid)
      * 
      * @param username username of the user placing the order
@@ -294,16 +714,108 @@ public class OrderBook {
      * @return the unique order ID assigned to the limit order
      */
     public synchronized int execLimitOrder (String username, String type, int size, int price) {
+        return execLimitOrder(username, type, size, price, GTC);
+    }
+
+    /**
+     * calls the method to execute a limit order
+     * based on its type (ask or bid) and time in force
+     * 
+     * GTC rests the remaining size in the book,
+     * IOC executes what it can up to the limit price and never rests,
+     * FOK executes fully up to the limit price or not at all
+     * 
+     * @param username username of the user placing the order
+     * @param type type of the limit order placed
+     * @param size size of the limit order
+     * @param price price of the limit order
+     * @param timeInForce GTC, IOC or FOK, null for GTC
+     * @return the unique order ID assigned to the limit order,
+     *         -1 if an IOC or FOK order is not executed
+     */
+    public synchronized int execLimitOrder (String username, String type, int size, int price, String timeInForce) {
+        return execLimitOrder(username, type, size, price, timeInForce, 0);
+    }
+
+    /**
+     * calls the method to execute a limit order
+     * based on its type (ask or bid), time in force and expiry
+     * 
+     * @param username username of the user placing the order
+     * @param type type of the limit order placed
+     * @param size size of the limit order
+     * @param price price of the limit order
+     * @param timeInForce GTC, IOC or FOK, null for GTC
+     * @param expireAt expiry of the resting size in milliseconds since epoch, 0 for none
+     * @return the unique order ID assigned to the limit order,
+     *         -1 if an IOC or FOK order is not executed
+     */
+    public synchronized int execLimitOrder (String username, String type, int size, int price, String timeInForce, long expireAt) {
+        this.sequence++;
+
+        EngineEvent event = new EngineEvent();
+        event.begin();
+
+        long levels = this.sweptLevels;
+        long fillCount = this.fills;
+
+        int orderId = -1;
 
+        boolean rest = timeInForce == null || timeInForce.equals(GTC);
+
+        // batch auction mode, collected until the next auction
+        if (this.auctionInterval > 0) {
+            if (FOK.equals(timeInForce))
+                log.info("fok order rejected in auction mode", "user", username);
+            else
+                orderId = collectAuctionOrder(username, type, size, price, rest, expireAt);
+        }
+        // fill or kill, rejected before touching the book
+        else if (FOK.equals(timeInForce) && !canFill(type, size, price, username)) {
+            log.info("fok order killed", "user", username, "side", type, "size", size, "price", price);
+        }
         // check the type of the order
-        if (type.equals("ask")) {
-            return execAskOrder(username, size, price);
+        else if (type.equals("ask")) {
+            orderId = execAskOrder(counterOrderId(), username, size, price, rest, expireAt);
         }
         else if (type.equals("bid")) {
-            return execBidOrder(username, size, price);
+            orderId = execBidOrder(counterOrderId(), username, size, price, rest, expireAt);
         }
 
-        return -1;
+        commitEngineEvent(event, "limit", orderId, username, type, size, price, levels, fillCount);
+
+        return orderId;
+    }
+
+    /**
+     * checks if an order can be fully executed against the opposite side,
+     * walking the levels in priority order only until the size is covered
+     * 
+     * @param type type of the incoming order ("ask" or "bid")
+     * @param size size of the incoming order
+     * @param limitPrice worst acceptable price, -1 for no limit
+     * @param username username of the user placing the order, own orders are not matched
+     * @return true if enough size is available within the limit price
+     */
+    private boolean canFill (String type, int size, int limitPrice, String username) {
+        ConcurrentSkipListMap<Integer, OrderGroup> selectedMap = type.equals("ask") ? this.bidOrders : this.askOrders;
+
+        int available = 0;
+
+        for (Map.Entry<Integer, OrderGroup> entry : selectedMap.entrySet()) {
+            int levelPrice = entry.getKey();
+
+            // levels are sorted by priority, the next ones are beyond the limit too
+            if (limitPrice != -1 && (type.equals("ask") ? levelPrice < limitPrice : levelPrice > limitPrice))
+                return false;
+
+            available += entry.getValue().getFilteredSize(username);
+
+            if (available >= size)
+                return true;
+        }
+
+        return false;
     }
 
     /**
@@ -315,10 +827,23 @@ public class OrderBook {
      * @return the order ID assigned to the ask order
     */
     public synchronized int execAskOrder (String username, int size, int price) {
-
         // generate a new unique order id
-        int orderId = counterOrderId();
+        return execAskOrder(counterOrderId(), username, size, price, true, 0);
+    }
 
+    /**
+     * executes an ask order with an already assigned id,
+     * matching it with existing bid orders and resting the remaining size
+     * 
+     * @param orderId id of the ask order
+     * @param username username of the user placing the order
+     * @param size size of the ask order
+     * @param price price of the ask order
+     * @param rest false to cancel the remaining size instead of resting it
+     * @param expireAt expiry of the resting size, 0 for none
+     * @return the order ID of the ask order, -1 if it doesn't rest and is not matched
+     */
+    private int execAskOrder (int orderId, String username, int size, int price, boolean rest, long expireAt) {
         int newSize = size;
 
         // iterator for bid orders map
@@ -344,6 +869,10 @@ public class OrderBook {
                 }
 
             }
+            // bids are sorted by descending price, no other level can match
+            else {
+                break;
+            }
         }
 
         // order fully executed
@@ -351,27 +880,31 @@ public class OrderBook {
             updateBestPrices();
 
             // add the ask order to trade map
-            insertTrade(orderId, "ask", "limit", size, price, LocalDate.now(), username);
+            insertTrade(orderId, "ask", "limit", size, price, today(), username);
 
-            System.out.println("order " + orderId + " fully executed");
+            log.info("order fully executed", "id", orderId);
 
             // return order id
             return orderId;
         }
+        // immediate or cancel, the remaining size is dropped
+        else if (!rest) {
+            return cancelRemaining(orderId, username, "ask", size, newSize, price);
+        }
         // order partially executed or not matched
         else if (newSize > 0) {
             // add the ask order to the order book
 
             if (newSize == size) {
                 // order not matched
-                System.out.println("order " + orderId + " not matched");
+                log.info("order not matched", "id", orderId);
             }
             else {
                 // order partially executed
-                System.out.println("order " + orderId + " partially executed");
+                log.info("order partially executed", "id", orderId, "remaining", newSize);
             }
             // add remaining size as ask limit order to the order book
-            addLimitOrder(orderId, username, "ask", newSize, price);
+            addLimitOrder(orderId, username, "ask", newSize, price, expireAt);
         }
 
         return orderId;
@@ -387,8 +920,22 @@ public class OrderBook {
      */
     public synchronized int execBidOrder (String username, int size, int price) {
         // generate a new unique order id
-        int orderId = counterOrderId();
+        return execBidOrder(counterOrderId(), username, size, price, true, 0);
+    }
 
+    /**
+     * executes a bid order with an already assigned id,
+     * matching it with existing ask orders and resting the remaining size
+     * 
+     * @param orderId id of the bid order
+     * @param username username of the user placing the order
+     * @param size size of the bid order
+     * @param price price of the bid order
+     * @param rest false to cancel the remaining size instead of resting it
+     * @param expireAt expiry of the resting size, 0 for none
+     * @return the order ID of the bid order, -1 if it doesn't rest and is not matched
+     */
+    private int execBidOrder (int orderId, String username, int size, int price, boolean rest, long expireAt) {
         // keep the remaining size of the order after matching
         int newSize = size;
 
@@ -413,6 +960,10 @@ public class OrderBook {
                     iterator.remove();
                 }        
             }
+            // asks are sorted by ascending price, no other level can match
+            else {
+                break;
+            }
         }
 
         // order fully executed
@@ -420,29 +971,64 @@ public class OrderBook {
             updateBestPrices();
 
             // add to trade map
-            insertTrade(orderId, "bid", "limit", size, price, LocalDate.now(), username);
+            insertTrade(orderId, "bid", "limit", size, price, today(), username);
 
-            System.out.println("order " + orderId + " fully executed");
+            log.info("order fully executed", "id", orderId);
 
             return orderId;
         }
+        // immediate or cancel, the remaining size is dropped
+        else if (!rest) {
+            return cancelRemaining(orderId, username, "bid", size, newSize, price);
+        }
         // order not matched or partially executed
         else if (newSize > 0) {
             // add the ask order to the order book
 
             if (newSize == size) {
                 // order not matched
-                System.out.println("order " + orderId + " not matched");
+                log.info("order not matched", "id", orderId);
             }
             else {
                 // order partially executed
-                System.out.println("order " + orderId + " partially executed");
+                log.info("order partially executed", "id", orderId, "remaining", newSize);
             }
 
             // add remaining size as bid limit order to the order book
-            addLimitOrder(orderId, username, "bid", newSize, price);
+            addLimitOrder(orderId, username, "bid", newSize, price, expireAt);
+        }
+
+        return orderId;
+    }
+
+    /**
+     * closes an order that doesn't rest in the book, dropping its remaining size
+     * 
+     * @param orderId id of the order
+     * @param username username of the user placing the order
+     * @param type type of the order ("ask" or "bid")
+     * @param size original size of the order
+     * @param remaining size left after matching
+     * @param price limit price of the order, 0 for market orders
+     * @return the order ID if partially executed, -1 if not matched at all
+     */
+    private int cancelRemaining (int orderId, String username, String type, int size, int remaining, int price) {
+        // not matched, nothing to record
+        if (remaining == size) {
+            log.info("ioc order not matched", "id", orderId);
+            return -1;
         }
 
+        // levels may have been consumed
+        updateBestPrices();
+
+        // add the executed part to the trade map
+        insertTrade(orderId, type, price == 0 ? "market" : "limit", size - remaining, price, today(), username);
+
+        publish(OrderEvent.order(OrderEvent.Type.CANCELLED, orderId, username, type, remaining, price == 0 ? -1 : price));
+
+        log.info("ioc order partially executed", "id", orderId, "cancelled", remaining);
+
         return orderId;
     }
 
@@ -460,6 +1046,7 @@ public class OrderBook {
      * @return remaining size of the placed order after matching
      */
     public synchronized int matchingAlgorithm (OrderGroup group, ConcurrentLinkedQueue<LimitOrder> orders, int size, String username) {
+        this.sweptLevels++;
 
         // check in the order group
         Iterator<LimitOrder> iterator = orders.iterator();
@@ -477,27 +1064,32 @@ public class OrderBook {
                     // order partially executed but opposite order executed
                     size -= orderSize;
 
+                    recordFill(order, username, orderSize, 0);
+
                     // add the executed order to the trade map
-                    insertTrade(order.getOrderId(), order.getType(), "limit", orderSize, orderPrice, LocalDate.now(), order.getUsername());
+                    insertTrade(order.getOrderId(), order.getType(), "limit", orderSize, orderPrice, today(), order.getUsername());
 
-                    System.out.println("order " + order.getOrderId() + " fully executed");
+                    log.debug("resting order fully executed", "id", order.getOrderId(), "size", orderSize, "price", orderPrice);
 
                     // remove the executed order from the group
                     iterator.remove();
+                    unindexOrder(order);
                             
                     // update group parameters
                     group.updateGroup(orderSize, orderPrice);
                 }
                 else if (orderSize == size) {
                     // both orders are fully executed
+                    recordFill(order, username, orderSize, 0);
 
                     // add the opposite order to the trade map
-                    insertTrade(order.getOrderId(), order.getType(), "limit", orderSize, orderPrice, LocalDate.now(), order.getUsername());
+                    insertTrade(order.getOrderId(), order.getType(), "limit", orderSize, orderPrice, today(), order.getUsername());
 
-                    System.out.println("order " + order.getOrderId() + " fully executed");
+                    log.debug("resting order fully executed", "id", order.getOrderId(), "size", orderSize, "price", orderPrice);
 
                     // remove the opposite order from the group
                     iterator.remove();
+                    unindexOrder(order);
 
                     group.updateGroup(orderSize, orderPrice);
 
@@ -507,11 +1099,13 @@ public class OrderBook {
                 else if (orderSize > size) {
                     // opposite order partially executed
                     order.setSize(orderSize - size);
+
+                    recordFill(order, username, size, orderSize - size);
                     
                     // update group
                     group.updateGroup(size, orderPrice);
 
-                    System.out.println("order " + order.getOrderId() + " partially executed");
+                    log.debug("resting order partially executed", "id", order.getOrderId(), "size", size, "price", orderPrice);
 
                     // current order fully executed
                     return 0;
@@ -533,11 +1127,30 @@ public class OrderBook {
      * @param price price of the limit order
      */
     public synchronized void addLimitOrder (int orderId, String username, String type, int size, int price) {
-        // create a new limit order instance
-        LimitOrder order = new LimitOrder(orderId, username, type, size, price);
+        addLimitOrder(orderId, username, type, size, price, 0);
+    }
 
-        // select the right map
-        ConcurrentSkipListMap<Integer, OrderGroup> selectedMap = type.equals("ask") ? this.askOrders : this.bidOrders;
+    /**
+     * adds new limit order to the order book, expiring at the given time
+     * 
+     * @param orderId id of the limit order
+     * @param username username of the user that placed the order
+     * @param type type of the limit order ("ask" or "bid")
+     * @param size size of the limit order
+     * @param price price of the limit order
+     * @param expireAt expiry in milliseconds since epoch, 0 for none
+     */
+    public synchronized void addLimitOrder (int orderId, String username, String type, int size, int price, long expireAt) {
+        // create a new limit order instance
+        LimitOrder order = new LimitOrder(orderId, username, type, size, price);
+        order.setExpireAt(expireAt);
+
+        indexOrder(order);
+
+        publish(OrderEvent.order(OrderEvent.Type.ACCEPTED, orderId, username, type, size, price));
+
+        // select the right map
+        ConcurrentSkipListMap<Integer, OrderGroup> selectedMap = type.equals("ask") ? this.askOrders : this.bidOrders;
 
         // check if exists a group for the order price
         if (selectedMap.containsKey(price)) {
@@ -558,9 +1171,6 @@ public class OrderBook {
 
         // update best prices and spread
         updateBestPrices();
-
-        // debug
-        printOrderBook();
     }
 
     /**
@@ -573,25 +1183,53 @@ public class OrderBook {
      * @return unique order ID assigned to the stop order
      */
     public synchronized int addStopOrder (String username, int size, int price, String type) {
+        return addStopOrder(username, size, price, type, 0);
+    }
+
+    /**
+     * adds a stop order expiring at the given time if not triggered before
+     * 
+     * @param username username of the user placing the stop order
+     * @param size size of the stop order
+     * @param price stop price of the stop order
+     * @param type type of the stop order ("ask" or "bid")
+     * @param expireAt expiry in milliseconds since epoch, 0 for none
+     * @return the unique order ID assigned to the stop order
+     */
+    public synchronized int addStopOrder (String username, int size, int price, String type, long expireAt) {
+        this.sequence++;
+
+        EngineEvent event = new EngineEvent();
+        event.begin();
+
+        long levels = this.sweptLevels;
+        long fillCount = this.fills;
+
         // generate unique new order id
         int orderId = counterOrderId();
 
         // create a new stop order instance
         StopOrder order = new StopOrder(orderId, username, type, size, price);
+        order.setExpireAt(expireAt);
 
         // check if the stop order is immediately executable
         if ((type.equals("ask") && !this.bidOrders.isEmpty() && this.bestBidPrice <= price) || 
             (type.equals("bid") && !this.askOrders.isEmpty() && this.bestAskPrice >= price)) {
+            publish(OrderEvent.order(OrderEvent.Type.STOP_TRIGGERED, orderId, username, type, size, price));
+
             execStopOrder(size, price, type, "stop", username, orderId);
         }
         // if not executable, add it to stop orders queue
         else {
             ConcurrentLinkedQueue<StopOrder> selectedQueue = type.equals("ask") ? this.stopAsks : this.stopBids;
             selectedQueue.add(order);
+
+            indexOrder(order);
+
+            publish(OrderEvent.order(OrderEvent.Type.ACCEPTED, orderId, username, type, size, price));
         }
 
-        // debug
-        printOrderBook();
+        commitEngineEvent(event, "stop", orderId, username, type, size, price, levels, fillCount);
 
         return orderId;
     }
@@ -615,12 +1253,12 @@ public class OrderBook {
 
         // if successfully executed, add it to trade map
         if (result == orderId) {
-            System.out.println("stop order " + orderId + " executed");
+            log.info("stop order executed", "id", orderId);
 
-            insertTrade(orderId, type, "stop", size, price, LocalDate.now(), username);
+            insertTrade(orderId, type, "stop", size, price, today(), username);
         }
         else {
-            System.out.println("error! stop order " + orderId + " not executed");
+            log.warn("stop order not executed", "id", orderId);
         }
     }
 
@@ -643,29 +1281,34 @@ public class OrderBook {
             // best bid price is below or equal to stop price
             if (!this.bidOrders.isEmpty() && this.bestBidPrice <= stopPrice) {
 
+                this.triggeredStops++;
+
+                publish(OrderEvent.order(OrderEvent.Type.STOP_TRIGGERED, order.getOrderId(), order.getUsername(), order.getType(), order.getSize(), stopPrice));
+
                 int result = execMarketOrder (order.getSize(), "ask", "stop", order.getUsername(), order.getOrderId());
 
                 // if successfully executed, add it to trade map
                 if (result == order.getOrderId()) {
 
-                    System.out.println("stop order " + order.getOrderId() + " executed");
+                    log.info("stop order executed", "id", order.getOrderId());
 
-                    insertTrade(order.getOrderId(), "ask", "stop", order.getSize(), order.getStopPrice(), LocalDate.now(), order.getUsername());
+                    insertTrade(order.getOrderId(), "ask", "stop", order.getSize(), order.getStopPrice(), today(), order.getUsername());
 
                     // remove stop order from the queue
                     askIterator.remove();
+                    unindexOrder(order);
                 }
                 else {
                     // execution failed
-                    System.out.println("error! stop order " + order.getOrderId() + " not executed");
+                    log.warn("stop order not executed", "id", order.getOrderId());
 
-                    LinkedList<Trade> failedOrders = new LinkedList<>();
-                    failedOrders.add(new Trade(order.getOrderId(), order.getType(), "stop", order.getSize(), order.getStopPrice(), order.getUsername()));
+                    Trade failedOrder = new Trade(order.getOrderId(), order.getType(), "stop", order.getSize(), order.getStopPrice(), order.getUsername(), nowSeconds());
 
-                    this.udpNotifier.notifyClient(order.getUsername(), new Notification(NOTIFICATION_ERROR, failedOrders));
+                    publish(OrderEvent.trade(OrderEvent.Type.FAILED, failedOrder, today()));
 
                     // remove the failed order from the queue
                     askIterator.remove();
+                    unindexOrder(order);
                 }
             }
         }
@@ -681,29 +1324,34 @@ public class OrderBook {
             // best ask price is above or equal to stop price
             if (!this.askOrders.isEmpty() && this.bestAskPrice >= stopPrice) {
 
+                this.triggeredStops++;
+
+                publish(OrderEvent.order(OrderEvent.Type.STOP_TRIGGERED, order.getOrderId(), order.getUsername(), order.getType(), order.getSize(), stopPrice));
+
                 int result = execMarketOrder (order.getSize(), "bid", "stop", order.getUsername(), order.getOrderId());
 
                 // if successfully executed, add it to trade map
                 if (result == order.getOrderId()) {
 
-                    System.out.println("stop order " + order.getOrderId() + " executed");
+                    log.info("stop order executed", "id", order.getOrderId());
 
-                    insertTrade(order.getOrderId(), "bid", "stop", order.getSize(), order.getStopPrice(), LocalDate.now(), order.getUsername());
+                    insertTrade(order.getOrderId(), "bid", "stop", order.getSize(), order.getStopPrice(), today(), order.getUsername());
 
                     // remove stop order from the queue
                     bidIterator.remove();
+                    unindexOrder(order);
 
                 }
                 else {
                     // execution failed
-                    System.out.println("error! stop order " + order.getOrderId() + " not executed");
+                    log.warn("stop order not executed", "id", order.getOrderId());
                     
-                    LinkedList<Trade> failedOrders = new LinkedList<>();
-                    failedOrders.add(new Trade(order.getOrderId(), order.getType(), "stop", order.getSize(), order.getStopPrice(), order.getUsername()));
+                    Trade failedOrder = new Trade(order.getOrderId(), order.getType(), "stop", order.getSize(), order.getStopPrice(), order.getUsername(), nowSeconds());
 
-                    this.udpNotifier.notifyClient(order.getUsername(), new Notification(NOTIFICATION_ERROR, failedOrders));
+                    publish(OrderEvent.trade(OrderEvent.Type.FAILED, failedOrder, today()));
 
                     bidIterator.remove();
+                    unindexOrder(order);
                 }
 
             }
@@ -722,6 +1370,66 @@ public class OrderBook {
      * @return order ID if the market order is fully executed, -1 otherwise
      */
     public synchronized int execMarketOrder (int size, String type, String orderType, String username, int id) {
+        return execMarketOrder(size, type, orderType, username, id, FOK);
+    }
+
+    /**
+     * executes a market order with the given time in force
+     * FOK executes fully or not at all, IOC executes what it can
+     * 
+     * @param size size of the market order
+     * @param type type of the market order ("ask" or "bid")
+     * @param orderType type of the order ("market" or "stop")
+     * @param username username of the user placing the market order
+     * @param id id of the order (used for stop orders)
+     * @param timeInForce FOK or IOC, null for FOK, or for IOC in batch auction mode
+     * @return order ID if the market order is executed, even partially for IOC, -1 otherwise
+     */
+    public synchronized int execMarketOrder (int size, String type, String orderType, String username, int id, String timeInForce) {
+        EngineEvent event = new EngineEvent();
+        event.begin();
+
+        long levels = this.sweptLevels;
+        long fillCount = this.fills;
+
+        int orderId;
+
+        // batch auction mode, market orders are collected as immediate or cancel,
+        // the default too, while triggered stop orders still match against the book;
+        // an explicit fill or kill can't be granted by the auction and is rejected
+        if (this.auctionInterval > 0 && orderType.equals("market")) {
+            this.sequence++;
+
+            if (FOK.equals(timeInForce)) {
+                log.info("fok order rejected in auction mode", "user", username);
+                orderId = -1;
+            }
+            else {
+                orderId = collectAuctionOrder(username, type, size, -1, false, 0);
+            }
+        }
+        else {
+            orderId = matchMarketOrder(size, type, orderType, username, id, IOC.equals(timeInForce));
+        }
+
+        commitEngineEvent(event, orderType, orderId, username, type, size, -1, levels, fillCount);
+
+        return orderId;
+    }
+
+    /**
+     * matches a market order against the opposite side of the book
+     * 
+     * @param size size of the market order
+     * @param type type of the market order ("ask" or "bid")
+     * @param orderType type of the order ("market" or "stop")
+     * @param username username of the user placing the market order
+     * @param id id of the order (used for stop orders)
+     * @param partial true to execute what is available instead of all or nothing
+     * @return order ID if the market order is executed, -1 otherwise
+     */
+    private int matchMarketOrder (int size, String type, String orderType, String username, int id, boolean partial) {
+        this.sequence++;
 
         int orderId = 0;
         
@@ -736,7 +1444,6 @@ public class OrderBook {
         }
 
         // select the right map
-        String oppositeType = type.equals("ask") ? "bid" : "ask";
         ConcurrentSkipListMap<Integer, OrderGroup> selectedMap = type.equals("ask") ? this.bidOrders : this.askOrders;
 
         // if the opposite type map is empty, market order fails immediately
@@ -745,8 +1452,9 @@ public class OrderBook {
             return -1;
         }
 
-        // check if there's enough available size to execute the order
-        if (this.getAvailableSize(username, oppositeType) >= size) {
+        // check if there's enough available size to execute the order,
+        // walking only the levels needed to cover it
+        if (partial || canFill(type, size, -1, username)) {
 
             int newSize = size;
 
@@ -768,24 +1476,28 @@ public class OrderBook {
                 }
             }
 
+            // immediate or cancel, the remaining size is dropped
+            if (newSize > 0)
+                return cancelRemaining(orderId, username, type, size, newSize, 0);
+
             // update best prices and spread after execution
             updateBestPrices();
 
             // add executed market order to trade map
             if (orderType.equals("market")) {
-                System.out.println("market order " + orderId + " fully executed");
+                log.info("market order fully executed", "id", orderId);
 
                 if (type.equals("ask"))
-                    insertTrade(orderId, "ask", "market", size, 0, LocalDate.now(), username); 
+                    insertTrade(orderId, "ask", "market", size, 0, today(), username); 
                 else
-                    insertTrade(orderId, "bid", "market", size, 0, LocalDate.now(), username);
+                    insertTrade(orderId, "bid", "market", size, 0, today(), username);
             }
 
             return orderId;
         }
 
         if (orderType.equals("market"))
-            System.out.println("market order " + orderId + " failed");
+            log.info("market order failed", "id", orderId);
 
         // failed order
         return -1;
@@ -801,90 +1513,744 @@ public class OrderBook {
      * @return 100 if the order was successfully removed, 101 otherwise
      */
     public synchronized int cancelOrder (int orderId, String username) {
+        EngineEvent event = new EngineEvent();
+        event.begin();
 
-        // check ask map
-        Iterator<OrderGroup> askIterator = this.askOrders.values().iterator();
+        long levels = this.sweptLevels;
+        long fillCount = this.fills;
 
-        while (askIterator.hasNext()) {
-            OrderGroup group = askIterator.next();
+        int code = removeOrder(orderId, username);
 
-            // remove the order from the group
-            if (group.removeOrder(orderId, username)) {
+        commitEngineEvent(event, "cancel", code == 100 ? orderId : -1, username, null, 0, -1, levels, fillCount);
 
-                // if the group is empty after removal, remove it from the map
-                if (group.isEmpty()) {
-                    askIterator.remove();
+        return code;
+    }
+
+    /**
+     * copies the orders waiting for the next auction, for snapshots
+     * must be called while holding the monitor
+     * 
+     * @return detached copies by order id, in arrival order
+     */
+    LinkedHashMap<Integer, LimitOrder> copyAuctionOrders () {
+        LinkedHashMap<Integer, LimitOrder> copy = new LinkedHashMap<>();
+
+        for (AuctionOrder order : this.auctionOrders.values()) {
+            copy.put(order.getOrderId(), new AuctionOrder(order.getOrderId(), order.getUsername(), order.getType(), order.getSize(),
+                order.getLimitPrice(), order.rest, order.getExpireAt()));
+        }
+
+        return copy;
+    }
+
+    /**
+     * collects a limit or market order for the next auction
+     * 
+     * @param username username of the user placing the order
+     * @param type type of the order ("ask" or "bid")
+     * @param size size of the order
+     * @param price limit price, -1 for market orders
+     * @param rest false if the size not executed in the auction is cancelled
+     * @param expireAt expiry of the resting size, 0 for none
+     * @return the order ID assigned to the order
+     */
+    private int collectAuctionOrder (String username, String type, int size, int price, boolean rest, long expireAt) {
+        return collectAuctionOrder(counterOrderId(), username, type, size, price, rest, expireAt);
+    }
+
+    /**
+     * collects an order for the next auction with a given id, for amended orders keeping their id
+     * 
+     * @param orderId id of the order
+     * @param username username of the user placing the order
+     * @param type type of the order ("ask" or "bid")
+     * @param size size of the order
+     * @param price limit price, -1 for market orders
+     * @param rest false if the size not executed in the auction is cancelled
+     * @param expireAt expiry of the resting size, 0 for none
+     * @return the order ID
+     */
+    private int collectAuctionOrder (int orderId, String username, String type, int size, int price, boolean rest, long expireAt) {
+        this.auctionOrders.put(orderId, new AuctionOrder(orderId, username, type, size, price, rest, expireAt));
+
+        publish(OrderEvent.order(OrderEvent.Type.ACCEPTED, orderId, username, type, size, price));
+
+        return orderId;
+    }
+
+    /**
+     * runs a batch auction over the collected orders and the resting book
+     * 
+     * a single clearing price is chosen from the aggregated demand and supply curves:
+     * the price executing the highest volume, then leaving the smallest imbalance, then the lowest;
+     * every crossing order executes at that price, by price and time priority,
+     * resting orders before collected ones at the same price
+     * 
+     * collected limit orders rest with their remaining size, market and IOC orders are cancelled;
+     * stop orders are triggered once, after the whole batch
+     * 
+     * @return executed volume
+     */
+    public synchronized int runAuction () {
+        if (this.auctionOrders.isEmpty())
+            return 0;
+
+        this.sequence++;
+
+        EngineEvent event = new EngineEvent();
+        event.begin();
+
+        long levels = this.sweptLevels;
+        long fillCount = this.fills;
+
+        ArrayList<AuctionOrder> buys = new ArrayList<>();
+        ArrayList<AuctionOrder> sells = new ArrayList<>();
+
+        for (AuctionOrder order : this.auctionOrders.values()) {
+            if (order.getType().equals("bid"))
+                buys.add(order);
+            else
+                sells.add(order);
+        }
+
+        int orders = this.auctionOrders.size();
+        this.auctionOrders.clear();
+
+        // market orders first, then by price; the sort is stable, arrival order within a price
+        buys.sort(Comparator.comparingInt((AuctionOrder order) -> order.isMarket() ? Integer.MAX_VALUE : order.getLimitPrice()).reversed());
+        sells.sort(Comparator.comparingInt((AuctionOrder order) -> order.isMarket() ? Integer.MIN_VALUE : order.getLimitPrice()));
+
+        int[] clearing = clearingPrice(buys, sells);
+        int price = clearing[0];
+        int volume = clearing[1];
+
+        // hold events and stop orders until the batch is complete
+        boolean batch = beginEventBatch();
+        boolean updating = this.update;
+        this.update = true;
+
+        try {
+            if (volume > 0) {
+                allocateAuction(this.bidOrders, buys, "bid", price, volume);
+                allocateAuction(this.askOrders, sells, "ask", price, volume);
+            }
+
+            // collected orders in arrival order: trades, then remaining size
+            ArrayList<AuctionOrder> collected = new ArrayList<>(buys);
+            collected.addAll(sells);
+            collected.sort(Comparator.comparingInt(AuctionOrder::getOrderId));
+
+            for (AuctionOrder order : collected) {
+                String orderType = order.isMarket() ? "market" : "limit";
+
+                if (order.filled > 0)
+                    insertTrade(order.getOrderId(), order.getType(), orderType, order.filled, price, today(), order.getUsername());
+
+                int remaining = order.getSize() - order.filled;
+
+                if (remaining == 0)
+                    continue;
+
+                if (order.rest) {
+                    addLimitOrder(order.getOrderId(), order.getUsername(), order.getType(), remaining, order.getLimitPrice(), order.getExpireAt());
+                }
+                else if (order.filled == 0) {
+                    Trade failedOrder = new Trade(order.getOrderId(), order.getType(), orderType, order.getSize(), Math.max(order.getLimitPrice(), 0), order.getUsername(), nowSeconds());
+
+                    publish(OrderEvent.trade(OrderEvent.Type.FAILED, failedOrder, today()));
                 }
+                else {
+                    publish(OrderEvent.order(OrderEvent.Type.CANCELLED, order.getOrderId(), order.getUsername(), order.getType(), remaining, order.getLimitPrice()));
+                }
+            }
+
+            updateBestPrices();
+        }
+        finally {
+            this.update = updating;
+        }
+
+        // stop orders see only the book after the auction
+        updateBestPrices();
+
+        if (batch)
+            flushEventBatch();
+
+        // size and price of the event hold the auction volume and clearing price
+        commitEngineEvent(event, "auction", -1, null, null, volume, volume > 0 ? price : -1, levels, fillCount);
+
+        log.info("auction", "orders", orders, "price", volume > 0 ? price : -1, "volume", volume);
+
+        return volume;
+    }
+
+    /**
+     * computes the clearing price of an auction from the collected orders
+     * and the resting levels that can cross them
+     * 
+     * @param buys collected bids, by priority
+     * @param sells collected asks, by priority
+     * @return clearing price and executed volume, volume 0 if nothing crosses
+     */
+    private int[] clearingPrice (List<AuctionOrder> buys, List<AuctionOrder> sells) {
+        // size at each price: [0] bids, [1] asks
+        TreeMap<Integer, long[]> curve = new TreeMap<>();
+
+        long marketBuys = 0;
+        long marketSells = 0;
+        long collectedBuys = 0;
+        long collectedSells = 0;
 
-                updateBestPrices();
+        int highestBuy = Integer.MIN_VALUE;
+        int lowestSell = Integer.MAX_VALUE;
 
-                System.out.println("ask order " + orderId + " removed");
+        for (AuctionOrder order : buys) {
+            collectedBuys += order.getSize();
 
-                // order successfully removed
-                return 100;
+            if (order.isMarket()) {
+                marketBuys += order.getSize();
+                highestBuy = Integer.MAX_VALUE;
+            }
+            else {
+                curve.computeIfAbsent(order.getLimitPrice(), k -> new long[2])[0] += order.getSize();
+                highestBuy = Math.max(highestBuy, order.getLimitPrice());
             }
         }
 
-        // check bid map
-        Iterator<OrderGroup> bidIterator = this.bidOrders.values().iterator();
+        for (AuctionOrder order : sells) {
+            collectedSells += order.getSize();
 
-        while (bidIterator.hasNext()) {
-            OrderGroup group = bidIterator.next();
+            if (order.isMarket()) {
+                marketSells += order.getSize();
+                lowestSell = Integer.MIN_VALUE;
+            }
+            else {
+                curve.computeIfAbsent(order.getLimitPrice(), k -> new long[2])[1] += order.getSize();
+                lowestSell = Math.min(lowestSell, order.getLimitPrice());
+            }
+        }
 
-            if (group.removeOrder(orderId, username)) {
+        // resting bids that can meet a collected ask, until they cover all of them
+        long resting = 0;
+        for (Map.Entry<Integer, OrderGroup> entry : this.bidOrders.entrySet()) {
+            if (entry.getKey() < lowestSell || resting >= collectedSells)
+                break;
 
-                if (group.isEmpty()) {
-                    bidIterator.remove();
-                }
+            resting += entry.getValue().getSize();
+            curve.computeIfAbsent(entry.getKey(), k -> new long[2])[0] += entry.getValue().getSize();
+        }
 
-                updateBestPrices();
+        // resting asks that can meet a collected bid, until they cover all of them
+        resting = 0;
+        for (Map.Entry<Integer, OrderGroup> entry : this.askOrders.entrySet()) {
+            if (entry.getKey() > highestBuy || resting >= collectedBuys)
+                break;
 
-                System.out.println("bid order " + orderId + " removed");
+            resting += entry.getValue().getSize();
+            curve.computeIfAbsent(entry.getKey(), k -> new long[2])[1] += entry.getValue().getSize();
+        }
 
-                return 100;
+        long demand = marketBuys;
+        for (long[] sizes : curve.values()) {
+            demand += sizes[0];
+        }
+
+        long supply = marketSells;
+
+        int bestPrice = -1;
+        long bestVolume = 0;
+        long bestImbalance = Long.MAX_VALUE;
+
+        // ascending prices: supply grows, demand shrinks
+        for (Map.Entry<Integer, long[]> entry : curve.entrySet()) {
+            supply += entry.getValue()[1];
+
+            long volume = Math.min(demand, supply);
+            long imbalance = Math.abs(demand - supply);
+
+            if (volume > bestVolume || (volume == bestVolume && volume > 0 && imbalance < bestImbalance)) {
+                bestPrice = entry.getKey();
+                bestVolume = volume;
+                bestImbalance = imbalance;
             }
+
+            // bids at this price don't buy above it
+            demand -= entry.getValue()[0];
         }
 
-        // check stop ask queue
-        Iterator<StopOrder> stopAskIterator = this.stopAsks.iterator();
-        
-        while (stopAskIterator.hasNext()) {
-            StopOrder stopOrder = stopAskIterator.next();
+        return new int[] { bestPrice, (int) Math.min(bestVolume, Integer.MAX_VALUE) };
+    }
 
-            if (stopOrder.getOrderId() == orderId && stopOrder.getUsername().equals(username)) {
-                
-                stopAskIterator.remove();
+    /**
+     * executes one side of an auction at the clearing price,
+     * by price priority, resting orders before collected ones at the same price
+     * 
+     * @param restingMap resting levels of the side
+     * @param collected collected orders of the side, by priority
+     * @param type side of the orders ("ask" or "bid")
+     * @param price clearing price
+     * @param volume size to execute on the side
+     */
+    private void allocateAuction (ConcurrentSkipListMap<Integer, OrderGroup> restingMap, List<AuctionOrder> collected, String type, int price, int volume) {
+        boolean bid = type.equals("bid");
+
+        Iterator<Map.Entry<Integer, OrderGroup>> levelIterator = restingMap.entrySet().iterator();
+        Map.Entry<Integer, OrderGroup> level = levelIterator.hasNext() ? levelIterator.next() : null;
+
+        int next = 0;
+        int left = volume;
+
+        while (left > 0) {
+            AuctionOrder order = next < collected.size() ? collected.get(next) : null;
+
+            // crossing the clearing price, market orders always do
+            boolean restingCrosses = level != null && (bid ? level.getKey() >= price : level.getKey() <= price);
+            boolean collectedCrosses = order != null && (order.isMarket() || (bid ? order.getLimitPrice() >= price : order.getLimitPrice() <= price));
+
+            if (!restingCrosses && !collectedCrosses)
+                break;
+
+            // resting level first unless the collected order has a better price
+            boolean collectedFirst = collectedCrosses && (!restingCrosses || order.isMarket()
+                || (bid ? order.getLimitPrice() > level.getKey() : order.getLimitPrice() < level.getKey()));
+
+            if (collectedFirst) {
+                order.filled = Math.min(order.getSize(), left);
+                left -= order.filled;
+                next++;
+            }
+            else {
+                left = fillAuctionLevel(level.getValue(), price, left);
+
+                if (level.getValue().isEmpty())
+                    levelIterator.remove();
+
+                level = levelIterator.hasNext() ? levelIterator.next() : null;
+            }
+        }
+    }
+
+    /**
+     * executes the resting orders of a level at the clearing price, in time priority
+     * 
+     * @param group resting level
+     * @param price clearing price
+     * @param left size still to execute on the side
+     * @return size still to execute after the level
+     */
+    private int fillAuctionLevel (OrderGroup group, int price, int left) {
+        this.sweptLevels++;
+
+        Iterator<LimitOrder> iterator = group.getLimitOrders().iterator();
+
+        while (iterator.hasNext() && left > 0) {
+            LimitOrder order = iterator.next();
+
+            int orderSize = order.getSize();
+            int executed = Math.min(orderSize, left);
+
+            recordFill(order, "auction", executed, orderSize - executed);
+
+            insertTrade(order.getOrderId(), order.getType(), "limit", executed, price, today(), order.getUsername());
+
+            if (executed == orderSize) {
+                iterator.remove();
+                unindexOrder(order);
+            }
+            else {
+                order.setSize(orderSize - executed);
+            }
+
+            group.updateGroup(executed, order.getLimitPrice());
+
+            left -= executed;
+        }
+
+        return left;
+    }
+
+    /**
+     * removes an order from the map or queue holding it
+     * the order is found through the live order index, only its price level is scanned
+     * 
+     * @param orderId id of the order to remove
+     * @param username username of the user trying to cancel the order
+     * @return 100 if the order was successfully removed, 101 otherwise
+     */
+    private int removeOrder (int orderId, String username) {
+        this.sequence++;
+
+        Order order = this.liveOrders.get(orderId);
+
+        // order still waiting for the auction
+        if (order == null)
+            order = this.auctionOrders.get(orderId);
+
+        // order not found or not owned by the user
+        if (order == null || !order.getUsername().equals(username))
+            return 101;
+
+        if (order instanceof AuctionOrder)
+            this.auctionOrders.remove(orderId);
+        else
+            detachOrder(order);
+
+        publishCancelled(order);
+
+        updateBestPrices();
+
+        log.info(order instanceof StopOrder ? "stop order removed" : "order removed", "id", orderId, "side", order.getType());
+
+        // order successfully removed
+        return 100;
+    }
+
+    /**
+     * removes a live order from the book and from the index,
+     * without updating best prices
+     * 
+     * @param order live limit or stop order
+     */
+    private void detachOrder (Order order) {
+        if (order instanceof LimitOrder) {
+            LimitOrder limitOrder = (LimitOrder) order;
+
+            ConcurrentSkipListMap<Integer, OrderGroup> selectedMap = order.getType().equals("ask") ? this.askOrders : this.bidOrders;
+            OrderGroup group = selectedMap.get(limitOrder.getLimitPrice());
+
+            if (group != null && group.removeOrder(order.getOrderId(), order.getUsername())) {
+                // if the group is empty after removal, remove it from the map
+                if (group.isEmpty())
+                    selectedMap.remove(limitOrder.getLimitPrice());
+            }
+        }
+        else {
+            ConcurrentLinkedQueue<StopOrder> selectedQueue = order.getType().equals("ask") ? this.stopAsks : this.stopBids;
+            selectedQueue.remove(order);
+        }
+
+        unindexOrder(order);
+    }
+
+    /**
+     * cancels every limit and stop order of a user in a single step,
+     * in time proportional to the orders of the user
+     * 
+     * @param username username of the user
+     * @return number of cancelled orders
+     */
+    public synchronized int cancelAllOrders (String username) {
+        this.sequence++;
+
+        EngineEvent event = new EngineEvent();
+        event.begin();
+
+        long levels = this.sweptLevels;
+        long fillCount = this.fills;
+
+        LinkedHashSet<Integer> ids = this.userOrders.get(username);
+
+        int cancelled = 0;
+
+        if (ids != null) {
+            // copy, the set is emptied while detaching
+            for (Integer id : new ArrayList<>(ids)) {
+                Order order = this.liveOrders.get(id);
+
+                if (order != null) {
+                    detachOrder(order);
+                    publishCancelled(order);
+                    cancelled++;
+                }
+            }
+
+            updateBestPrices();
+        }
 
-                updateBestPrices();
+        // orders waiting for the auction
+        Iterator<AuctionOrder> pending = this.auctionOrders.values().iterator();
 
-                System.out.println("stop order " + orderId + " removed");
+        while (pending.hasNext()) {
+            AuctionOrder order = pending.next();
 
-                return 100;
+            if (order.getUsername().equals(username)) {
+                pending.remove();
+                publishCancelled(order);
+                cancelled++;
             }
         }
 
-        // check stop bid queue
-        Iterator<StopOrder> stopBidIterator = this.stopBids.iterator();
-        while (stopBidIterator.hasNext()) {
-            StopOrder stopOrder = stopBidIterator.next();
+        // size of the event holds the number of cancelled orders
+        commitEngineEvent(event, "cancelAll", -1, username, null, cancelled, -1, levels, fillCount);
+
+        log.info("all orders cancelled", "user", username, "count", cancelled);
+
+        return cancelled;
+    }
+
+    /**
+     * changes size and price of a resting limit order in a single step
+     * 
+     * a size decrease at the same price is applied in place and keeps the queue priority,
+     * a price change or size increase moves the order, with the same id,
+     * to the back of the new level, matching it first if the new price crosses the book
+     * 
+     * @param orderId id of the order to amend
+     * @param username username of the user owning the order
+     * @param size new size of the order
+     * @param price new limit price of the order
+     * @return 100 if the order was amended, 101 if the order doesn't exist or isn't owned by the user
+     */
+    public synchronized int amendOrder (int orderId, String username, int size, int price) {
+        this.sequence++;
+
+        EngineEvent event = new EngineEvent();
+        event.begin();
+
+        long levels = this.sweptLevels;
+        long fillCount = this.fills;
+
+        int code = modifyOrder(orderId, username, size, price);
+
+        commitEngineEvent(event, "amend", code == 100 ? orderId : -1, username, null, size, price, levels, fillCount);
+
+        return code;
+    }
+
+    /**
+     * finds a resting limit order and applies an amendment to it
+     * 
+     * @param orderId id of the order to amend
+     * @param username username of the user owning the order
+     * @param size new size of the order
+     * @param price new limit price of the order
+     * @return 100 if the order was amended, 101 otherwise
+     */
+    private int modifyOrder (int orderId, String username, int size, int price) {
+        Order found = this.liveOrders.get(orderId);
+
+        // only resting limit orders of the user can be amended
+        if (!(found instanceof LimitOrder) || !found.getUsername().equals(username))
+            return 101;
+
+        LimitOrder order = (LimitOrder) found;
+
+        int oldSize = order.getSize();
+        int oldPrice = order.getLimitPrice();
+
+        // same price and smaller or equal size, amended in place
+        if (price == oldPrice && size <= oldSize) {
+            ConcurrentSkipListMap<Integer, OrderGroup> selectedMap = order.getType().equals("ask") ? this.askOrders : this.bidOrders;
+
+            order.setSize(size);
+            selectedMap.get(oldPrice).updateGroup(oldSize - size, oldPrice);
+
+            publish(OrderEvent.order(OrderEvent.Type.AMENDED, orderId, username, order.getType(), size, oldPrice));
+
+            updateBestPrices();
+
+            log.info("order amended in place", "id", orderId, "size", size);
+
+            return 100;
+        }
+
+        // loses its priority, leaves the level
+        detachOrder(order);
+
+        // batch auction mode, waits for the next auction with the same id instead of matching now
+        if (this.auctionInterval > 0)
+            collectAuctionOrder(orderId, username, order.getType(), size, price, true, order.getExpireAt());
+        // back of the new level, matching if it crosses, with the same id
+        else if (order.getType().equals("ask"))
+            execAskOrder(orderId, username, size, price, true, order.getExpireAt());
+        else
+            execBidOrder(orderId, username, size, price, true, order.getExpireAt());
+
+        // best prices are already updated by a resting order, not by a fully executed one
+        updateBestPrices();
+
+        log.info("order amended", "id", orderId, "size", size, "price", price);
+
+        return 100;
+    }
+
+    /**
+     * replaces the resting limit orders of a user at the given levels in a single step
+     * 
+     * for every quote, the resting size of the user at that side and price becomes the quote size:
+     * the oldest orders of the user at the level are kept with their queue priority,
+     * a decrease shrinks or removes the newest ones in place,
+     * an increase adds a new order with the difference at the back of the level
+     * 
+     * decreases are applied before increases, stop orders are only checked on the final book,
+     * and every user gets one notification per notification type for the whole step
+     * 
+     * @param username user quoting
+     * @param quotes target levels, at most one per side and price
+     * @return one result per quote: id of the order added or of the first order kept at the level,
+     *         0 if the level is left empty, -1 if the quote is invalid
+     */
+    public synchronized int[] massQuote (String username, List<Quote> quotes) {
+        this.sequence++;
+
+        EngineEvent event = new EngineEvent();
+        event.begin();
+
+        long levels = this.sweptLevels;
+        long fillCount = this.fills;
+
+        int[] results = new int[quotes.size()];
+        int[] missing = new int[quotes.size()];
+
+        // the quote is rejected whole rather than left half applied without ids
+        if (remainingIds() < quotes.size()) {
+            log.error("order ids exhausted, mass quote rejected", "user", username);
+            Arrays.fill(results, -1);
+            return results;
+        }
+
+        HashSet<String> seenLevels = new HashSet<>();
+
+        // hold events and stop orders until the quote is complete
+        boolean batch = beginEventBatch();
+        boolean updating = this.update;
+        this.update = true;
+
+        try {
+            // first pass: validate quotes and shrink levels, and the size waiting for the auction, to their target size
+            for (int i = 0; i < results.length; i++) {
+                Quote quote = quotes.get(i);
+
+                boolean valid = quote != null && ("ask".equals(quote.getType()) || "bid".equals(quote.getType()))
+                    && quote.getSize() >= 0 && quote.getPrice() > 0
+                    && seenLevels.add(quote.getType() + quote.getPrice());
+
+                if (!valid) {
+                    results[i] = -1;
+                    continue;
+                }
+
+                ConcurrentSkipListMap<Integer, OrderGroup> selectedMap = quote.getType().equals("ask") ? this.askOrders : this.bidOrders;
+                OrderGroup group = selectedMap.get(quote.getPrice());
+
+                // size still to add after keeping the oldest orders of the user
+                int target = quote.getSize();
+
+                if (group != null) {
+                    Iterator<LimitOrder> iterator = group.getLimitOrders().iterator();
+
+                    while (iterator.hasNext()) {
+                        LimitOrder order = iterator.next();
+
+                        if (!order.getUsername().equals(username))
+                            continue;
+
+                        if (order.getSize() <= target) {
+                            // kept unchanged, with its priority
+                            target -= order.getSize();
+
+                            if (results[i] == 0)
+                                results[i] = order.getOrderId();
+                        }
+                        else if (target > 0) {
+                            // shrunk in place, keeps its priority
+                            group.updateGroup(order.getSize() - target, quote.getPrice());
+                            order.setSize(target);
+                            target = 0;
 
-            if (stopOrder.getOrderId() == orderId && stopOrder.getUsername().equals(username)) {
-                stopBidIterator.remove();
+                            publish(OrderEvent.order(OrderEvent.Type.AMENDED, order.getOrderId(), username, order.getType(), order.getSize(), quote.getPrice()));
 
-                updateBestPrices();
+                            if (results[i] == 0)
+                                results[i] = order.getOrderId();
+                        }
+                        else {
+                            // beyond the target size
+                            iterator.remove();
+                            group.updateGroup(order.getSize(), quote.getPrice());
+                            unindexOrder(order);
 
-                System.out.println("stop order " + orderId + " removed");
+                            publishCancelled(order);
+                        }
+                    }
 
-                return 100;
+                    if (group.isEmpty())
+                        selectedMap.remove(quote.getPrice());
+                }
+
+                // quoted size of the user still waiting for the auction, after the resting one
+                Iterator<AuctionOrder> pending = this.auctionOrders.values().iterator();
+
+                while (pending.hasNext()) {
+                    AuctionOrder order = pending.next();
+
+                    if (!order.rest || order.getLimitPrice() != quote.getPrice() || !order.getType().equals(quote.getType())
+                            || !order.getUsername().equals(username))
+                        continue;
+
+                    if (order.getSize() <= target) {
+                        target -= order.getSize();
+
+                        if (results[i] == 0)
+                            results[i] = order.getOrderId();
+                    }
+                    else if (target > 0) {
+                        order.setSize(target);
+                        target = 0;
+
+                        publish(OrderEvent.order(OrderEvent.Type.AMENDED, order.getOrderId(), username, order.getType(), order.getSize(), quote.getPrice()));
+
+                        if (results[i] == 0)
+                            results[i] = order.getOrderId();
+                    }
+                    else {
+                        pending.remove();
+
+                        publishCancelled(order);
+                    }
+                }
+
+                missing[i] = target;
+            }
+
+            updateBestPrices();
+
+            // second pass: add the missing size at the back of the levels, matching if it crosses
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == -1 || missing[i] == 0)
+                    continue;
+
+                Quote quote = quotes.get(i);
+
+                // batch auction mode, the added size waits for the next auction
+                if (this.auctionInterval > 0)
+                    results[i] = collectAuctionOrder(username, quote.getType(), missing[i], quote.getPrice(), true, 0);
+                else if (quote.getType().equals("ask"))
+                    results[i] = execAskOrder(username, missing[i], quote.getPrice());
+                else
+                    results[i] = execBidOrder(username, missing[i], quote.getPrice());
             }
         }
+        finally {
+            this.update = updating;
+        }
 
-        // order not found or not removed
-        return 101;
+        // stop orders see only the final quote
+        updateBestPrices();
+
+        if (batch)
+            flushEventBatch();
+
+        // size of the event holds the number of quoted levels
+        commitEngineEvent(event, "massQuote", -1, username, null, quotes.size(), -1, levels, fillCount);
+
+        log.info("mass quote", "user", username, "levels", quotes.size());
+
+        return results;
     }
 
     /**
-     * inserts a trade into the trade map and notifies the user via UDP
+     * records an executed order and emits its filled event,
+     * consumed by the trade map, the trade buffer and the user notifications
      * 
      * @param tradeID
      * @param type
@@ -900,111 +2266,288 @@ public class OrderBook {
 
         if (price == 0)
             // market trades with no price
-            trade = new Trade(tradeID, type, orderType, size, username);
+            trade = new Trade(tradeID, type, orderType, size, username, nowSeconds());
         else   
-            trade = new Trade(tradeID, type, orderType, size, price, username);
+            trade = new Trade(tradeID, type, orderType, size, price, username, nowSeconds());
+
+        this.executedTrades.increment();
+
+        publish(OrderEvent.trade(OrderEvent.Type.FILLED, trade, date));
+    }
+
+    /**
+     * counts a fill and emits its jfr event
+     * 
+     * @param order resting order filled
+     * @param taker user of the incoming order
+     * @param size filled size
+     * @param remaining size left on the resting order
+     */
+    private void recordFill (LimitOrder order, String taker, int size, int remaining) {
+        this.fills++;
+
+        // full fills close the order with a trade
+        if (remaining > 0)
+            publish(OrderEvent.order(OrderEvent.Type.PARTIALLY_FILLED, order.getOrderId(), order.getUsername(), order.getType(), size, order.getLimitPrice()));
+
+        FillEvent event = new FillEvent();
+
+        if (event.shouldCommit()) {
+            event.setFill(order.getOrderId(), order.getUsername(), taker, order.getType(), size, order.getLimitPrice(), remaining);
+            event.commit();
+        }
+    }
+
+    /**
+     * ends an engine event and commits it with the values of the operation,
+     * if jfr is recording it
+     * 
+     * @param event event started at the engine entry
+     * @param operation engine operation
+     * @param orderId returned order id, -1 on failure
+     * @param username user of the operation
+     * @param side ask or bid
+     * @param size size of the order
+     * @param price price of the order, -1 if none
+     * @param levels swept levels counter at the engine entry
+     * @param fillCount fills counter at the engine entry
+     */
+    private void commitEngineEvent (EngineEvent event, String operation, int orderId, String username, String side, int size, int price, long levels, long fillCount) {
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.setOrder(operation, orderId, username, side, size, price);
+            event.setLevelsSwept((int) (this.sweptLevels - levels));
+            event.setFills((int) (this.fills - fillCount));
+            event.commit();
+        }
+    }
 
-        // add trade to trade map
-        this.tradeMap.addTrade(date.toString(), trade);
+    /**
+     * adds an event to the ring, published at once unless a multi-order step is in progress
+     * 
+     * @param event event to emit
+     */
+    private void publish (OrderEvent event) {
+        this.events.add(event);
 
-        // create a temporary list for the trade for notification
-        LinkedList<Trade> trades = new LinkedList<>();
-        trades.add(trade);
+        if (!this.batching)
+            this.events.publish();
+    }
 
-        // store the trade to the buffered trades queue for perstistence
-        this.bufferedTrades.add(trade);        
+    /**
+     * emits the cancelled event of an order removed from the book or from the auction
+     * 
+     * @param order cancelled order
+     */
+    private void publishCancelled (Order order) {
+        int price = order instanceof StopOrder ? ((StopOrder) order).getStopPrice() : ((LimitOrder) order).getLimitPrice();
 
-        // notify the user via UDP
-        this.udpNotifier.notifyClient(username, new Notification(NOTIFICATION_SUCCESS, trades));
+        publish(OrderEvent.order(OrderEvent.Type.CANCELLED, order.getOrderId(), order.getUsername(), order.getType(), order.getSize(), price));
+    }
+
+    /**
+     * emits a level event for every side whose best price or size changed
+     * since the last one
+     */
+    private void publishBestLevels () {
+        int askSize = this.bestAskPrice == 0 ? 0 : this.askOrders.firstEntry().getValue().getSize();
+        int bidSize = this.bestBidPrice == 0 ? 0 : this.bidOrders.firstEntry().getValue().getSize();
+
+        if (this.bestAskPrice != this.publishedAskPrice || askSize != this.publishedAskSize) {
+            this.publishedAskPrice = this.bestAskPrice;
+            this.publishedAskSize = askSize;
+
+            publish(OrderEvent.level("ask", this.bestAskPrice, askSize));
+        }
+
+        if (this.bestBidPrice != this.publishedBidPrice || bidSize != this.publishedBidSize) {
+            this.publishedBidPrice = this.bestBidPrice;
+            this.publishedBidSize = bidSize;
+
+            publish(OrderEvent.level("bid", this.bestBidPrice, bidSize));
+        }
+    }
+
+    /**
+     * holds events back instead of publishing them
+     * 
+     * @return true if a new batch was started, false if one is already in progress
+     */
+    private boolean beginEventBatch () {
+        if (this.batching)
+            return false;
+
+        this.batching = true;
+
+        return true;
+    }
+
+    /**
+     * publishes the events held back, so consumers see the whole step at once,
+     * and goes back to publishing events immediately
+     */
+    private void flushEventBatch () {
+        this.batching = false;
+
+        this.events.publish();
+    }
+
+    /**
+     * computes a checksum of the book state: last order id, price levels with their
+     * orders in priority order, stop orders and orders collected for the next auction
+     * used to check that a replay of the journal reached the same state
+     * 
+     * @return crc32 of the book state
+     */
+    public synchronized long checksum () {
+        StringBuilder sb = new StringBuilder(4096);
+
+        sb.append(this.lastId).append('\n');
+
+        for (ConcurrentSkipListMap<Integer, OrderGroup> selectedMap : Arrays.asList(this.askOrders, this.bidOrders)) {
+            for (Map.Entry<Integer, OrderGroup> entry : selectedMap.entrySet()) {
+                sb.append(entry.getKey()).append('\n');
+
+                for (LimitOrder order : entry.getValue().getLimitOrders()) {
+                    appendOrder(sb, order, order.getLimitPrice());
+                }
+            }
+
+            sb.append('|');
+        }
+
+        for (ConcurrentLinkedQueue<StopOrder> selectedQueue : Arrays.asList(this.stopAsks, this.stopBids)) {
+            for (StopOrder order : selectedQueue) {
+                appendOrder(sb, order, order.getStopPrice());
+            }
+
+            sb.append('|');
+        }
+
+        for (AuctionOrder order : this.auctionOrders.values()) {
+            appendOrder(sb, order, order.getLimitPrice());
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        return crc.getValue();
+    }
+
+    private static void appendOrder (StringBuilder sb, Order order, int price) {
+        sb.append(order.getOrderId()).append(',').append(order.getUsername()).append(',').append(order.getType())
+            .append(',').append(order.getSize()).append(',').append(price).append(',').append(order.getExpireAt()).append('\n');
     }
 
     /**
      * prints the current state of the order book
      */
     public synchronized void printOrderBook () {
-        System.out.println("\n=======================================================");
-        System.out.println("                     ORDER BOOK                        ");
-        System.out.println("=======================================================\n");
+        System.out.print(renderBook(this.askOrders, this.spread, this.bidOrders, this.stopAsks, this.stopBids));
+    }
+
+    /**
+     * renders an order book as text, from the live maps or from a snapshot
+     * 
+     * @param askOrders ask price levels
+     * @param spread spread of the book
+     * @param bidOrders bid price levels
+     * @param stopAsks stop ask orders
+     * @param stopBids stop bid orders
+     * @return text of the order book
+     */
+    static String renderBook (Map<Integer, OrderGroup> askOrders, int spread, Map<Integer, OrderGroup> bidOrders, Collection<StopOrder> stopAsks, Collection<StopOrder> stopBids) {
+        StringBuilder sb = new StringBuilder(1024);
+        Formatter out = new Formatter(sb);
+
+        String nl = System.lineSeparator();
+
+        sb.append("\n=======================================================").append(nl);
+        sb.append("                     ORDER BOOK                        ").append(nl);
+        sb.append("=======================================================\n").append(nl);
             
-        if (this.askOrders.isEmpty() && this.bidOrders.isEmpty() && this.stopAsks.isEmpty() && this.stopBids.isEmpty()) {
-            System.out.println("                   Empty order book!                   ");
-            System.out.println("=======================================================\n");
-            return;
+        if (askOrders.isEmpty() && bidOrders.isEmpty() && stopAsks.isEmpty() && stopBids.isEmpty()) {
+            sb.append("                   Empty order book!                   ").append(nl);
+            sb.append("=======================================================\n").append(nl);
+            return sb.toString();
         }
 
-        if (this.askOrders.isEmpty()) {
-            System.out.println("No ask orders");
+        if (askOrders.isEmpty()) {
+            sb.append("No ask orders").append(nl);
         }
         else {
-            System.out.println("ASKS:");
-            System.out.printf("%-15s %-15s %-15s%n", "Price (USD)", "Size (BTC)", "Total");
-            System.out.println("-------------------------------------------------------");
-            for (ConcurrentSkipListMap.Entry<Integer, OrderGroup> entry : this.askOrders.entrySet()) {
+            sb.append("ASKS:").append(nl);
+            out.format("%-15s %-15s %-15s%n", "Price (USD)", "Size (BTC)", "Total");
+            sb.append("-------------------------------------------------------").append(nl);
+            for (Map.Entry<Integer, OrderGroup> entry : askOrders.entrySet()) {
                 int price = entry.getKey();
                 OrderGroup orderGroup = entry.getValue();
                 
-                System.out.printf("%-15d %-15d %-15d%n", price, orderGroup.getSize(), orderGroup.getTotal());
+                out.format("%-15d %-15d %-15d%n", price, orderGroup.getSize(), orderGroup.getTotal());
             }
         }
             
-        System.out.println("-------------------------------------------------------");
-        if (this.spread >= 0)
-            System.out.printf("%-10s %s%n", "SPREAD: ", + this.spread);
+        sb.append("-------------------------------------------------------").append(nl);
+        if (spread >= 0)
+            out.format("%-10s %s%n", "SPREAD: ", + spread);
         else
-            System.out.println("invalid spread");
+            sb.append("invalid spread").append(nl);
 
-        System.out.println("-------------------------------------------------------");
+        sb.append("-------------------------------------------------------").append(nl);
 
-        if (this.bidOrders.isEmpty()) {
-            System.out.println("No bid orders");
+        if (bidOrders.isEmpty()) {
+            sb.append("No bid orders").append(nl);
         }
         else {
-            System.out.println("BIDS:");
-            System.out.printf("%-15s %-15s %-15s%n", "Price (USD)", "Size (BTC)", "Total");
-            System.out.println("-------------------------------------------------------");
-            for (ConcurrentSkipListMap.Entry<Integer, OrderGroup> entry : this.bidOrders.entrySet()) {
+            sb.append("BIDS:").append(nl);
+            out.format("%-15s %-15s %-15s%n", "Price (USD)", "Size (BTC)", "Total");
+            sb.append("-------------------------------------------------------").append(nl);
+            for (Map.Entry<Integer, OrderGroup> entry : bidOrders.entrySet()) {
                 int price = entry.getKey();
                 OrderGroup orderGroup = entry.getValue();
                 
-                System.out.printf("%-15d %-15d %-15d%n", price, orderGroup.getSize(), orderGroup.getTotal());
+                out.format("%-15d %-15d %-15d%n", price, orderGroup.getSize(), orderGroup.getTotal());
             }
         }
         
-        System.out.println("-------------------------------------------------------");
+        sb.append("-------------------------------------------------------").append(nl);
 
-        if (this.stopAsks.isEmpty() && this.stopBids.isEmpty()) {
-            System.out.println("No stop orders");
-            System.out.println("-------------------------------------------------------\n");
-            return;
+        if (stopAsks.isEmpty() && stopBids.isEmpty()) {
+            sb.append("No stop orders").append(nl);
+            sb.append("-------------------------------------------------------\n").append(nl);
+            return sb.toString();
         }
         else {
-            System.out.println("STOP ORDERS:");
+            sb.append("STOP ORDERS:").append(nl);
         }
 
-        if (this.stopAsks.isEmpty()) {
-            System.out.println("No stop ask orders");
+        if (stopAsks.isEmpty()) {
+            sb.append("No stop ask orders").append(nl);
         }
         else {
-            System.out.println("STOP ASKS:");
-            System.out.printf("%-15s %-15s%n", "Price (USD)", "Size (BTC)");
-            System.out.println("-------------------------------------------------------");
-            for (StopOrder order : this.stopAsks) {
-                System.out.printf("%-15d %-15d%n", order.getStopPrice(), order.getSize());
+            sb.append("STOP ASKS:").append(nl);
+            out.format("%-15s %-15s%n", "Price (USD)", "Size (BTC)");
+            sb.append("-------------------------------------------------------").append(nl);
+            for (StopOrder order : stopAsks) {
+                out.format("%-15d %-15d%n", order.getStopPrice(), order.getSize());
             }
         }
 
-        if (this.stopBids.isEmpty()) {
-            System.out.println("No stop bid orders");
+        if (stopBids.isEmpty()) {
+            sb.append("No stop bid orders").append(nl);
         }
         else {
-            System.out.println("STOP BIDS:");
-            System.out.printf("%-15s %-15s%n", "Price (USD)", "Size (BTC)");
-            System.out.println("-------------------------------------------------------");
-            for (StopOrder order : this.stopBids) {
-                System.out.printf("%-15d %-15d%n", order.getStopPrice(), order.getSize());
+            sb.append("STOP BIDS:").append(nl);
+            out.format("%-15s %-15s%n", "Price (USD)", "Size (BTC)");
+            sb.append("-------------------------------------------------------").append(nl);
+            for (StopOrder order : stopBids) {
+                out.format("%-15d %-15d%n", order.getStopPrice(), order.getSize());
             }
         }
 
-        System.out.println("-------------------------------------------------------\n");
+        sb.append("-------------------------------------------------------\n").append(nl);
+
+        return sb.toString();
     }
-}
\ No newline at end of file
+}
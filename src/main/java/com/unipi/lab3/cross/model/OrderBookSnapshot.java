@@ -0,0 +1,170 @@
+package com.unipi.lab3.cross.model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.unipi.lab3.cross.model.orders.LimitOrder;
+import com.unipi.lab3.cross.model.orders.StopOrder;
+
+/**
+    class representing a detached copy of the order book
+    taken at a consistent sequence point, between two engine operations
+
+    the snapshot shares no mutable state with the live book,
+    so it can be serialized without holding the order book monitor
+    fields mirror the order book json layout, to keep the orders file readable at startup
+    and by clients; engine state is transient, the persistence handler adds the input sequence
+    and the orders waiting for an auction
+*/
+
+public class OrderBookSnapshot {
+
+    // copied price levels, same ordering as the live maps
+    private TreeMap<Integer, OrderGroup> askOrders;
+
+    private int spread;
+
+    private TreeMap<Integer, OrderGroup> bidOrders;
+
+    // copied stop orders queues
+    private ArrayList<StopOrder> stopAsks;
+    private ArrayList<StopOrder> stopBids;
+
+    private int lastId;
+
+    // number of engine operations applied to the book when the snapshot was taken
+    private transient long sequence;
+
+    // sequence of the last journaled command applied, recovery replays the journal after it
+    private transient long inputSequence;
+
+    // last event of the book in its ring when the snapshot was taken
+    private transient long eventSequence;
+
+    // orders waiting for the next auction, hidden from clients like in the live book
+    private transient LinkedHashMap<Integer, LimitOrder> auctionOrders;
+
+    // for gson, on clients
+    private OrderBookSnapshot () {}
+
+    /**
+     * builds the snapshot copying the given order book
+     * must be called while holding the order book monitor
+     *
+     * @param orderBook live order book to copy
+     */
+    OrderBookSnapshot (OrderBook orderBook) {
+        this.askOrders = copyLevels(orderBook.getLimitAsks(), Comparator.naturalOrder());
+        this.bidOrders = copyLevels(orderBook.getLimitBids(), Comparator.reverseOrder());
+
+        this.stopAsks = copyStops(orderBook.getStopAsks());
+        this.stopBids = copyStops(orderBook.getStopBids());
+
+        this.spread = orderBook.getSpread();
+        this.lastId = orderBook.getLastId();
+        this.sequence = orderBook.getSequence();
+        this.inputSequence = orderBook.getInputSequence();
+        this.eventSequence = orderBook.getEvents().getPublished();
+        this.auctionOrders = orderBook.copyAuctionOrders();
+    }
+
+    public TreeMap<Integer, OrderGroup> getAskOrders () {
+        return this.askOrders;
+    }
+
+    public TreeMap<Integer, OrderGroup> getBidOrders () {
+        return this.bidOrders;
+    }
+
+    public ArrayList<StopOrder> getStopAsks () {
+        return this.stopAsks;
+    }
+
+    public ArrayList<StopOrder> getStopBids () {
+        return this.stopBids;
+    }
+
+    public int getSpread () {
+        return this.spread;
+    }
+
+    public int getLastId () {
+        return this.lastId;
+    }
+
+    public long getSequence () {
+        return this.sequence;
+    }
+
+    public long getInputSequence () {
+        return this.inputSequence;
+    }
+
+    public long getEventSequence () {
+        return this.eventSequence;
+    }
+
+    public LinkedHashMap<Integer, LimitOrder> getAuctionOrders () {
+        return this.auctionOrders;
+    }
+
+    /**
+     * renders the snapshot as text, in the same layout as the live order book
+     *
+     * @return text of the order book
+     */
+    public String render () {
+        return OrderBook.renderBook(this.askOrders, this.spread, this.bidOrders, this.stopAsks, this.stopBids);
+    }
+
+    /**
+     * copies every price level with its orders, so later fills don't change the snapshot
+     *
+     * @param levels live price levels map
+     * @param comparator ordering of the prices in the copy
+     * @return detached copy of the price levels
+     */
+    private static TreeMap<Integer, OrderGroup> copyLevels (Map<Integer, OrderGroup> levels, Comparator<Integer> comparator) {
+        TreeMap<Integer, OrderGroup> copy = new TreeMap<>(comparator);
+
+        for (Map.Entry<Integer, OrderGroup> entry : levels.entrySet()) {
+            OrderGroup group = entry.getValue();
+
+            ConcurrentLinkedQueue<LimitOrder> orders = new ConcurrentLinkedQueue<>();
+
+            for (LimitOrder order : group.getLimitOrders()) {
+                LimitOrder limit = new LimitOrder(order.getOrderId(), order.getUsername(), order.getType(), order.getSize(), order.getLimitPrice());
+                limit.setExpireAt(order.getExpireAt());
+
+                orders.add(limit);
+            }
+
+            copy.put(entry.getKey(), new OrderGroup(group.getSize(), group.getTotal(), orders));
+        }
+
+        return copy;
+    }
+
+    /**
+     * copies a stop orders queue
+     *
+     * @param stops live stop orders queue
+     * @return detached copy of the queue
+     */
+    private static ArrayList<StopOrder> copyStops (ConcurrentLinkedQueue<StopOrder> stops) {
+        ArrayList<StopOrder> copy = new ArrayList<>();
+
+        for (StopOrder order : stops) {
+            StopOrder stop = new StopOrder(order.getOrderId(), order.getUsername(), order.getType(), order.getSize(), order.getStopPrice());
+            stop.setExpireAt(order.getExpireAt());
+
+            copy.add(stop);
+        }
+
+        return copy;
+    }
+}
@@ -0,0 +1,129 @@
+package com.unipi.lab3.cross.model.event;
+
+import java.time.LocalDate;
+
+import com.unipi.lab3.cross.model.trade.Trade;
+
+/**
+ * event emitted by an order book while matching
+ * events are immutable, the same instance is read by every consumer
+ */
+
+public class OrderEvent {
+
+    public enum Type {
+        // order resting in the book or in a stop queue, or collected for an auction
+        ACCEPTED,
+        // order closed by execution, with its trade
+        FILLED,
+        // resting order partially executed, size is the executed size
+        PARTIALLY_FILLED,
+        // resting order changed in place, size is the new size
+        AMENDED,
+        // order removed by its owner, or remaining size of an immediate or cancel order
+        CANCELLED,
+        // order removed at its expiry time, with its trade
+        EXPIRED,
+        // stop order reaching its stop price
+        STOP_TRIGGERED,
+        // triggered stop order or auction order not executed, with its trade
+        FAILED,
+        // best price or size of a side changed, no order
+        LEVEL_CHANGED
+    }
+
+    private final Type type;
+    private final int orderId;
+    private final String username;
+    private final String side;
+    private final int size;
+    private final int price;
+
+    // filled, expired and failed orders, as notified to their owner
+    private final Trade trade;
+
+    // trading day of a filled order
+    private final LocalDate date;
+
+    private OrderEvent (Type type, int orderId, String username, String side, int size, int price, Trade trade, LocalDate date) {
+        this.type = type;
+        this.orderId = orderId;
+        this.username = username;
+        this.side = side;
+        this.size = size;
+        this.price = price;
+        this.trade = trade;
+        this.date = date;
+    }
+
+    /**
+     * creates an event about an order
+     *
+     * @param type type of the event
+     * @param orderId id of the order
+     * @param username owner of the order
+     * @param side ask or bid
+     * @param size size of the event
+     * @param price limit or stop price, -1 for market orders
+     * @return the event
+     */
+    public static OrderEvent order (Type type, int orderId, String username, String side, int size, int price) {
+        return new OrderEvent(type, orderId, username, side, size, price, null, null);
+    }
+
+    /**
+     * creates an event about an order closed with a trade
+     *
+     * @param type filled, expired or failed
+     * @param trade trade of the order
+     * @param date trading day of the trade
+     * @return the event
+     */
+    public static OrderEvent trade (Type type, Trade trade, LocalDate date) {
+        return new OrderEvent(type, trade.getOrderId(), trade.getUsername(), trade.getType(), trade.getSize(), trade.getPrice(), trade, date);
+    }
+
+    /**
+     * creates an event about the best level of a side
+     *
+     * @param side ask or bid
+     * @param price best price, 0 if the side is empty
+     * @param size total size at the best price
+     * @return the event
+     */
+    public static OrderEvent level (String side, int price, int size) {
+        return new OrderEvent(Type.LEVEL_CHANGED, -1, null, side, size, price, null, null);
+    }
+
+    public Type getType () {
+        return this.type;
+    }
+
+    public int getOrderId () {
+        return this.orderId;
+    }
+
+    public String getUsername () {
+        return this.username;
+    }
+
+    public String getSide () {
+        return this.side;
+    }
+
+    public int getSize () {
+        return this.size;
+    }
+
+    public int getPrice () {
+        return this.price;
+    }
+
+    public Trade getTrade () {
+        return this.trade;
+    }
+
+    public LocalDate getDate () {
+        return this.date;
+    }
+}
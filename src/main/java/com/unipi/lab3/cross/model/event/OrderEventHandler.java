@@ -0,0 +1,21 @@
+package com.unipi.lab3.cross.model.event;
+
+/**
+ * consumer of the events of an order book, run on its own thread
+ */
+
+public interface OrderEventHandler {
+
+    /**
+     * handles an event, in the order emitted by the book
+     *
+     * @param event event to handle
+     */
+    void onEvent (OrderEvent event);
+
+    /**
+     * called after a run of events read together; events of a multi-order step
+     * (expiry, auction, mass quote) are published at once and end up in the same run
+     */
+    default void onEndOfBatch () {}
+}
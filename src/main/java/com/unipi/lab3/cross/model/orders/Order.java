@@ -13,6 +13,9 @@ public class Order {
 
     private int size;
 
+    // expiry time in milliseconds since epoch, 0 if the order never expires
+    private long expireAt;
+
     public Order (int orderID, String username, String type, int size) {
         this.orderID = orderID;
         this.username = username;
@@ -40,4 +43,12 @@ public class Order {
         this.size = size;
     }
 
+    public long getExpireAt () {
+        return this.expireAt;
+    }
+
+    public void setExpireAt (long expireAt) {
+        this.expireAt = expireAt;
+    }
+
 }
\ No newline at end of file
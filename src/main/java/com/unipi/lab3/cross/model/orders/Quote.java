@@ -0,0 +1,38 @@
+package com.unipi.lab3.cross.model.orders;
+
+/**
+ * class representing a quote level of a market maker:
+ * the size the user wants resting at a price on one side of the book
+*/
+
+public class Quote {
+
+    private String type; // ask o bid
+
+    // target resting size, 0 to pull the level
+    private int size;
+
+    private int price;
+
+    public Quote (String type, int size, int price) {
+        this.type = type;
+        this.size = size;
+        this.price = price;
+    }
+
+    public String getType () {
+        return this.type;
+    }
+
+    public int getSize () {
+        return this.size;
+    }
+
+    public int getPrice () {
+        return this.price;
+    }
+
+    public String toString () {
+        return "Type: " + this.type + " Size: " + this.size + " Price: " + this.price;
+    }
+}
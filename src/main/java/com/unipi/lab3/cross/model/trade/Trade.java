@@ -48,6 +48,26 @@ public class Trade {
         this.username = username;
     }
 
+    /**
+     * creates a market trade executed at a given time
+     * 
+     * @param timestamp seconds since epoch
+     */
+    public Trade (int orderID, String type, String orderType, int size, String username, long timestamp) {
+        this(orderID, type, orderType, size, username);
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * creates a trade executed at a given time
+     * 
+     * @param timestamp seconds since epoch
+     */
+    public Trade (int orderID, String type, String orderType, int size, int price, String username, long timestamp) {
+        this(orderID, type, orderType, size, price, username);
+        this.timestamp = timestamp;
+    }
+
     public int getOrderId () {
         return this.orderID;
     }
@@ -0,0 +1,211 @@
+package com.unipi.lab3.cross.model.trade;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * bounded multi-producer single-consumer buffer of executed trades waiting to be persisted
+ *
+ * producers push trades with a compare-and-set on the head of a linked stack, without locks,
+ * the consumer swaps out the whole stack in one atomic step and restores arrival order
+ *
+ * when the buffer is full producers wait for the consumer, asking it for an early drain,
+ * so a slow disk slows down the producers and shows up in the stall counters
+ * instead of growing the heap or losing trades
+ */
+
+public class TradeBuffer {
+
+    // node of the linked stack
+    private static final class Node {
+        private final Trade trade;
+        private Node next;
+
+        private Node (Trade trade) {
+            this.trade = trade;
+        }
+    }
+
+    // most recently added trade, null if empty
+    private final AtomicReference<Node> head = new AtomicReference<>();
+
+    // number of buffered trades, slots are reserved before pushing
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    // maximum number of buffered trades
+    private final int capacity;
+
+    // wait of a producer between checks of a full buffer
+    private static final long STALL_PARK_NANOS = 1_000_000;
+
+    // asks the consumer to drain now, null to wait for its next drain
+    private volatile Runnable fullHandler;
+
+    // true from the first stall until the next drain, one request per stall
+    private final AtomicBoolean drainRequested = new AtomicBoolean(false);
+
+    // backpressure counters
+    private final LongAdder added = new LongAdder();
+    private final LongAdder stalls = new LongAdder();
+    private final LongAdder stalledNanos = new LongAdder();
+    private final LongAdder drained = new LongAdder();
+    private final AtomicInteger highWatermark = new AtomicInteger(0);
+    private volatile int lastDrainSize = 0;
+
+    public TradeBuffer (int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+
+        this.capacity = capacity;
+    }
+
+    /**
+     * sets the action asking the consumer for an early drain, run by a producer
+     * finding the buffer full; it must not drain on the producer thread
+     *
+     * @param fullHandler drain request
+     */
+    public void setFullHandler (Runnable fullHandler) {
+        this.fullHandler = fullHandler;
+    }
+
+    /**
+     * adds a trade to the buffer, waiting for the consumer while the buffer is full
+     *
+     * @param trade trade to buffer
+     */
+    public void put (Trade trade) {
+        int newSize;
+        boolean stalled = false;
+        long stallStart = 0;
+
+        // reserve a slot
+        while ((newSize = this.size.incrementAndGet()) > this.capacity) {
+            // buffer full, give the slot back and wait for a drain
+            this.size.decrementAndGet();
+
+            if (!stalled) {
+                stalled = true;
+                stallStart = System.nanoTime();
+                this.stalls.increment();
+            }
+
+            requestDrain();
+            LockSupport.parkNanos(STALL_PARK_NANOS);
+        }
+
+        if (stalled)
+            this.stalledNanos.add(System.nanoTime() - stallStart);
+
+        this.highWatermark.accumulateAndGet(newSize, Math::max);
+
+        push(trade);
+    }
+
+    /**
+     * adds trades even above the capacity, for trades that can't wait for the consumer:
+     * a batch given back by the consumer itself after a failed write,
+     * or trades recovered at startup before the consumer runs
+     *
+     * @param trades trades in arrival order
+     */
+    public void restore (List<Trade> trades) {
+        for (Trade trade : trades) {
+            this.highWatermark.accumulateAndGet(this.size.incrementAndGet(), Math::max);
+
+            push(trade);
+        }
+    }
+
+    private void requestDrain () {
+        Runnable handler = this.fullHandler;
+
+        if (handler != null && this.drainRequested.compareAndSet(false, true))
+            handler.run();
+    }
+
+    private void push (Trade trade) {
+        Node node = new Node(trade);
+        Node current;
+
+        do {
+            current = this.head.get();
+            node.next = current;
+        } while (!this.head.compareAndSet(current, node));
+
+        this.added.increment();
+    }
+
+    /**
+     * removes all buffered trades in one atomic swap
+     * must be called by a single consumer thread
+     *
+     * @return buffered trades in arrival order, empty list if none
+     */
+    public List<Trade> drain () {
+        Node node = this.head.getAndSet(null);
+
+        ArrayList<Trade> batch = new ArrayList<>();
+
+        // stack holds newest first
+        while (node != null) {
+            batch.add(node.trade);
+            node = node.next;
+        }
+
+        // restore arrival order
+        Collections.reverse(batch);
+
+        // release the slots of the drained trades
+        this.size.addAndGet(-batch.size());
+
+        this.drained.add(batch.size());
+        this.lastDrainSize = batch.size();
+
+        this.drainRequested.set(false);
+
+        return batch;
+    }
+
+    public boolean isEmpty () {
+        return this.head.get() == null;
+    }
+
+    public int getSize () {
+        return this.size.get();
+    }
+
+    public int getCapacity () {
+        return this.capacity;
+    }
+
+    public long getAdded () {
+        return this.added.sum();
+    }
+
+    public long getStalls () {
+        return this.stalls.sum();
+    }
+
+    public long getStalledNanos () {
+        return this.stalledNanos.sum();
+    }
+
+    public long getDrained () {
+        return this.drained.sum();
+    }
+
+    public int getHighWatermark () {
+        return this.highWatermark.get();
+    }
+
+    public int getLastDrainSize () {
+        return this.lastDrainSize;
+    }
+}
@@ -1,14 +1,32 @@
 package com.unipi.lab3.cross.model.user;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 /**
  * class representing a user in the system
  * contains username, password and login status
+ * 
+ * the login status is updated with compare-and-set, so concurrent logins
+ * of the same user don't need a lock
 */
 
 public class User {
     private String username;
     private String passwordHash;
-    private boolean isLogged;
+    private volatile boolean isLogged;
+
+    // handle for atomic updates of the login status
+    private static final VarHandle LOGGED;
+
+    static {
+        try {
+            LOGGED = MethodHandles.lookup().findVarHandle(User.class, "isLogged", boolean.class);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
     public User (String username, String passwordHash, boolean isLogged) {
         this.username = username;
@@ -39,5 +57,23 @@ public class User {
     public void setLogged (boolean isLogged) {
         this.isLogged = isLogged;
     }
+
+    /**
+     * atomically marks the user as logged in
+     * 
+     * @return true if the user was logged out and is now logged in, false if already logged in
+     */
+    public boolean tryLogin () {
+        return LOGGED.compareAndSet(this, false, true);
+    }
+
+    /**
+     * atomically marks the user as logged out
+     * 
+     * @return true if the user was logged in, false otherwise
+     */
+    public boolean tryLogout () {
+        return LOGGED.compareAndSet(this, true, false);
+    }
     
 }
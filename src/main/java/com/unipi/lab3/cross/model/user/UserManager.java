@@ -1,5 +1,9 @@
 package com.unipi.lab3.cross.model.user;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
@@ -9,6 +13,10 @@ import java.security.NoSuchAlgorithmException;
  * class that manages users in the system, storing them in a concurrent hash map 
  * with username as key and User instance as value,
  * provides all useful operations such as register, login, logout and update credentials
+ * 
+ * operations don't take a global lock: password hashing runs on the calling thread,
+ * login state changes with compare-and-set on the user and credentials
+ * are replaced atomically in the map
  */
 
 public class UserManager {
@@ -16,6 +24,22 @@ public class UserManager {
     // map username - User
     private ConcurrentHashMap<String, User> users;
 
+    // per thread digest instance, reused across hashes
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        // error if SHA-256 algorithm is not available
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // usernames of users registered or updated since the last save
+    private final Set<String> changedUsers = ConcurrentHashMap.newKeySet();
+
     public UserManager () {
         this.users = new ConcurrentHashMap<>();
     }
@@ -32,6 +56,38 @@ public class UserManager {
         return this.users.get(username);
     }
 
+    /**
+     * marks a user as changed, so it will be included in the next save
+     * 
+     * @param username username of the changed user
+     */
+    public void markChanged (String username) {
+        this.changedUsers.add(username);
+    }
+
+    /**
+     * collects all users changed since the last call and resets the changed set
+     * 
+     * @return list of changed users, in their current state
+     */
+    public List<User> drainChangedUsers () {
+        List<User> changes = new ArrayList<>();
+
+        Iterator<String> iterator = this.changedUsers.iterator();
+
+        while (iterator.hasNext()) {
+            String username = iterator.next();
+            iterator.remove();
+
+            User user = this.users.get(username);
+
+            if (user != null)
+                changes.add(user);
+        }
+
+        return changes;
+    }
+
     /**
      * register a new user
      * 
@@ -39,7 +95,7 @@ public class UserManager {
      * @param password password of the new user
      * @return integer code representing the result of the operation
      */
-    public synchronized int register (String username, String password) {
+    public int register (String username, String password) {
         // error cases
 
         // invalid password
@@ -60,6 +116,8 @@ public class UserManager {
             // username not available
             return 102;
 
+        markChanged(username);
+
         // successful registration
         return 100;
     }
@@ -72,7 +130,7 @@ public class UserManager {
      * @param oldPwd old password (unencrypted)
      * @return integer code representing the result of the operation
      */
-    public synchronized int updateCredentials (String username, String newPwd, String oldPwd) {
+    public int updateCredentials (String username, String newPwd, String oldPwd) {
         // get user instance by username
         User user = this.users.get(username);
 
@@ -101,9 +159,14 @@ public class UserManager {
         // create new user instance with updated password
         User newUser = new User(username, newHashedPwd, false);
         
-        // replace old user with new one
-        if (!this.users.replace(username, user, newUser))
-            return 105;
+        // replace old user with new one, only if nobody changed it or logged in meanwhile
+        User result = this.users.computeIfPresent(username, (name, current) ->
+            (current == user && !current.getLogged()) ? newUser : current);
+
+        if (result != newUser)
+            return user.getLogged() ? 104 : 105;
+
+        markChanged(username);
 
         // successful update
         return 100;
@@ -116,7 +179,7 @@ public class UserManager {
      * @param password password of the user that wants to login
      * @return integer code representing the result of the operation
      */
-    public synchronized int login (String username, String password) {
+    public int login (String username, String password) {
 
         // invalid password
         if (!isValid(password, 8, 20))
@@ -125,6 +188,10 @@ public class UserManager {
         // get user instance by username
         User user = this.users.get(username);
 
+        // user not exists
+        if (user == null)
+            return 101;
+
         // user already logged in
         if (user.getLogged())
             return 102;
@@ -136,8 +203,15 @@ public class UserManager {
         if (!hashPassword(password).equals(currentPwd))
             return 101;
 
-        // set logged state
-        user.setLogged(true);
+        // set logged state, fails if another session logged in meanwhile
+        if (!user.tryLogin())
+            return 102;
+
+        // credentials replaced while verifying the password
+        if (this.users.get(username) != user) {
+            user.setLogged(false);
+            return 101;
+        }
 
         // successful login
         return 100;
@@ -149,12 +223,16 @@ public class UserManager {
      * @param username username of the user that wants to logout
      * @return integer code representing the result of the operation
      */
-    public synchronized int logout (String username) {
+    public int logout (String username) {
         // get user instance by username
         User user = this.users.get(username);
 
+        // user not exists
+        if (user == null)
+            return 101;
+
         // restore logged state
-        user.setLogged(false);
+        user.tryLogout();
 
         // successful logout
         return 100;
@@ -167,28 +245,23 @@ public class UserManager {
      * @return hashed password
      */
     public String hashPassword(String password) {
-        try {
-            // create message digest instance for SHA-256
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
+        // reuse the digest instance of the calling thread
+        MessageDigest md = DIGEST.get();
 
-            // converts password string into bytes using UTF-8 encoding and computes its SHA-256 hash
-            byte[] digest = md.digest(password.getBytes(StandardCharsets.UTF_8));
+        // converts password string into bytes using UTF-8 encoding and computes its SHA-256 hash
+        byte[] digest = md.digest(password.getBytes(StandardCharsets.UTF_8));
 
-            // build hexadecimal string representation of the hash (each byte will be represented by two hexadecimal digits)
-            StringBuilder sb = new StringBuilder(digest.length * 2);
+        // build hexadecimal string representation of the hash (each byte will be represented by two hexadecimal digits)
+        char[] hex = new char[digest.length * 2];
 
-            // convert each byte to hexadecimal format
-            for (byte b : digest) {
-                sb.append(String.format("%02x", b));
-            }
-
-            // return hashed password as hexadecimal string
-            return sb.toString();
-        } 
-        // error if SHA-256 algorithm is not available
-        catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException(e);
+        // convert each byte to two hexadecimal digits
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0x0f];
         }
+
+        // return hashed password as hexadecimal string
+        return new String(hex);
     }
 
     /**
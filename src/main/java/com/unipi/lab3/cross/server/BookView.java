@@ -0,0 +1,44 @@
+package com.unipi.lab3.cross.server;
+
+import java.util.HashMap;
+
+import com.unipi.lab3.cross.engine.Instrument;
+import com.unipi.lab3.cross.engine.SymbolRegistry;
+import com.unipi.lab3.cross.model.OrderBook;
+import com.unipi.lab3.cross.model.OrderBookSnapshot;
+
+/**
+ * periodic task printing the order books on the server console
+ * 
+ * every book is rendered from a snapshot on the scheduler thread,
+ * only when it changed since the last view, so matching never waits for the console
+ */
+
+public class BookView implements Runnable {
+
+    private final SymbolRegistry symbols;
+
+    // symbol - sequence of the last rendered snapshot
+    private final HashMap<String, Long> renderedSequences = new HashMap<>();
+
+    public BookView (SymbolRegistry symbols) {
+        this.symbols = symbols;
+    }
+
+    public void run () {
+        for (Instrument instrument : symbols.getInstruments()) {
+            OrderBook orderBook = instrument.getOrderBook();
+            String symbol = instrument.getSymbol();
+
+            // cheap check before copying the book
+            if (orderBook.getSequence() == renderedSequences.getOrDefault(symbol, -1L))
+                continue;
+
+            OrderBookSnapshot snapshot = orderBook.snapshot();
+
+            renderedSequences.put(symbol, snapshot.getSequence());
+
+            System.out.print(symbol + System.lineSeparator() + snapshot.render());
+        }
+    }
+}
@@ -7,16 +7,25 @@ import java.time.Year;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
 
+import com.unipi.lab3.cross.engine.Command;
+import com.unipi.lab3.cross.engine.Instrument;
+import com.unipi.lab3.cross.engine.SymbolRegistry;
 import com.unipi.lab3.cross.model.*;
+import com.unipi.lab3.cross.model.orders.Quote;
 import com.unipi.lab3.cross.model.user.*;
 import com.unipi.lab3.cross.model.trade.*;
 import com.unipi.lab3.cross.json.request.*;
 import com.unipi.lab3.cross.json.response.*;
+import com.unipi.lab3.cross.jfr.OrderReceivedEvent;
 import com.unipi.lab3.cross.main.ServerMain;
+import com.unipi.lab3.cross.metrics.MetricsRegistry;
+import com.unipi.lab3.cross.util.AsyncLogger;
+import com.unipi.lab3.cross.util.TimingWheel;
 
 /**
  * class to handle a client connection as a thread
@@ -32,35 +41,68 @@ public class ClientHandler implements Runnable {
     private User user;
     private volatile long lastActivityTime;
 
+    // inactivity tracking of this client
+    private InactivityHandler inactivityHandler;
+    private TimingWheel.Timeout<ClientHandler> inactivityTimeout;
+
     // useful shared resources
-    private OrderBook orderBook;
+    private SymbolRegistry symbols;
     private UserManager userManager;
-    private TradeMap tradeMap;
 
     private PriceHistory priceHistory;
 
     private UdpNotifier udpNotifier;
     private int udpPort;
 
+    // session flag, cancel every order of the user when the connection is lost
+    private volatile boolean cancelOnDisconnect;
+
+    // server metrics
+    private MetricsRegistry metrics;
+
+    // request rate limits of this connection, null if not limited
+    private final RateLimiter.Session limits;
+
+    // operations with their own latency histogram, anything else is recorded as unknown
+    private static final Set<String> OPERATIONS = Set.of(
+        "exit", "register", "updateCredentials", "login", "logout",
+        "insertLimitOrder", "insertMarketOrder", "insertStopOrder", "cancelOrder", "amendOrder",
+        "cancelAllOrders", "insertOrders", "cancelOrders", "massQuote", "getOrderBook", "getPriceHistory", "getMetrics");
+
+    // operations emitting an order received jfr event
+    private static final Set<String> ORDER_OPERATIONS = Set.of(
+        "insertLimitOrder", "insertMarketOrder", "insertStopOrder", "cancelOrder", "amendOrder");
+
+    // accepted time in force values, market orders never rest
+    private static final Set<String> LIMIT_TIME_IN_FORCE = Set.of(OrderBook.GTC, OrderBook.IOC, OrderBook.FOK);
+    private static final Set<String> MARKET_TIME_IN_FORCE = Set.of(OrderBook.IOC, OrderBook.FOK);
+
     // flag to control the running state of the thread
     private volatile boolean running;
 
+    // maximum number of orders or ids in a batch request
+    private static final int MAX_BATCH_SIZE = 100;
+
     // limits to check for order values
     private static final int MAX_VALUE = Integer.MAX_VALUE - 1; // (2^31)-1
     private static final int MIN_VALUE = 1;
 
     private final Gson gson = new GsonBuilder().create();
 
-    public ClientHandler(Socket clientSocket, UserManager userManager, OrderBook orderBook, TradeMap tradeMap, UdpNotifier udpNotifier, InactivityHandler inactivityHandler) {
+    private static final AsyncLogger log = AsyncLogger.get();
+
+    public ClientHandler(Socket clientSocket, UserManager userManager, SymbolRegistry symbols, UdpNotifier udpNotifier, InactivityHandler inactivityHandler, MetricsRegistry metrics, RateLimiter rateLimiter) {
         this.clientSocket = clientSocket;
 
         this.user = null; // initially not authenticated
 
         this.userManager = userManager;
-        this.orderBook = orderBook;
-        this.tradeMap = tradeMap;
+        this.symbols = symbols;
         this.udpNotifier = udpNotifier;
         this.priceHistory = new PriceHistory();
+        this.inactivityHandler = inactivityHandler;
+        this.metrics = metrics;
+        this.limits = rateLimiter == null ? null : rateLimiter.newSession();
 
         this.lastActivityTime = System.currentTimeMillis();
     }
@@ -122,9 +164,15 @@ public class ClientHandler implements Runnable {
             System.err.println("socket error: " + e.getMessage());
         }
         finally {
+            // connection lost or closed by the client, not stopped by the server
+            boolean disconnected = running;
+
             // set running to false to exit to main loop
             running = false;
 
+            if (disconnected)
+                cancelOnDisconnect();
+
             // logout user and remove it from active clients
             logoutUser();
 
@@ -145,14 +193,42 @@ public class ClientHandler implements Runnable {
      * @return response object
      */
     public Response handleRequest (String request) {
+        // parsed once, so the limits apply to the operation the request is dispatched on
+        JsonObject obj = null;
+        String requested = null;
+
+        try {
+            obj = JsonParser.parseString(request).getAsJsonObject();
+            requested = obj.get("operation").getAsString();
+        }
+        catch (RuntimeException e) {
+            // malformed request, answered below with its error
+        }
+
+        // throttled or shed before binding values, so rejected requests cost little
+        if (this.limits != null) {
+            RetryResponse rejected = this.limits.admit(requested, requestSymbol(obj), getUsername());
+
+            if (rejected != null)
+                return rejected;
+        }
+
         Response response = null;
 
+        // start of the request, for latency metrics
+        long start = System.nanoTime();
+        String op = "unknown";
+
+        OrderReceivedEvent received = new OrderReceivedEvent();
+        received.begin();
+
         try {
-            // parse the request string to a json object
-            JsonObject obj = JsonParser.parseString(request).getAsJsonObject();
+            // malformed request, fails again with its error
+            if (obj == null)
+                obj = JsonParser.parseString(request).getAsJsonObject();
 
             // get operation from the json object
-            String op = obj.get("operation").getAsString();
+            op = obj.get("operation").getAsString();
 
             // return code from the execution of the operation
             int code = -1;
@@ -184,7 +260,7 @@ public class ClientHandler implements Runnable {
                         // set the user for this client handler
                         //this.user = userManager.getUser(userVal.getUsername());
 
-                        System.out.println("user " + userVal.getUsername() + " registered");
+                        log.info("user registered", "user", userVal.getUsername());
                     }
                     // error cases
                     else if (code == 101)
@@ -221,7 +297,7 @@ public class ClientHandler implements Runnable {
                     if (code == 100) {
                         msg = "OK";
 
-                        System.out.println("user " + userVal.getUsername() + " updated credentials");
+                        log.info("user updated credentials", "user", userVal.getUsername());
                     }
                     // error cases
                     else if (code == 101)
@@ -230,6 +306,8 @@ public class ClientHandler implements Runnable {
                         msg = "old password mismatch";
                     else if (code == 103)
                         msg = "new passord equal to old one";
+                    else if (code == 104)
+                        msg = "user currently logged";
 
                     updateLastActivityTime();
 
@@ -270,9 +348,11 @@ public class ClientHandler implements Runnable {
                         // set user as logged in
                         this.user.setLogged(true);
 
+                        this.cancelOnDisconnect = userVal.getCancelOnDisconnect();
+
                         updateLastActivityTime();
 
-                        System.out.println("user " + userVal.getUsername() + " logged in");
+                        log.info("user logged in", "user", userVal.getUsername());
                     } 
                     // error cases
                     else if (code == 101)
@@ -309,7 +389,10 @@ public class ClientHandler implements Runnable {
                         // set user as logged out
                         this.user.setLogged(false);
 
-                        System.out.println("user logged out");
+                        // orders outlive an explicit logout
+                        this.cancelOnDisconnect = false;
+
+                        log.info("user logged out", "user", this.user.getUsername());
                     }
 
                     response = new UserResponse("logout", code, msg);
@@ -328,6 +411,7 @@ public class ClientHandler implements Runnable {
                     
                     // parse order values
                     OrderValues orderVal = gson.fromJson(obj.get("values"), OrderValues.class);
+                    received.setOrder(orderVal.getType(), orderVal.getSize(), orderVal.getPrice());
 
                     // check if order values (size and price) are valid
                     if (!isValidSize(orderVal.getSize()))
@@ -336,12 +420,21 @@ public class ClientHandler implements Runnable {
                     if (!isValidPrice(orderVal.getPrice()))
                         return new UserResponse("insertLimitOrder", 103, "invalid order values: price exceeds limits");
 
-                    // try to execute limit order 
-                    code = orderBook.execLimitOrder(this.user.getUsername(), orderVal.getType(), orderVal.getSize(), orderVal.getPrice());
+                    if (symbols.get(orderVal.getSymbol()) == null)
+                        return new UserResponse("insertLimitOrder", 103, "invalid order values: unknown symbol");
+
+                    if (orderVal.getTimeInForce() != null && !LIMIT_TIME_IN_FORCE.contains(orderVal.getTimeInForce()))
+                        return new UserResponse("insertLimitOrder", 103, "invalid order values: time in force must be GTC, IOC or FOK");
+
+                    if (!isValidExpiry(orderVal.getExpireAt()))
+                        return new UserResponse("insertLimitOrder", 103, "invalid order values: expiry in the past");
+
+                    // try to execute limit order on the engine of the symbol
+                    code = runOnEngine(Command.limit(orderVal.getSymbol(), this.user.getUsername(), orderVal.getType(), orderVal.getSize(), orderVal.getPrice(), orderVal.getTimeInForce(), orderVal.getExpireAt()));
 
                     // error executing limit order
                     if (code == -1) {
-                        System.out.println("error with limit order inserted by user " + this.user.getUsername());
+                        log.warn("limit order rejected", "user", this.user.getUsername());
                     }
 
                     // succesful execution with order id as return code
@@ -359,18 +452,26 @@ public class ClientHandler implements Runnable {
                         return new UserResponse("insertMarketOrder", 102, "you can't insert orders if not logged in");
                     
                     // parse order values
-                    orderVal = gson.fromJson(obj.get("values"), OrderValues.class);
+                    OrderValues marketVal = gson.fromJson(obj.get("values"), OrderValues.class);
+                    received.setOrder(marketVal.getType(), marketVal.getSize(), -1);
 
                     // check if market order size is valid
-                    if (!isValidSize(orderVal.getSize()))
+                    if (!isValidSize(marketVal.getSize()))
                         return new UserResponse("insertMarketOrder", 103, "invalid order values: size exceeds limits");
 
+                    if (symbols.get(marketVal.getSymbol()) == null)
+                        return new UserResponse("insertMarketOrder", 103, "invalid order values: unknown symbol");
+
+                    // market orders never rest
+                    if (marketVal.getTimeInForce() != null && !MARKET_TIME_IN_FORCE.contains(marketVal.getTimeInForce()))
+                        return new UserResponse("insertMarketOrder", 103, "invalid order values: time in force must be IOC or FOK");
+
                     // try to execute market order
-                    code = orderBook.execMarketOrder(orderVal.getSize(), orderVal.getType(), "market", this.user.getUsername(), -1);
+                    code = runOnEngine(Command.market(marketVal.getSymbol(), this.user.getUsername(), marketVal.getType(), marketVal.getSize(), marketVal.getTimeInForce()));
 
                     // market order execution failed
                     if (code == -1) {
-                        System.out.println("market order inserted by user " + this.user.getUsername() + " cannot be executed");
+                        log.info("market order not executed", "user", this.user.getUsername());
                     }
 
                     response = new OrderResponse(code);
@@ -388,21 +489,28 @@ public class ClientHandler implements Runnable {
                         return new UserResponse("insertStopOrder", 102, "you can't insert orders if not logged in");
                     
                     // parse order values
-                    orderVal = gson.fromJson(obj.get("values"), OrderValues.class);
+                    OrderValues stopVal = gson.fromJson(obj.get("values"), OrderValues.class);
+                    received.setOrder(stopVal.getType(), stopVal.getSize(), stopVal.getPrice());
 
                     // check if order values (size and price) are valid
-                    if (!isValidSize(orderVal.getSize()))
+                    if (!isValidSize(stopVal.getSize()))
                         return new UserResponse("insertStopOrder", 103, "invalid order values: size exceeds limits");
 
-                    if (!isValidPrice(orderVal.getPrice()))
+                    if (!isValidPrice(stopVal.getPrice()))
                         return new UserResponse("insertStopOrder", 103, "invalid order values: price exceeds limits");
 
+                    if (symbols.get(stopVal.getSymbol()) == null)
+                        return new UserResponse("insertStopOrder", 103, "invalid order values: unknown symbol");
+
+                    if (!isValidExpiry(stopVal.getExpireAt()))
+                        return new UserResponse("insertStopOrder", 103, "invalid order values: expiry in the past");
+
                     // try to execute stop order
-                    code = orderBook.addStopOrder(this.user.getUsername(), orderVal.getSize(), orderVal.getPrice(), orderVal.getType());
+                    code = runOnEngine(Command.stop(stopVal.getSymbol(), this.user.getUsername(), stopVal.getType(), stopVal.getSize(), stopVal.getPrice(), stopVal.getExpireAt()));
 
                     // error inserting stop order
                     if (code == -1) {
-                        System.out.println("error with stop order inserted by user " + this.user.getUsername());
+                        log.warn("stop order rejected", "user", this.user.getUsername());
                     }
 
                     response = new OrderResponse(code);
@@ -419,16 +527,23 @@ public class ClientHandler implements Runnable {
                     if (this.user.getLogged() == false)
                         return new UserResponse("cancelOrder", 102, "you can't cancel orders if not logged in");
 
-                    // parse order id to find the order in the order book
-                    int orderID = gson.fromJson(obj.get("values"), OrderResponse.class).getOrderID();
+                    // parse order id and symbol to find the order in the order book
+                    OrderResponse cancelVal = gson.fromJson(obj.get("values"), OrderResponse.class);
+                    int orderID = cancelVal.getOrderID();
+
+                    // unknown symbol, the order can't exist
+                    if (symbols.get(cancelVal.getSymbol()) == null)
+                        return new UserResponse("cancelOrder", 101, "order does not exist");
 
                     // execute order cancellation
-                    code = orderBook.cancelOrder(orderID, this.user.getUsername());
+                    code = runOnEngine(Command.cancel(cancelVal.getSymbol(), this.user.getUsername(), orderID));
+
+                    received.setOrderId(code == 100 ? orderID : -1);
 
                     // successful cancellation
                     if (code == 100) {
                         msg = "OK";
-                        System.out.println("order with ID: " + orderID + " cancelled by user " + this.user.getUsername());
+                        log.info("order cancelled", "id", orderID, "user", this.user.getUsername());
                     }
                     // order not found or not owned by user
                     else if (code == 101) {
@@ -438,15 +553,144 @@ public class ClientHandler implements Runnable {
                     response = new UserResponse("cancelOrder", code, msg);
                 break;
 
+                // client requests to cancel all their orders, of a symbol or of every symbol
+                case "cancelAllOrders":
+                    // check if user instance is initialized
+                    if (this.user == null)
+                        return new UserResponse("cancelAllOrders", 101, "user error");
+
+                    // cannot execute operation if not logged in
+                    if (this.user.getLogged() == false)
+                        return new UserResponse("cancelAllOrders", 102, "you can't cancel orders if not logged in");
+
+                    // optional symbol, every symbol otherwise
+                    SymbolValues cancelAllVal = gson.fromJson(obj.get("values"), SymbolValues.class);
+                    String cancelAllSymbol = cancelAllVal == null ? null : cancelAllVal.getSymbol();
+
+                    if (cancelAllSymbol == null)
+                        code = symbols.cancelAllOrders(this.user.getUsername());
+                    else if (symbols.get(cancelAllSymbol) == null)
+                        return new UserResponse("cancelAllOrders", 101, "unknown symbol");
+                    else
+                        code = runOnEngine(Command.cancelAll(cancelAllSymbol, this.user.getUsername()));
+
+                    log.info("orders cancelled", "user", this.user.getUsername(), "count", code);
+
+                    response = new UserResponse("cancelAllOrders", 100, code + " orders cancelled");
+                break;
+
+                // client requests to change size and price of a resting limit order
+                case "amendOrder":
+                    // check if user instance is initialized
+                    if (this.user == null)
+                        return new UserResponse("amendOrder", 101, "user error");
+
+                    // cannot execute operation if not logged in
+                    if (this.user.getLogged() == false)
+                        return new UserResponse("amendOrder", 102, "you can't amend orders if not logged in");
+
+                    AmendValues amendVal = gson.fromJson(obj.get("values"), AmendValues.class);
+                    received.setOrder(null, amendVal.getSize(), amendVal.getPrice());
+
+                    if (!isValidSize(amendVal.getSize()))
+                        return new UserResponse("amendOrder", 103, "invalid order values: size exceeds limits");
+
+                    if (!isValidPrice(amendVal.getPrice()))
+                        return new UserResponse("amendOrder", 103, "invalid order values: price exceeds limits");
+
+                    // unknown symbol, the order can't exist
+                    if (symbols.get(amendVal.getSymbol()) == null)
+                        return new UserResponse("amendOrder", 101, "order does not exist");
+
+                    code = runOnEngine(Command.amend(amendVal.getSymbol(), this.user.getUsername(), amendVal.getOrderID(), amendVal.getSize(), amendVal.getPrice()));
+
+                    received.setOrderId(code == 100 ? amendVal.getOrderID() : -1);
+
+                    if (code == 100) {
+                        msg = "OK";
+                        log.info("order amended", "id", amendVal.getOrderID(), "user", this.user.getUsername());
+                    }
+                    else if (code == 101) {
+                        msg = "order does not exist";
+                    }
+
+                    response = new UserResponse("amendOrder", code, msg);
+                break;
+
+                // client requests to insert many limit orders, or cancel many orders, at once
+                case "insertOrders":
+                case "cancelOrders":
+                    // check if user instance is initialized
+                    if (this.user == null)
+                        return new UserResponse(op, 101, "user error");
+
+                    // cannot execute operation if not logged in
+                    if (this.user.getLogged() == false)
+                        return new UserResponse(op, 102, "you can't insert or cancel orders if not logged in");
+
+                    BatchValues batchVal = gson.fromJson(obj.get("values"), BatchValues.class);
+
+                    if (batchVal == null)
+                        return new UserResponse(op, 103, "invalid batch values");
+
+                    response = handleBatch(op, batchVal);
+                break;
+
+                // client requests to replace its quotes at some levels in one step
+                case "massQuote":
+                    // check if user instance is initialized
+                    if (this.user == null)
+                        return new UserResponse("massQuote", 101, "user error");
+
+                    // cannot execute operation if not logged in
+                    if (this.user.getLogged() == false)
+                        return new UserResponse("massQuote", 102, "you can't quote if not logged in");
+
+                    BatchValues quoteVal = gson.fromJson(obj.get("values"), BatchValues.class);
+
+                    if (quoteVal == null || quoteVal.getOrders() == null || quoteVal.getOrders().isEmpty())
+                        return new UserResponse("massQuote", 103, "invalid quote values: no levels");
+
+                    if (quoteVal.getOrders().size() > MAX_BATCH_SIZE)
+                        return new UserResponse("massQuote", 103, "invalid quote values: more than " + MAX_BATCH_SIZE + " levels");
+
+                    if (symbols.get(quoteVal.getSymbol()) == null)
+                        return new UserResponse("massQuote", 103, "invalid quote values: unknown symbol");
+
+                    // levels are validated by the engine, size 0 pulls a level
+                    ArrayList<Quote> quotes = new ArrayList<>();
+
+                    for (OrderValues level : quoteVal.getOrders()) {
+                        if (level == null || level.getSize() > MAX_VALUE || level.getPrice() > MAX_VALUE)
+                            quotes.add(null);
+                        else
+                            quotes.add(new Quote(level.getType(), level.getSize(), level.getPrice()));
+                    }
+
+                    String quoter = this.user.getUsername();
+
+                    int[] quoteResults = symbols.massQuote(quoteVal.getSymbol(), quoter, quotes).join();
+
+                    response = new BatchResponse("massQuote", quoteResults);
+                break;
+
                 // client requests to get the current order book
                 // anyone can request the order book
                 case "getOrderBook":
                     /*if (this.user == null)
                         return new UserResponse("getOrderBook", 101, "user error");*/
 
-                    OrderBook ob = orderBook.getOrderBook();
+                    // optional symbol, default book otherwise
+                    SymbolValues symbolVal = gson.fromJson(obj.get("values"), SymbolValues.class);
+                    Instrument bookInstrument = symbols.get(symbolVal == null ? null : symbolVal.getSymbol());
+
+                    if (bookInstrument == null)
+                        return new UserResponse("getOrderBook", 101, "unknown symbol");
+
+                    // detached copy taken under the book monitor, the engine keeps matching while it is serialized
+                    OrderBookSnapshot ob = bookInstrument.getOrderBook().snapshot();
                     
-                    response = new OrderBookResponse(ob);
+                    response = new OrderBookResponse(ob, bookInstrument.getSymbol());
                 break;
 
                 // client requests to get price history for a given month and year
@@ -478,8 +722,14 @@ public class ClientHandler implements Runnable {
                     if (year < 1970 || year > Year.now().getValue())
                         return new UserResponse("getPriceHistory", 105, "invalid year");
 
+                    // trade history is kept per symbol
+                    Instrument historyInstrument = symbols.get(historyVal.getSymbol());
+
+                    if (historyInstrument == null)
+                        return new UserResponse("getPriceHistory", 107, "unknown symbol");
+
                     // get price history for given month and year
-                    ArrayList<DailyTradingStats> result = priceHistory.getPriceHistory(month, year, tradeMap);
+                    ArrayList<DailyTradingStats> result = priceHistory.getPriceHistory(month, year, historyInstrument.getTradeMap());
 
                     if (result.isEmpty())
                         return new UserResponse("getPriceHistory", 106, "no trading data available for given date");
@@ -488,6 +738,12 @@ public class ClientHandler implements Runnable {
                     
                 break;
                 
+                // client requests server metrics
+                // anyone can request metrics, like the order book
+                case "getMetrics":
+                    response = new MetricsResponse(metrics);
+                break;
+
                 // unknown operation requested
                 default:
                     response = new UserResponse("unknown", 101, "unknown operation");
@@ -496,16 +752,140 @@ public class ClientHandler implements Runnable {
         }
         catch (JsonSyntaxException e) {
             System.err.println(e.getMessage());
+            metrics.increment("requests.errors");
             return new UserResponse("error", -1, "json error");
         }
         catch (Exception e) {
             System.err.println(e.getMessage());
+            metrics.increment("requests.errors");
             return new UserResponse("error", -1, "server error");
         }
+        finally {
+            // bounded set of names, clients can't create histograms
+            if (!OPERATIONS.contains(op))
+                op = "unknown";
+
+            metrics.record("request." + op, System.nanoTime() - start);
+            metrics.increment("requests.total");
+
+            received.end();
+
+            if (ORDER_OPERATIONS.contains(op) && received.shouldCommit()) {
+                received.setOperation(op);
+                received.setUsername(getUsername());
+
+                if (response instanceof OrderResponse)
+                    received.setOrderId(((OrderResponse) response).getOrderID());
+
+                received.commit();
+            }
+        }
 
         return response;
     }
 
+    /**
+     * reads the symbol of a request without binding its values
+     * 
+     * @param obj parsed request, null if malformed
+     * @return symbol of the request, null for the default one
+     */
+    private static String requestSymbol (JsonObject obj) {
+        if (obj == null || !obj.has("values") || !obj.get("values").isJsonObject())
+            return null;
+
+        JsonElement symbol = obj.getAsJsonObject("values").get("symbol");
+
+        return symbol != null && symbol.isJsonPrimitive() ? symbol.getAsString() : null;
+    }
+
+    /**
+     * runs a command on the engine thread of its symbol and waits for the result
+     * queue wait and matching time are recorded by the engine shard
+     * 
+     * @param command command to run, its symbol must be known
+     * @return return code of the command
+     */
+    private int runOnEngine (Command command) {
+        return symbols.execute(command).join();
+    }
+
+    /**
+     * validates the items of a batch request and runs the valid ones
+     * as a single engine command; invalid items fail without affecting the others
+     * 
+     * @param op insertOrders or cancelOrders
+     * @param batchVal orders or order ids of the batch
+     * @return batch response with a result per item, or an error response
+     */
+    private Response handleBatch (String op, BatchValues batchVal) {
+        boolean insert = op.equals("insertOrders");
+
+        int items = insert
+            ? (batchVal.getOrders() == null ? 0 : batchVal.getOrders().size())
+            : (batchVal.getOrderIds() == null ? 0 : batchVal.getOrderIds().size());
+
+        if (items == 0)
+            return new UserResponse(op, 103, "invalid batch values: empty batch");
+
+        if (items > MAX_BATCH_SIZE)
+            return new UserResponse(op, 103, "invalid batch values: more than " + MAX_BATCH_SIZE + " items");
+
+        if (symbols.get(batchVal.getSymbol()) == null)
+            return new UserResponse(op, 103, "invalid batch values: unknown symbol");
+
+        String username = this.user.getUsername();
+
+        // failure code of items rejected before reaching the engine
+        int[] results = new int[items];
+        Arrays.fill(results, insert ? -1 : 101);
+
+        // valid items and their position in the request
+        ArrayList<Command> commands = new ArrayList<>(items);
+        int[] positions = new int[items];
+
+        for (int i = 0; i < items; i++) {
+            Command command = null;
+
+            if (insert) {
+                OrderValues item = batchVal.getOrders().get(i);
+
+                // same checks as a single limit order, time in force and expiry included
+                if (item != null && ("ask".equals(item.getType()) || "bid".equals(item.getType()))
+                        && isValidSize(item.getSize()) && isValidPrice(item.getPrice())
+                        && (item.getTimeInForce() == null || LIMIT_TIME_IN_FORCE.contains(item.getTimeInForce()))
+                        && isValidExpiry(item.getExpireAt()))
+                    command = Command.limit(batchVal.getSymbol(), username, item.getType(), item.getSize(), item.getPrice(), item.getTimeInForce(), item.getExpireAt());
+            }
+            else {
+                Integer orderId = batchVal.getOrderIds().get(i);
+
+                if (orderId != null)
+                    command = Command.cancel(batchVal.getSymbol(), username, orderId);
+            }
+
+            if (command != null) {
+                positions[commands.size()] = i;
+                commands.add(command);
+            }
+        }
+
+        if (!commands.isEmpty()) {
+            // one engine task and one monitor acquisition for the whole batch
+            int[] codes = symbols.executeBatch(batchVal.getSymbol(), commands).join();
+
+            for (int i = 0; i < codes.length; i++) {
+                results[positions[i]] = codes[i];
+            }
+        }
+
+        metrics.counter("batch.items").add(items);
+
+        log.debug("batch executed", "operation", op, "user", username, "items", items, "valid", commands.size());
+
+        return new BatchResponse(op, results);
+    }
+
     public Socket getClientSocket() {
         return this.clientSocket;
     }
@@ -527,6 +907,18 @@ public class ClientHandler implements Runnable {
 
     public void updateLastActivityTime () {
         this.lastActivityTime = System.currentTimeMillis();
+
+        // re-arm the inactivity timeout
+        if (this.inactivityHandler != null)
+            this.inactivityHandler.touch(this);
+    }
+
+    public TimingWheel.Timeout<ClientHandler> getInactivityTimeout () {
+        return this.inactivityTimeout;
+    }
+
+    public void setInactivityTimeout (TimingWheel.Timeout<ClientHandler> inactivityTimeout) {
+        this.inactivityTimeout = inactivityTimeout;
     }
 
     /**
@@ -557,6 +949,16 @@ public class ClientHandler implements Runnable {
         return price >= MIN_VALUE && price <= MAX_VALUE;
     }
 
+    /**
+     * checks if the expiry of an order is valid
+     * 
+     * @param expireAt expiry in milliseconds since epoch, 0 for none
+     * @return true if the order never expires or expires in the future
+     */
+    public boolean isValidExpiry (long expireAt) {
+        return expireAt == 0 || expireAt > System.currentTimeMillis();
+    }
+
     /**
      * logs out the user associated to this client handler
      */
@@ -577,6 +979,26 @@ public class ClientHandler implements Runnable {
         }
     }
     
+    /**
+     * cancels every order of the user if the session asked for it at login,
+     * at most once per session
+     */
+    public void cancelOnDisconnect () {
+        if (!this.cancelOnDisconnect || this.user == null)
+            return;
+
+        this.cancelOnDisconnect = false;
+
+        try {
+            int cancelled = symbols.cancelAllOrders(this.user.getUsername());
+
+            log.info("orders cancelled on disconnect", "user", this.user.getUsername(), "count", cancelled);
+        }
+        catch (Exception e) {
+            System.err.println("error cancelling orders on disconnect: " + e.getMessage());
+        }
+    }
+
     /**
      * stops the client handler thread and closes the client socket
      */
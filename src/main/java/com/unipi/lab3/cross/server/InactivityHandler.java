@@ -2,16 +2,17 @@ package com.unipi.lab3.cross.server;
 
 import java.net.Socket;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
-import com.unipi.lab3.cross.model.OrderBook;
-import com.unipi.lab3.cross.model.orders.StopOrder;
-import com.unipi.lab3.cross.model.user.User;
+import com.unipi.lab3.cross.engine.SymbolRegistry;
 import com.unipi.lab3.cross.model.user.UserManager;
+import com.unipi.lab3.cross.util.TimingWheel;
 
 /**
  * class that manage inactive client connections
- * periodically checks for inactive clients and logs them out after a configured timeout period
+ * logs out clients after a configured timeout period of inactivity
+ * 
+ * every client has a timeout in a timing wheel, re-armed on each activity,
+ * so every tick only the clients whose timeout elapsed are checked
  */
 
 public class InactivityHandler implements Runnable {
@@ -20,49 +21,72 @@ public class InactivityHandler implements Runnable {
     private ConcurrentHashMap<Socket, ClientHandler> activeClients;
 
     // useful shared references
-    private OrderBook orderBook;
+    private SymbolRegistry symbols;
     private UserManager userManager;
 
     // inactivity timeout in milliseconds
     private final long timeout;
 
-    // scan interval in milliseconds
+    // duration of a timing wheel tick in milliseconds
     private final long scanInterval;
 
+    // timeouts of connected clients
+    private final TimingWheel<ClientHandler> wheel;
+
+    // number of buckets in the timing wheel
+    private static final int WHEEL_SIZE = 512;
+
     // flag to control the running state of the handler
     private volatile boolean running = true;
 
-    public InactivityHandler (ConcurrentHashMap<Socket, ClientHandler> activeClients, UserManager userManager, OrderBook orderBook, long timeout, long scanInterval) {
+    public InactivityHandler (ConcurrentHashMap<Socket, ClientHandler> activeClients, UserManager userManager, SymbolRegistry symbols, long timeout, long scanInterval) {
         this.activeClients = activeClients;
         this.userManager = userManager;
-        this.orderBook = orderBook;
+        this.symbols = symbols;
         this.timeout = timeout;
         this.scanInterval = scanInterval;
+        this.wheel = new TimingWheel<>(scanInterval, WHEEL_SIZE, System.currentTimeMillis());
+    }
+
+    public long getTimeout () {
+        return this.timeout;
+    }
+
+    /**
+     * starts tracking the inactivity of a new client
+     * 
+     * @param handler handler of the connected client
+     */
+    public void register (ClientHandler handler) {
+        TimingWheel.Timeout<ClientHandler> clientTimeout = wheel.schedule(handler, handler.getLastActivityTime() + timeout);
+
+        handler.setInactivityTimeout(clientTimeout);
+    }
+
+    /**
+     * moves the timeout of a client after an activity, in constant time
+     * 
+     * @param handler handler of the active client
+     */
+    public void touch (ClientHandler handler) {
+        TimingWheel.Timeout<ClientHandler> clientTimeout = handler.getInactivityTimeout();
+
+        if (clientTimeout != null)
+            clientTimeout.rearm(handler.getLastActivityTime() + timeout);
     }
 
     public void run () {
-        // main loop -> periodically scans active client to detect inactive ones
+        // main loop -> advances the timing wheel every tick, handling expired clients
         while (running) {
-            long now = System.currentTimeMillis();
-
             try {
-                // iterate over all active clients
-                for (ConcurrentHashMap.Entry<Socket, ClientHandler> entry : activeClients.entrySet()) {
-                    Socket socket = entry.getKey();
-                    ClientHandler handler = entry.getValue();
-
-                    // if client's last activity exceeds the timeout handle the client
-                    if (now - handler.getLastActivityTime() > timeout) {
-                        handleTimeout(socket, handler);
-                    }
-                }
+                wheel.advance(System.currentTimeMillis(), this::handleExpired);
             }
             catch (Exception e) {
                 System.err.println(e.getMessage());
             }
 
             try {
-                // pause between scans
+                // pause between ticks
                 Thread.sleep(scanInterval);
             }
             // thread interrupted
@@ -74,6 +98,25 @@ public class InactivityHandler implements Runnable {
         }
     }
 
+    /**
+     * handles a client whose timeout elapsed
+     * 
+     * @param handler client's handler reference
+     */
+    private void handleExpired (ClientHandler handler) {
+        Socket socket = handler.getClientSocket();
+
+        // client already removed
+        if (!activeClients.containsKey(socket))
+            return;
+
+        handleTimeout(socket, handler);
+
+        // client kept connected, check again after another timeout period
+        if (activeClients.containsKey(socket))
+            register(handler);
+    }
+
     /**
      * handles an inactive client by logging them out and closing the connection
      * 
@@ -97,10 +140,7 @@ public class InactivityHandler implements Runnable {
                 }
                 else {
                     // update user status to logged out in the user manager map
-                    User user = userManager.getUser(username);
-                    if (user != null) {
-                        user.setLogged(false);
-                        
+                    if (userManager.logout(username) == 100) {
                         System.out.println("inactive user " + username);
                     }
                 }
@@ -123,13 +163,8 @@ public class InactivityHandler implements Runnable {
      * @param username the username of the user to check
      * @return true if the user has pending stop orders, false otherwise
      */
-    public synchronized boolean hasStopOrders (String username) {
-        ConcurrentLinkedQueue<StopOrder> userStopOrders = orderBook.getUserStopOrders(username);
-        
-        if (userStopOrders != null && !userStopOrders.isEmpty())
-            return true;
-        
-        return false;
+    public boolean hasStopOrders (String username) {
+        return symbols.countUserStopOrders(username) > 0;
     }
 
     /**
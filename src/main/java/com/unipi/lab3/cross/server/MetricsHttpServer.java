@@ -0,0 +1,85 @@
+package com.unipi.lab3.cross.server;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import com.unipi.lab3.cross.metrics.MetricsRegistry;
+import com.unipi.lab3.cross.metrics.PrometheusFormatter;
+
+/**
+ * small http listener serving server metrics to prometheus scrapers
+ * on GET /metrics, bound to the loopback interface
+ * 
+ * scrapes are served by a single daemon thread and only read the metrics registry,
+ * they never take the order book monitor
+ */
+
+public class MetricsHttpServer {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private final MetricsRegistry metrics;
+
+    public MetricsHttpServer (int port, MetricsRegistry metrics) throws IOException {
+        this.metrics = metrics;
+
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        this.server.createContext("/metrics", this::handle);
+
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.server.setExecutor(this.executor);
+    }
+
+    public void start () {
+        this.server.start();
+    }
+
+    /**
+     * stops the listener, waiting at most a second for a scrape in progress
+     */
+    public void stop () {
+        this.server.stop(1);
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * answers a scrape with the current metrics
+     * 
+     * @param exchange http request and response
+     */
+    private void handle (HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body = PrometheusFormatter.render(metrics).getBytes(StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        catch (Exception e) {
+            System.err.println("metrics scrape error: " + e.getMessage());
+        }
+        finally {
+            exchange.close();
+        }
+    }
+}
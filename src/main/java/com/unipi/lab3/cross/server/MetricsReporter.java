@@ -0,0 +1,78 @@
+package com.unipi.lab3.cross.server;
+
+import com.unipi.lab3.cross.metrics.LatencyHistogram;
+import com.unipi.lab3.cross.metrics.MetricsRegistry;
+import com.unipi.lab3.cross.util.AsyncLogger;
+
+/**
+ * periodic task that logs a compact line with the main server metrics
+ * and computes throughput rates between two runs
+ */
+
+public class MetricsReporter implements Runnable {
+
+    private final MetricsRegistry metrics;
+
+    private static final AsyncLogger log = AsyncLogger.get();
+
+    // values at the previous run, to compute rates
+    private long lastTime;
+    private long lastTrades;
+    private long lastRequests;
+
+    // rates computed at the last run
+    private volatile long tradesPerSecond = 0;
+    private volatile long requestsPerSecond = 0;
+
+    public MetricsReporter (MetricsRegistry metrics) {
+        this.metrics = metrics;
+        this.lastTime = System.nanoTime();
+
+        // rates are exposed as gauges
+        metrics.registerGauge("trades.perSecond", this::getTradesPerSecond);
+        metrics.registerGauge("requests.perSecond", this::getRequestsPerSecond);
+    }
+
+    public long getTradesPerSecond () {
+        return this.tradesPerSecond;
+    }
+
+    public long getRequestsPerSecond () {
+        return this.requestsPerSecond;
+    }
+
+    public void run () {
+        long now = System.nanoTime();
+        long trades = metrics.getValue("trades.executed");
+        long requests = metrics.getValue("requests.total");
+
+        double seconds = (now - lastTime) / 1e9;
+
+        if (seconds > 0) {
+            this.tradesPerSecond = Math.round((trades - lastTrades) / seconds);
+            this.requestsPerSecond = Math.round((requests - lastRequests) / seconds);
+        }
+
+        lastTime = now;
+        lastTrades = trades;
+        lastRequests = requests;
+
+        LatencyHistogram wait = metrics.histogram("engine.wait");
+        LatencyHistogram priorityWait = metrics.histogram("engine.wait.priority");
+        LatencyHistogram engine = metrics.histogram("engine.time");
+
+        log.info("metrics",
+            "req/s", requestsPerSecond,
+            "trades/s", tradesPerSecond,
+            "engineP99us", engine.getValueAtPercentile(99) / 1_000,
+            "waitP99us", wait.getValueAtPercentile(99) / 1_000,
+            "cancelWaitP99us", priorityWait.getValueAtPercentile(99) / 1_000,
+            "askLevels", metrics.getValue("book.askLevels"),
+            "bidLevels", metrics.getValue("book.bidLevels"),
+            "stopAsks", metrics.getValue("book.stopAsks"),
+            "stopBids", metrics.getValue("book.stopBids"),
+            "clients", metrics.getValue("clients.active"),
+            "udpInFlight", metrics.getValue("notifier.inFlight"),
+            "buffered", metrics.getValue("tradeBuffer.size"));
+    }
+}
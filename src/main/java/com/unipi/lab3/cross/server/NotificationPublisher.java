@@ -0,0 +1,80 @@
+package com.unipi.lab3.cross.server;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import com.unipi.lab3.cross.json.response.Notification;
+import com.unipi.lab3.cross.model.event.OrderEvent;
+import com.unipi.lab3.cross.model.event.OrderEventHandler;
+import com.unipi.lab3.cross.model.trade.Trade;
+
+/**
+ * consumer of the order book events sending udp notifications to the users
+ *
+ * closed, expired and failed orders read together are merged,
+ * so every user gets one notification per notification type
+ */
+
+public class NotificationPublisher implements OrderEventHandler {
+
+    private static final String NOTIFICATION_SUCCESS = "closedTrades";
+    private static final String NOTIFICATION_ERROR = "orderFailed";
+    private static final String NOTIFICATION_EXPIRED = "ordersExpired";
+
+    private final String symbol;
+    private final UdpNotifier udpNotifier;
+
+    // username - notification type - notification collected in the current run of events
+    private final LinkedHashMap<String, LinkedHashMap<String, Notification>> pending = new LinkedHashMap<>();
+
+    public NotificationPublisher (String symbol, UdpNotifier udpNotifier) {
+        this.symbol = symbol;
+        this.udpNotifier = udpNotifier;
+    }
+
+    @Override
+    public void onEvent (OrderEvent event) {
+        String type;
+
+        switch (event.getType()) {
+            case FILLED:
+                type = NOTIFICATION_SUCCESS;
+            break;
+            case EXPIRED:
+                type = NOTIFICATION_EXPIRED;
+            break;
+            case FAILED:
+                type = NOTIFICATION_ERROR;
+            break;
+            default:
+                // nothing to notify
+                return;
+        }
+
+        LinkedHashMap<String, Notification> userNotifications = this.pending.computeIfAbsent(event.getUsername(), k -> new LinkedHashMap<>());
+        Notification notification = userNotifications.get(type);
+
+        if (notification == null) {
+            LinkedList<Trade> trades = new LinkedList<>();
+            trades.add(event.getTrade());
+
+            userNotifications.put(type, new Notification(type, trades));
+        }
+        else {
+            notification.getTrades().add(event.getTrade());
+        }
+    }
+
+    @Override
+    public void onEndOfBatch () {
+        for (Map.Entry<String, LinkedHashMap<String, Notification>> entry : this.pending.entrySet()) {
+            for (Notification notification : entry.getValue().values()) {
+                notification.setSymbol(this.symbol);
+                this.udpNotifier.notifyClient(entry.getKey(), notification);
+            }
+        }
+
+        this.pending.clear();
+    }
+}
@@ -2,6 +2,11 @@ package com.unipi.lab3.cross.server;
 
 import java.util.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -9,9 +14,16 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
 
-import com.unipi.lab3.cross.model.OrderBook;
+import com.unipi.lab3.cross.engine.CommandJournal;
+import com.unipi.lab3.cross.engine.Instrument;
+import com.unipi.lab3.cross.engine.SymbolRegistry;
+import com.unipi.lab3.cross.jfr.PersistenceSaveEvent;
+import com.unipi.lab3.cross.metrics.MetricsRegistry;
+import com.unipi.lab3.cross.model.OrderBookSnapshot;
+import com.unipi.lab3.cross.model.user.User;
 import com.unipi.lab3.cross.model.user.UserManager;
 import com.unipi.lab3.cross.model.trade.Trade;
+import com.unipi.lab3.cross.model.trade.TradeBuffer;
 
 /**
  * class that manages persistence of users, orders, and trades to JSON files
@@ -22,21 +34,48 @@ import com.unipi.lab3.cross.model.trade.Trade;
 public class PersistenceHandler {
 
     // references to data structures
-    private OrderBook orderBook;
+    private SymbolRegistry symbols;
     private UserManager userManager;
-    private LinkedList<Trade> bufferedTrades;
+
+    // save durations
+    private MetricsRegistry metrics;
 
     // json file paths
     private final String usersFile = "src/main/resources/users.json";
-    private final String ordersFile = "src/main/resources/orders.json";
-    private final String tradesFile = "src/main/resources/storicoOrdini.json";
+    private final String usersLogFile = "src/main/resources/users.log";
+    // orders and trades files are per symbol, see SymbolRegistry
 
     private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
 
-    public PersistenceHandler (OrderBook orderBook, UserManager userManager, LinkedList<Trade> bufferedTrades) {
-        this.orderBook = orderBook;
+    // compact serializer for snapshots, no pretty printing
+    private final Gson compactGson = new Gson();
+
+    // symbol - sequence of the last order book snapshot written to file
+    private final HashMap<String, Long> savedSequences = new HashMap<>();
+
+    // number of entries in the user change log since the last compaction
+    private long userLogEntries;
+
+    // symbol - trade buffer stalls already reported
+    private final HashMap<String, Long> reportedStalls = new HashMap<>();
+
+    // guards trade writes apart from the other saves, so a flush of a full buffer
+    // never waits for an order snapshot that waits for the stalled engine
+    private final Object tradesLock = new Object();
+
+    // longest wait for the trades of a snapshot to reach the trade buffer
+    private static final long TRADES_WAIT_MILLIS = 5000;
+
+    // change log entries after which the log is compacted into the users file
+    private static final long USER_LOG_COMPACTION = 1000;
+
+    public PersistenceHandler (SymbolRegistry symbols, UserManager userManager, MetricsRegistry metrics) {
+        this.symbols = symbols;
         this.userManager = userManager;
-        this.bufferedTrades = bufferedTrades;
+        this.metrics = metrics;
+
+        // entries left in the change log by the previous run
+        this.userLogEntries = countLines(usersLogFile);
     }
 
     /**
@@ -46,43 +85,247 @@ public class PersistenceHandler {
         // debug
         System.out.println("saving data");
         
-        saveUsers();
-        saveOrders();
-        saveTrades();
+        long elapsed = 0;
+
+        elapsed += timedSave("users", this::saveUsers);
+        elapsed += timedSave("orders", this::saveOrders);
+        elapsed += timedSave("trades", this::saveTrades);
+
+        metrics.record("persistence.all", elapsed);
+    }
+
+    /**
+     * runs a save step, recording its duration as a metric and a jfr event
+     * 
+     * @param data name of the saved data
+     * @param save save step to run
+     * @return duration of the step in nanoseconds
+     */
+    private long timedSave (String data, Runnable save) {
+        PersistenceSaveEvent event = new PersistenceSaveEvent(data);
+        event.begin();
+
+        long start = System.nanoTime();
+
+        save.run();
+
+        long elapsed = System.nanoTime() - start;
+
+        event.commit();
+
+        metrics.record("persistence." + data, elapsed);
+
+        return elapsed;
     }
 
     /**
-     * saves users to JSON file
+     * saves users changed since the last save
+     * appends them to the user change log, and periodically
+     * compacts the log into the users file
      */
     private void saveUsers () {
-        // try with resources to serialize
-        try (FileWriter writer = new FileWriter(usersFile)) {
-            // get users map and serialize to JSON, writing to file
-            gson.toJson(userManager.getUsers(), writer);
+        // get only users registered or updated since the last save
+        List<User> changes = userManager.drainChangedUsers();
+
+        try {
+            if (!changes.isEmpty())
+                appendUserChanges(changes);
+
+            // log too long, rewrite the base file and reset the log
+            if (userLogEntries >= USER_LOG_COMPACTION)
+                compactUsers();
         } catch (IOException e) {
             System.err.println("error saving users: " + e.getMessage());
+
+            // keep changes for the next save
+            for (User user : changes) {
+                userManager.markChanged(user.getUsername());
+            }
         }
     }
 
     /**
-     * saves orders to JSON file
+     * appends changed users to the change log, one json object per line
+     * 
+     * @param changes users to append
+     * @throws IOException if writing fails
+     */
+    private void appendUserChanges (List<User> changes) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(usersLogFile, true);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+
+            for (User user : changes) {
+                writer.write(compactGson.toJson(user));
+                writer.write(System.lineSeparator());
+            }
+
+            writer.flush();
+            out.getFD().sync();
+        }
+
+        userLogEntries += changes.size();
+    }
+
+    /**
+     * writes the whole users map to the users file and empties the change log
+     * 
+     * @throws IOException if writing fails
+     */
+    private void compactUsers () throws IOException {
+        writeAtomically(usersFile, userManager.getUsers());
+
+        // every logged change is now in the users file
+        new FileOutputStream(usersLogFile).close();
+
+        userLogEntries = 0;
+    }
+
+    /**
+     * counts the lines of a file
+     * 
+     * @param path path of the file
+     * @return number of lines, 0 if the file doesn't exist
+     */
+    private static long countLines (String path) {
+        File file = new File(path);
+
+        if (!file.exists())
+            return 0;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            return reader.lines().count();
+        } catch (IOException e) {
+            System.err.println("error reading " + path + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * saves the order book of every symbol to its JSON file
      */
     private void saveOrders () {
-        try (FileWriter writer = new FileWriter(ordersFile)) {
-            // get order book, serialize it to JSON and write it to file
-            gson.toJson(orderBook, writer);
+        for (Instrument instrument : symbols.getInstruments()) {
+            saveOrders(instrument);
+        }
+    }
+
+    /**
+     * saves orders of a symbol to JSON file
+     * takes a consistent snapshot of the order book, then writes it
+     * outside the order book monitor, replacing the previous file atomically
+     * 
+     * with a journal, recovery replays only the commands after the snapshot,
+     * so their trades are saved first and the journal is truncated after
+     * 
+     * @param instrument symbol to save
+     */
+    private void saveOrders (Instrument instrument) {
+        String symbol = instrument.getSymbol();
+
+        // copy the book at a consistent sequence point, matching is blocked only for the copy
+        OrderBookSnapshot snapshot = instrument.getOrderBook().snapshot();
+
+        // nothing changed since the last saved snapshot
+        if (snapshot.getSequence() == savedSequences.getOrDefault(symbol, -1L))
+            return;
+
+        CommandJournal journal = instrument.getJournal();
+
+        // trades of the commands in the snapshot on disk before it
+        if (journal != null && !(instrument.awaitBuffered(snapshot.getEventSequence(), TRADES_WAIT_MILLIS) && writeTrades(instrument))) {
+            System.err.println("orders of " + symbol + " not saved: trades before the snapshot not saved yet");
+            return;
+        }
+
+        // the input sequence and the orders waiting for an auction aren't sent to clients, only saved
+        JsonObject orders = compactGson.toJsonTree(snapshot).getAsJsonObject();
+        orders.addProperty("inputSequence", snapshot.getInputSequence());
+        orders.add("auctionOrders", compactGson.toJsonTree(snapshot.getAuctionOrders()));
+
+        try {
+            writeAtomically(SymbolRegistry.ordersFile(symbol), orders);
+
+            savedSequences.put(symbol, snapshot.getSequence());
+
+            // snapshot and trades are on disk, recovery no longer needs the commands they include
+            if (journal != null)
+                journal.truncate(snapshot.getInputSequence());
         } catch (IOException e) {
-            System.err.println("error saving orders: " + e.getMessage());
+            System.err.println("error saving orders of " + symbol + ": " + e.getMessage());
         }
     }
 
     /**
-     * saves buffered trades to JSON file
+     * serializes an object to a temporary file, forces it to disk
+     * and then renames it over the target file,
+     * so a crash during the write never leaves a truncated file
+     * 
+     * @param path path of the target file
+     * @param data object to serialize
+     * @throws IOException if writing or renaming fails
      */
-    private synchronized void saveTrades () {
+    private void writeAtomically (String path, Object data) throws IOException {
+        Path target = Paths.get(path);
+        Path temp = Paths.get(path + ".tmp");
+
+        try (FileOutputStream out = new FileOutputStream(temp.toFile());
+             Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            compactGson.toJson(data, writer);
+
+            // flush buffered data and fsync before the rename
+            writer.flush();
+            out.getFD().sync();
+        }
+
+        // replace previous file in a single step
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * saves the buffered trades of every symbol to its JSON file
+     */
+    private void saveTrades () {
+        for (Instrument instrument : symbols.getInstruments()) {
+            writeTrades(instrument);
+        }
+    }
+
+    /**
+     * saves the buffered trades of a symbol now, when its buffer is full
+     *
+     * @param instrument symbol to save
+     */
+    public void saveTrades (Instrument instrument) {
+        writeTrades(instrument);
+    }
+
+    /**
+     * saves buffered trades of a symbol to JSON file
+     * swaps out the trades buffered by the engine since the last save
+     * and appends them to the trades stored in the file
+     * 
+     * @param instrument symbol to save
+     * @return true if every buffered trade is on disk
+     */
+    private boolean writeTrades (Instrument instrument) {
+        synchronized (tradesLock) {
+            return writeBufferedTrades(instrument);
+        }
+    }
+
+    private boolean writeBufferedTrades (Instrument instrument) {
+        TradeBuffer bufferedTrades = instrument.getBufferedTrades();
+        String tradesFile = SymbolRegistry.tradesFile(instrument.getSymbol());
+
+        // report engine stalls on a full buffer
+        reportBackpressure(instrument);
+
+        // take the whole batch buffered so far, the engine keeps appending to an empty buffer
+        List<Trade> batch = bufferedTrades.drain();
+
         // stop if no trades to save
-        if (bufferedTrades.isEmpty()) 
-            return;
+        if (batch.isEmpty()) 
+            return true;
 
         File file = new File(tradesFile);
 
@@ -117,27 +360,54 @@ public class PersistenceHandler {
             // get already stored trades array in the file in json object
             JsonArray trades = obj.getAsJsonArray("trades");
 
-            // serialize every buffered trade in json and add to trades array
-            for (Trade t : bufferedTrades) {
+            // serialize every drained trade in json and add to trades array
+            for (Trade t : batch) {
                 trades.add(gson.toJsonTree(t));
             }
 
-            // overwrite the file with updated trades array
-            try (FileWriter writer = new FileWriter(file)) {
-                // serialize entire json object back to file
-                gson.toJson(obj, writer);
+            // replace the file with updated trades array
+            try {
+                writeAtomically(tradesFile, obj);
             }
             // I/O exception on writing
             catch (IOException e) {
                 System.err.println("error re-saving trades: " + e.getMessage());
-            }
 
-            // clear buffered trades after successful save
-            bufferedTrades.clear();
+                // give the batch back to the buffer for the next save
+                bufferedTrades.restore(batch);
+
+                return false;
+            }
         }
         // generic exception catch
         catch (Exception e) {
             System.err.println("trades error: " + e.getMessage());
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * prints a warning when the trade buffer of a symbol is filling up or has stalled the engine
+     * 
+     * @param instrument symbol to check
+     */
+    private void reportBackpressure (Instrument instrument) {
+        TradeBuffer bufferedTrades = instrument.getBufferedTrades();
+        String symbol = instrument.getSymbol();
+
+        long stalls = bufferedTrades.getStalls();
+        long reported = reportedStalls.getOrDefault(symbol, 0L);
+        int size = bufferedTrades.getSize();
+        int capacity = bufferedTrades.getCapacity();
+
+        if (stalls > reported || size > capacity * 0.8) {
+            System.err.println("trade buffer backpressure on " + symbol + ": " + size + "/" + capacity + " buffered, "
+                + (stalls - reported) + " stalls since last save, high watermark " + bufferedTrades.getHighWatermark());
+
+            reportedStalls.put(symbol, stalls);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,167 @@
+package com.unipi.lab3.cross.server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.unipi.lab3.cross.engine.SymbolRegistry;
+import com.unipi.lab3.cross.json.response.RetryResponse;
+import com.unipi.lab3.cross.metrics.MetricsRegistry;
+import com.unipi.lab3.cross.util.TokenBucket;
+
+/**
+ * admission control of client requests, checked on the operation the request is dispatched on,
+ * before binding its values or any engine work
+ *
+ * order and query operations take a token from a bucket of the connection and,
+ * once logged in, from a bucket of the user, so a user can't get around the limit
+ * opening more connections; other operations (login, logout, ...) are never limited
+ *
+ * expensive reads are shed while the engine queue of their symbol is slower than the configured slo,
+ * so order flow keeps the engine threads when the server is overloaded
+ */
+
+public class RateLimiter {
+
+    // operations taking a token from the order buckets, a batch takes a single token
+    private static final Set<String> ORDER_OPERATIONS = Set.of(
+        "insertLimitOrder", "insertMarketOrder", "insertStopOrder", "cancelOrder", "amendOrder",
+        "cancelAllOrders", "insertOrders", "cancelOrders", "massQuote");
+
+    // operations taking a token from the query buckets
+    private static final Set<String> QUERY_OPERATIONS = Set.of("getOrderBook", "getPriceHistory", "getMetrics");
+
+    // reads shed when the engine is overloaded
+    private static final Set<String> EXPENSIVE_OPERATIONS = Set.of("getOrderBook", "getPriceHistory");
+
+    /**
+     * buckets of a single connection
+     */
+    public final class Session {
+        private final TokenBucket orders;
+        private final TokenBucket queries;
+
+        private Session (long now) {
+            this.orders = orderRate > 0 ? new TokenBucket(orderRate, orderBurst, now) : null;
+            this.queries = queryRate > 0 ? new TokenBucket(queryRate, queryBurst, now) : null;
+        }
+
+        /**
+         * checks a request before running it
+         *
+         * @param op top level operation of the parsed request, null if malformed
+         * @param symbol symbol of the request, null for the default symbol
+         * @param username user logged in on the connection, null if none
+         * @return response to send back instead of running the request, null if admitted
+         */
+        public RetryResponse admit (String op, String symbol, String username) {
+            // malformed request, charged as a query so it can't skip the limits
+            boolean order = op != null && ORDER_OPERATIONS.contains(op);
+            boolean query = op == null || QUERY_OPERATIONS.contains(op);
+
+            if (!order && !query)
+                return null;
+
+            long now = System.nanoTime();
+
+            long wait = acquire(order ? this.orders : this.queries, now);
+
+            if (wait == 0 && username != null)
+                wait = acquire(order ? userBucket(userOrders, username, orderRate, orderBurst, now) : userBucket(userQueries, username, queryRate, queryBurst, now), now);
+
+            if (wait > 0) {
+                if (metrics != null)
+                    metrics.increment("requests.throttled");
+
+                return new RetryResponse(op == null ? "unknown" : op, 429, "too many requests", toRetryMillis(wait));
+            }
+
+            if (op != null && sloNanos > 0 && EXPENSIVE_OPERATIONS.contains(op)) {
+                long delay = symbols.getQueueDelay(symbol);
+
+                if (delay > sloNanos) {
+                    if (metrics != null)
+                        metrics.increment("requests.shed");
+
+                    return new RetryResponse(op, 503, "server busy", toRetryMillis(delay));
+                }
+            }
+
+            return null;
+        }
+    }
+
+    // tokens per second and burst of the order and query buckets, rate 0 disables a limit
+    private final double orderRate;
+    private final int orderBurst;
+    private final double queryRate;
+    private final int queryBurst;
+
+    // engine queue delay above which expensive reads are shed, 0 disables shedding
+    private final long sloNanos;
+
+    // buckets of every user, shared by all the connections of the user
+    private final ConcurrentHashMap<String, TokenBucket> userOrders = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TokenBucket> userQueries = new ConcurrentHashMap<>();
+
+    private final SymbolRegistry symbols;
+
+    // throttled and shed requests, may be null
+    private final MetricsRegistry metrics;
+
+    /**
+     * creates a rate limiter
+     *
+     * @param orderRate order operations per second, 0 for no limit
+     * @param orderBurst order operations accepted in a row
+     * @param queryRate query operations per second, 0 for no limit
+     * @param queryBurst query operations accepted in a row
+     * @param sloMillis engine queue delay in milliseconds above which expensive reads are shed, 0 to never shed
+     * @param symbols registry of the engine shards
+     * @param metrics server metrics
+     */
+    public RateLimiter (double orderRate, int orderBurst, double queryRate, int queryBurst, long sloMillis, SymbolRegistry symbols, MetricsRegistry metrics) {
+        this.orderRate = orderRate;
+        this.orderBurst = Math.max(orderBurst, 1);
+        this.queryRate = queryRate;
+        this.queryBurst = Math.max(queryBurst, 1);
+        this.sloNanos = TimeUnit.MILLISECONDS.toNanos(sloMillis);
+        this.symbols = symbols;
+        this.metrics = metrics;
+
+        // reported from the start, even before the first rejection
+        if (metrics != null) {
+            metrics.counter("requests.throttled");
+            metrics.counter("requests.shed");
+        }
+    }
+
+    /**
+     * creates the buckets of a new connection
+     *
+     * @return session of the connection
+     */
+    public Session newSession () {
+        return new Session(System.nanoTime());
+    }
+
+    /**
+     * @param bucket bucket to take a token from, null if unlimited
+     * @param now current time in nanoseconds
+     * @return 0 if admitted, otherwise nanoseconds until the next token
+     */
+    private static long acquire (TokenBucket bucket, long now) {
+        return bucket == null ? 0 : bucket.tryAcquire(now);
+    }
+
+    private static TokenBucket userBucket (ConcurrentHashMap<String, TokenBucket> buckets, String username, double rate, int burst, long now) {
+        if (rate <= 0)
+            return null;
+
+        return buckets.computeIfAbsent(username, u -> new TokenBucket(rate, burst, now));
+    }
+
+    private static long toRetryMillis (long nanos) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+    }
+}
@@ -2,12 +2,16 @@ package com.unipi.lab3.cross.server;
 
 import java.net.*;
 import java.io.*;
+import java.time.Instant;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.unipi.lab3.cross.server.UdpNotifier;
 import com.unipi.lab3.cross.json.response.Notification;
+import com.unipi.lab3.cross.jfr.UdpSendEvent;
 
 /**
  * class that sends async UDP notifications to clients
@@ -24,6 +28,13 @@ public class UdpNotifier {
 
     private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
 
+    // notifications waiting for or being sent
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+
+    // sent and failed notifications
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
     public UdpNotifier (int serverPort) throws Exception {
         this.socket = new DatagramSocket(serverPort);
         this.udpClients = new ConcurrentHashMap<>();
@@ -33,6 +44,18 @@ public class UdpNotifier {
         return this.udpClients.get(username);
     }
 
+    public int getInFlight () {
+        return this.inFlight.get();
+    }
+
+    public long getSent () {
+        return this.sent.sum();
+    }
+
+    public long getFailed () {
+        return this.failed.sum();
+    }
+
     /**
      * register a client in the map to receive udp notifications
      * 
@@ -61,19 +84,48 @@ public class UdpNotifier {
      * @param username
      * @param notification
      */
-    public synchronized void notifyClient (String username, Notification notification) {
+    public void notifyClient (String username, Notification notification) {
         // check if this username occurs in the map
         if (!this.udpClients.containsKey(username)) 
             return;
 
+        // count callers queued on the socket as backlog
+        this.inFlight.incrementAndGet();
+
+        try {
+            send(username, notification);
+        }
+        finally {
+            this.inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * serializes and sends a notification
+     * 
+     * @param username username of the client
+     * @param notification notification to send
+     */
+    private synchronized void send (String username, Notification notification) {
+        UdpSendEvent event = new UdpSendEvent();
+        event.begin();
+
         try {
             // get user info from map
             InetSocketAddress clientAddress = this.udpClients.get(username);
 
+            // client removed meanwhile
+            if (clientAddress == null)
+                return;
+
             // get address and port
             InetAddress addr = clientAddress.getAddress();
             int clientPort = clientAddress.getPort();
 
+            // stamp send time, used by clients to measure delivery lag
+            Instant now = Instant.now();
+            notification.setSentAt(now.getEpochSecond() * 1_000_000L + now.getNano() / 1_000);
+
             // convert notification to json
             String jsonString = gson.toJson(notification);
     
@@ -85,9 +137,19 @@ public class UdpNotifier {
 
             // send packet 
             socket.send(packet);
+
+            this.sent.increment();
+
+            event.end();
+
+            if (event.shouldCommit()) {
+                event.setNotification(username, notification.getNotification(), notification.getTrades().size(), buf.length);
+                event.commit();
+            }
         }
         // send failure
         catch (IOException e) {
+            this.failed.increment();
             System.err.println("UDP error to " + username + ": " + e.getMessage());
         }
 
@@ -0,0 +1,259 @@
+package com.unipi.lab3.cross.util;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * asynchronous structured logger
+ *
+ * callers only copy the event in a slot of a bounded ring buffer, with a compare-and-set
+ * on the tail, and never block or format text; a background thread drains the ring,
+ * formats the events as "time level message key=value ..." lines and writes them in batches
+ *
+ * events below the configured level are discarded before touching the ring,
+ * events logged while the ring is full are dropped and counted
+ */
+
+public final class AsyncLogger {
+
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+
+    // idle wait of the writer thread when the ring is empty
+    private static final long IDLE_NANOS = 1_000_000;
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static final AsyncLogger INSTANCE = new AsyncLogger(DEFAULT_CAPACITY);
+
+    // ring slots, written by producers and read by the writer thread
+    private final long[] timestamps;
+    private final Level[] levels;
+    private final String[] messages;
+    private final Object[][] fields;
+
+    // sequence of every slot: equal to the position when free, position + 1 when published
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    // next position to claim
+    private final AtomicLong tail = new AtomicLong(0);
+
+    // next position to read, owned by the writer thread
+    private long head = 0;
+
+    private volatile Level level = Level.INFO;
+
+    private final LongAdder dropped = new LongAdder();
+    private long reportedDrops = 0;
+
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private AsyncLogger (int capacity) {
+        this.timestamps = new long[capacity];
+        this.levels = new Level[capacity];
+        this.messages = new String[capacity];
+        this.fields = new Object[capacity][];
+
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            this.sequences.set(i, i);
+        }
+
+        this.mask = capacity - 1;
+
+        this.writer = new Thread(this::run, "async-logger");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public static AsyncLogger get () {
+        return INSTANCE;
+    }
+
+    public Level getLevel () {
+        return this.level;
+    }
+
+    public void setLevel (Level level) {
+        this.level = level;
+    }
+
+    public boolean isEnabled (Level level) {
+        return level.compareTo(this.level) >= 0;
+    }
+
+    public long getDropped () {
+        return this.dropped.sum();
+    }
+
+    public void debug (String message, Object... keyValues) {
+        log(Level.DEBUG, message, keyValues);
+    }
+
+    public void info (String message, Object... keyValues) {
+        log(Level.INFO, message, keyValues);
+    }
+
+    public void warn (String message, Object... keyValues) {
+        log(Level.WARN, message, keyValues);
+    }
+
+    public void error (String message, Object... keyValues) {
+        log(Level.ERROR, message, keyValues);
+    }
+
+    /**
+     * logs an event without blocking
+     * values are formatted later by the writer thread, so they should not be mutated after the call
+     *
+     * @param level level of the event
+     * @param message event message
+     * @param keyValues alternating keys and values
+     * @return true if the event was queued, false if filtered out or dropped
+     */
+    public boolean log (Level level, String message, Object... keyValues) {
+        if (!isEnabled(level))
+            return false;
+
+        long position = this.tail.get();
+        int index;
+
+        // claim a free slot
+        while (true) {
+            index = (int) (position & this.mask);
+            long sequence = this.sequences.getAcquire(index);
+
+            if (sequence == position) {
+                if (this.tail.compareAndSet(position, position + 1))
+                    break;
+
+                position = this.tail.get();
+            }
+            else if (sequence < position) {
+                // ring full, the writer is behind
+                this.dropped.increment();
+                return false;
+            }
+            else {
+                // slot claimed by another producer
+                position = this.tail.get();
+            }
+        }
+
+        this.timestamps[index] = System.currentTimeMillis();
+        this.levels[index] = level;
+        this.messages[index] = message;
+        this.fields[index] = keyValues;
+
+        // publish the slot to the writer
+        this.sequences.setRelease(index, position + 1);
+
+        return true;
+    }
+
+    /**
+     * writes all queued events, called on shutdown since the writer is a daemon thread
+     */
+    public synchronized void flush () {
+        drain();
+    }
+
+    /**
+     * stops the writer thread after writing all queued events
+     */
+    public void close () {
+        this.running = false;
+        LockSupport.unpark(this.writer);
+
+        try {
+            this.writer.join(1000);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        flush();
+    }
+
+    private void run () {
+        while (this.running) {
+            if (!drain())
+                LockSupport.parkNanos(IDLE_NANOS);
+        }
+    }
+
+    /**
+     * formats and writes every published event in one batch
+     *
+     * @return true if something was written
+     */
+    private synchronized boolean drain () {
+        StringBuilder sb = null;
+
+        while (true) {
+            int index = (int) (this.head & this.mask);
+
+            // next slot not published yet
+            if (this.sequences.getAcquire(index) != this.head + 1)
+                break;
+
+            if (sb == null)
+                sb = new StringBuilder(4096);
+
+            format(sb, this.timestamps[index], this.levels[index], this.messages[index], this.fields[index]);
+
+            // release references and free the slot for the next round
+            this.messages[index] = null;
+            this.fields[index] = null;
+            this.sequences.setRelease(index, this.head + this.mask + 1);
+
+            this.head++;
+        }
+
+        long drops = this.dropped.sum();
+
+        if (drops > this.reportedDrops) {
+            if (sb == null)
+                sb = new StringBuilder();
+
+            format(sb, System.currentTimeMillis(), Level.WARN, "log events dropped", new Object[] {"count", drops - this.reportedDrops});
+            this.reportedDrops = drops;
+        }
+
+        if (sb == null)
+            return false;
+
+        // console may be replaced at runtime, always write to the current one
+        System.out.print(sb);
+        System.out.flush();
+
+        return true;
+    }
+
+    private static void format (StringBuilder sb, long timestamp, Level level, String message, Object[] keyValues) {
+        TIME_FORMAT.formatTo(Instant.ofEpochMilli(timestamp), sb);
+        sb.append(' ').append(level);
+
+        // align messages
+        if (level.name().length() == 4)
+            sb.append(' ');
+
+        sb.append(' ').append(message);
+
+        if (keyValues != null) {
+            for (int i = 0; i + 1 < keyValues.length; i += 2) {
+                sb.append(' ').append(keyValues[i]).append('=').append(keyValues[i + 1]);
+            }
+        }
+
+        sb.append(System.lineSeparator());
+    }
+}
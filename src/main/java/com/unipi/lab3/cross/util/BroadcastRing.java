@@ -0,0 +1,252 @@
+package com.unipi.lab3.cross.util;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * single producer broadcast ring buffer
+ *
+ * every item is read by every consumer, each one with its own cursor and pace;
+ * the producer waits for gating consumers, which never lose an item, and never
+ * for the others: a lossy consumer lapped by the producer skips the overwritten
+ * items and counts them as lost
+ *
+ * items are added by a single producer at a time (the caller serializes them)
+ * and become visible to consumers only when published, so items added together
+ * are seen together
+ */
+
+public class BroadcastRing<T> {
+
+    /**
+     * read position of a consumer
+     * a cursor must be used by a single thread
+     */
+    public final class Cursor {
+        // next sequence to read
+        private long next;
+
+        // items overwritten before being read
+        private long lost = 0;
+
+        // next sequence to read as seen by the producer, only for gating cursors
+        private final AtomicLong gate;
+
+        private Cursor (long next, boolean gating) {
+            this.next = next;
+            this.gate = gating ? new AtomicLong(next) : null;
+        }
+
+        /**
+         * reads the published items not yet read, in order
+         *
+         * @param consumer consumer of the items
+         * @param max maximum number of items to read
+         * @return number of items read, lost ones excluded
+         */
+        public int poll (Consumer<T> consumer, int max) {
+            long available = published.get();
+            int read = 0;
+
+            while (this.next <= available && read < max) {
+                // lapped, the oldest items still in the ring come next
+                if (available - this.next >= capacity) {
+                    long oldest = available - capacity + 1;
+
+                    this.lost += oldest - this.next;
+                    this.next = oldest;
+                }
+
+                int index = (int) (this.next & mask);
+
+                // the slot is valid only if its sequence is the same before and after the read
+                long before = sequences.get(index);
+                T item = items.get(index);
+                long after = sequences.get(index);
+
+                if (before != this.next || after != this.next) {
+                    // overwritten while reading
+                    this.lost++;
+                    this.next++;
+                    continue;
+                }
+
+                consumer.accept(item);
+
+                this.next++;
+                read++;
+
+                // the producer may be waiting for this slot
+                if (this.gate != null)
+                    this.gate.lazySet(this.next);
+            }
+
+            return read;
+        }
+
+        public long getLost () {
+            return this.lost;
+        }
+
+        /**
+         * checks from any thread if the consumer is done with an item,
+         * only for gating cursors
+         *
+         * @param sequence sequence of the item
+         * @return true if the item has been read
+         */
+        public boolean hasRead (long sequence) {
+            return this.gate.get() > sequence;
+        }
+
+        /**
+         * @return number of published items not yet read
+         */
+        public long getLag () {
+            return Math.max(0, published.get() - this.next + 1);
+        }
+    }
+
+    private final AtomicReferenceArray<T> items;
+    private final AtomicLongArray sequences;
+    private final int capacity;
+    private final int mask;
+
+    // last sequence added by the producer, only accessed by the producer
+    private long added = -1;
+
+    // last sequence visible to consumers
+    private final AtomicLong published = new AtomicLong(-1);
+
+    // consumers the producer waits for before overwriting an item
+    private final CopyOnWriteArrayList<Cursor> gatingCursors = new CopyOnWriteArrayList<>();
+
+    // wait of the producer between checks of the gating consumers
+    private static final long GATE_PARK_NANOS = 1_000;
+
+    /**
+     * creates a new ring
+     *
+     * @param capacity number of slots, rounded up to a power of two
+     */
+    public BroadcastRing (int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("invalid ring capacity");
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+
+        this.items = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        this.capacity = size;
+        this.mask = size - 1;
+
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, -1);
+        }
+    }
+
+    public int getCapacity () {
+        return this.capacity;
+    }
+
+    /**
+     * adds an item, visible to consumers at the next publish
+     * a run of unpublished items as long as the ring is published anyway;
+     * waits while a gating consumer hasn't read the item to overwrite
+     *
+     * @param item item to add
+     */
+    public void add (T item) {
+        long sequence = this.added + 1;
+
+        if (!this.gatingCursors.isEmpty())
+            awaitGating(sequence - this.capacity);
+
+        this.added = sequence;
+        int index = (int) (sequence & this.mask);
+
+        // invalidate the slot first, so a consumer never pairs the new item with the old sequence
+        this.sequences.set(index, -1);
+        this.items.set(index, item);
+        this.sequences.set(index, sequence);
+
+        if (sequence - this.published.get() >= this.capacity)
+            publish();
+    }
+
+    /**
+     * waits until every gating consumer has read the given sequence
+     *
+     * @param sequence sequence of the item about to be overwritten, negative if none
+     */
+    private void awaitGating (long sequence) {
+        while (sequence >= 0 && minGate() <= sequence) {
+            // consumers can only read published items
+            publish();
+
+            LockSupport.parkNanos(GATE_PARK_NANOS);
+        }
+    }
+
+    private long minGate () {
+        long min = Long.MAX_VALUE;
+
+        for (Cursor cursor : this.gatingCursors) {
+            min = Math.min(min, cursor.gate.get());
+        }
+
+        return min;
+    }
+
+    // last sequence visible to consumers, -1 if none
+    public long getPublished () {
+        return this.published.get();
+    }
+
+    /**
+     * makes every added item visible to consumers
+     */
+    public void publish () {
+        if (this.published.get() != this.added)
+            this.published.set(this.added);
+    }
+
+    /**
+     * creates a lossy cursor reading the items published from now on
+     *
+     * @return new cursor
+     */
+    public Cursor newCursor () {
+        return new Cursor(this.published.get() + 1, false);
+    }
+
+    /**
+     * creates a gating cursor reading the items published from now on,
+     * the producer waits for it instead of overwriting unread items;
+     * must be created while the producer is idle and closed when no longer read
+     *
+     * @return new cursor
+     */
+    public Cursor newGatingCursor () {
+        Cursor cursor = new Cursor(this.published.get() + 1, true);
+
+        this.gatingCursors.add(cursor);
+
+        return cursor;
+    }
+
+    /**
+     * stops the producer waiting for a gating cursor
+     *
+     * @param cursor cursor no longer read
+     */
+    public void close (Cursor cursor) {
+        this.gatingCursors.remove(cursor);
+    }
+}
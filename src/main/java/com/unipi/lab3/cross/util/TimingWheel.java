@@ -0,0 +1,208 @@
+package com.unipi.lab3.cross.util;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * hashed timing wheel to expire items at a given deadline
+ *
+ * time is split in ticks, every tick maps to a bucket of the wheel;
+ * timeouts far in the future wrap around the wheel and are checked again
+ * on the next round
+ *
+ * scheduling can be done from any thread, buckets are owned by the single
+ * thread that calls advance, which only visits the buckets of elapsed ticks
+ *
+ * re-arming a timeout only moves its deadline forward in O(1),
+ * the timeout is moved to the right bucket lazily when its old bucket is reached
+ */
+
+public class TimingWheel<T> {
+
+    /**
+     * handle of a scheduled item
+     */
+    public static final class Timeout<T> {
+        private final T item;
+        private volatile long deadline;
+        private volatile boolean cancelled;
+
+        private Timeout (T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+            this.cancelled = false;
+        }
+
+        public T getItem () {
+            return this.item;
+        }
+
+        public long getDeadline () {
+            return this.deadline;
+        }
+
+        /**
+         * moves the deadline of the timeout
+         *
+         * @param deadline new deadline in milliseconds
+         */
+        public void rearm (long deadline) {
+            this.deadline = deadline;
+        }
+
+        /**
+         * cancels the timeout, it will be dropped when its bucket is reached
+         */
+        public void cancel () {
+            this.cancelled = true;
+        }
+
+        public boolean isCancelled () {
+            return this.cancelled;
+        }
+    }
+
+    // buckets of the wheel, one per tick
+    private final ArrayDeque<Timeout<T>>[] buckets;
+    private final int mask;
+
+    // duration of a tick in milliseconds
+    private final long tickDuration;
+
+    // next tick to process
+    private long currentTick;
+
+    // false until the first advance, for wheels started by their first time
+    private boolean started;
+
+    // timeouts scheduled by other threads, not yet placed in a bucket
+    private final ConcurrentLinkedQueue<Timeout<T>> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * creates a new timing wheel
+     *
+     * @param tickDuration duration of a tick in milliseconds
+     * @param wheelSize number of buckets, rounded up to a power of two
+     * @param now current time in milliseconds
+     */
+    public TimingWheel (long tickDuration, int wheelSize, long now) {
+        this(tickDuration, wheelSize);
+
+        this.currentTick = now / tickDuration;
+        this.started = true;
+    }
+
+    /**
+     * creates a new timing wheel starting at the time of the first advance,
+     * so it can be driven by recorded times instead of the clock
+     *
+     * @param tickDuration duration of a tick in milliseconds
+     * @param wheelSize number of buckets, rounded up to a power of two
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel (long tickDuration, int wheelSize) {
+        if (tickDuration <= 0 || wheelSize <= 0)
+            throw new IllegalArgumentException("invalid timing wheel parameters");
+
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize)
+            size <<= 1;
+
+        this.buckets = new ArrayDeque[size];
+        for (int i = 0; i < size; i++) {
+            this.buckets[i] = new ArrayDeque<>();
+        }
+
+        this.mask = size - 1;
+        this.tickDuration = tickDuration;
+        this.currentTick = 0;
+        this.started = false;
+    }
+
+    public long getTickDuration () {
+        return this.tickDuration;
+    }
+
+    /**
+     * schedules an item to expire at the given deadline
+     * can be called from any thread
+     *
+     * @param item item to expire
+     * @param deadline deadline in milliseconds
+     * @return handle to re-arm or cancel the timeout
+     */
+    public Timeout<T> schedule (T item, long deadline) {
+        Timeout<T> timeout = new Timeout<>(item, deadline);
+
+        this.pending.add(timeout);
+
+        return timeout;
+    }
+
+    /**
+     * processes all ticks elapsed up to the given time,
+     * passing every expired item to the given consumer
+     * must always be called by the same thread
+     *
+     * @param now current time in milliseconds
+     * @param expired consumer of expired items
+     */
+    public void advance (long now, Consumer<T> expired) {
+        long targetTick = now / this.tickDuration;
+
+        if (!this.started) {
+            this.currentTick = targetTick;
+            this.started = true;
+        }
+
+        // place timeouts scheduled since the last call
+        Timeout<T> timeout;
+        while ((timeout = this.pending.poll()) != null) {
+            place(timeout, this.currentTick);
+        }
+
+        // visit every bucket at most once, even after a long pause
+        long ticks = Math.min(targetTick - this.currentTick + 1, this.buckets.length);
+
+        for (long i = 0; i < ticks; i++) {
+            ArrayDeque<Timeout<T>> bucket = this.buckets[(int) (this.currentTick & this.mask)];
+
+            // only timeouts already in the bucket, re-placed ones go to later ticks
+            int count = bucket.size();
+
+            for (int j = 0; j < count; j++) {
+                timeout = bucket.poll();
+
+                // dropped lazily
+                if (timeout.isCancelled())
+                    continue;
+
+                if (timeout.getDeadline() <= now) {
+                    expired.accept(timeout.getItem());
+                }
+                else {
+                    // re-armed or due in a later round
+                    place(timeout, this.currentTick + 1);
+                }
+            }
+
+            this.currentTick++;
+        }
+
+        if (this.currentTick <= targetTick)
+            this.currentTick = targetTick + 1;
+    }
+
+    /**
+     * puts a timeout in the bucket of its deadline tick
+     *
+     * @param timeout timeout to place
+     * @param minTick earliest tick the timeout can be placed in
+     */
+    private void place (Timeout<T> timeout, long minTick) {
+        long tick = Math.max(timeout.getDeadline() / this.tickDuration, minTick);
+
+        this.buckets[(int) (tick & this.mask)].add(timeout);
+    }
+}
@@ -0,0 +1,60 @@
+package com.unipi.lab3.cross.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * token bucket to limit the rate of an operation
+ *
+ * tokens are added at a fixed rate up to the burst size, every operation
+ * takes one; refill is computed lazily from the elapsed time, so an idle
+ * bucket costs nothing
+ */
+
+public class TokenBucket {
+
+    // tokens added per nanosecond
+    private final double ratePerNano;
+
+    // maximum number of tokens
+    private final double burst;
+
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * creates a full bucket
+     *
+     * @param perSecond tokens added per second
+     * @param burst maximum number of tokens
+     * @param now current time in nanoseconds
+     */
+    public TokenBucket (double perSecond, int burst, long now) {
+        if (perSecond <= 0 || burst <= 0)
+            throw new IllegalArgumentException("invalid token bucket parameters");
+
+        this.ratePerNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = now;
+    }
+
+    /**
+     * takes a token if available
+     *
+     * @param now current time in nanoseconds
+     * @return 0 if a token was taken, otherwise nanoseconds until the next token
+     */
+    public synchronized long tryAcquire (long now) {
+        if (now > this.lastRefill) {
+            this.tokens = Math.min(this.burst, this.tokens + (now - this.lastRefill) * this.ratePerNano);
+            this.lastRefill = now;
+        }
+
+        if (this.tokens >= 1) {
+            this.tokens -= 1;
+            return 0;
+        }
+
+        return Math.max(1, (long) Math.ceil((1 - this.tokens) / this.ratePerNano));
+    }
+}
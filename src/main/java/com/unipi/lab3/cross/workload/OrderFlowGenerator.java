@@ -0,0 +1,371 @@
+package com.unipi.lab3.cross.workload;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.unipi.lab3.cross.engine.Command;
+import com.unipi.lab3.cross.engine.CommandJournal;
+
+/**
+ * seedable generator of a synthetic order flow, as engine commands
+ * with their arrival time, the same profile always giving the same flow
+ *
+ * commands can be applied to an order book in process, replayed or written
+ * as a journal, or sent by a client; the flow never looks at the book, so
+ * cancellations target the ids the book gives to the inserts of the flow
+ * when it applies them in order from a known id (one id per insert),
+ * or the ids acknowledged by a server
+ */
+
+public class OrderFlowGenerator {
+
+    private final WorkloadProfile profile;
+    private final String symbol;
+
+    private final String[] users;
+
+    // cumulative activity of the users, for the skewed choice
+    private final double[] userWeights;
+
+    private final SplittableRandom random;
+
+    // time of the last command since the start of the flow
+    private long elapsedNanos = 0;
+
+    private double mid;
+
+    // commands generated, sequence of the next entry
+    private long sequence = 0;
+
+    // id the book gives to the next insert of the flow
+    private int nextId;
+    private int lastOrderId = -1;
+
+    // true if the last insert is the last cancellation candidate
+    private boolean lastRemembered = false;
+
+    // ids and owners of the limit and stop orders of the flow, cancellation candidates
+    private final ArrayList<Integer> openIds = new ArrayList<>();
+    private final ArrayList<String> openUsers = new ArrayList<>();
+
+    /**
+     * creates a generator for a population of users named user0, user1, ...
+     *
+     * @param profile parameters of the flow
+     * @param symbol symbol of the commands, null for the default one
+     */
+    public OrderFlowGenerator (WorkloadProfile profile, String symbol) {
+        this(profile, symbol, userNames(profile.getUsers()), profile.getSeed(), 1);
+    }
+
+    /**
+     * creates a generator for the given users
+     *
+     * @param profile parameters of the flow
+     * @param symbol symbol of the commands, null for the default one
+     * @param users usernames, the first ones the most active
+     * @param seed seed of the flow, replacing the one of the profile
+     * @param firstId id the book will give to the first insert
+     */
+    public OrderFlowGenerator (WorkloadProfile profile, String symbol, List<String> users, long seed, int firstId) {
+        profile.validate();
+
+        if (users.isEmpty())
+            throw new IllegalArgumentException("no users");
+
+        this.profile = profile;
+        this.symbol = symbol;
+        this.users = users.toArray(new String[0]);
+        this.random = new SplittableRandom(seed);
+        this.mid = profile.getBasePrice();
+        this.nextId = firstId;
+
+        // zipf like activity, user i weighs 1 / (i + 1)^skew
+        this.userWeights = new double[this.users.length];
+
+        double total = 0;
+
+        for (int i = 0; i < this.users.length; i++) {
+            total += 1.0 / Math.pow(i + 1, profile.getUserSkew());
+            this.userWeights[i] = total;
+        }
+    }
+
+    private static List<String> userNames (int count) {
+        String[] names = new String[count];
+
+        for (int i = 0; i < count; i++) {
+            names[i] = "user" + i;
+        }
+
+        return Arrays.asList(names);
+    }
+
+    /**
+     * @return time of the last command since the start of the flow, in nanoseconds
+     */
+    public long getElapsedNanos () {
+        return this.elapsedNanos;
+    }
+
+    /**
+     * replaces the id of the last insert with the one given by a server,
+     * for flows sent to a server instead of applied from a known id
+     *
+     * @param orderId id given to the order, -1 if rejected
+     */
+    public void acknowledge (int orderId) {
+        this.lastOrderId = orderId;
+
+        if (!this.lastRemembered)
+            return;
+
+        int last = this.openIds.size() - 1;
+
+        if (orderId == -1) {
+            this.openIds.remove(last);
+            this.openUsers.remove(last);
+        }
+        else {
+            this.openIds.set(last, orderId);
+        }
+
+        this.lastRemembered = false;
+    }
+
+    /**
+     * generates the next command of the flow
+     *
+     * @return the command with its sequence and arrival time, in milliseconds since the start of the flow
+     */
+    public CommandJournal.Entry next () {
+        // poisson arrivals, exponential gaps
+        double gap = -Math.log(1.0 - this.random.nextDouble()) / this.profile.getRate();
+
+        this.elapsedNanos += (long) (gap * 1e9);
+
+        walk(gap);
+
+        this.lastRemembered = false;
+
+        Command command = nextCommand();
+
+        this.sequence++;
+
+        return new CommandJournal.Entry(this.sequence, this.elapsedNanos / 1_000_000, command);
+    }
+
+    /**
+     * generates a number of commands
+     *
+     * @param count number of commands
+     * @return commands in arrival order
+     */
+    public List<CommandJournal.Entry> generate (int count) {
+        ArrayList<CommandJournal.Entry> entries = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            entries.add(next());
+        }
+
+        return entries;
+    }
+
+    /**
+     * moves the mid price as an ornstein uhlenbeck process over the elapsed time,
+     * sampled exactly so the walk doesn't depend on the rate
+     *
+     * @param dt elapsed time in seconds
+     */
+    private void walk (double dt) {
+        double theta = this.profile.getReversion();
+        double sigma = this.profile.getVolatility();
+        double noise = this.random.nextGaussian();
+
+        if (theta > 0) {
+            double decay = Math.exp(-theta * dt);
+
+            this.mid = this.profile.getBasePrice() + (this.mid - this.profile.getBasePrice()) * decay
+                + sigma * Math.sqrt((1 - decay * decay) / (2 * theta)) * noise;
+        }
+        else {
+            this.mid += sigma * Math.sqrt(dt) * noise;
+        }
+
+        this.mid = Math.max(1, this.mid);
+    }
+
+    private Command nextCommand () {
+        double draw = this.random.nextDouble();
+
+        double cancel = this.profile.getCancelRatio();
+        double market = cancel + this.profile.getMarketRatio();
+        double stop = market + this.profile.getStopRatio();
+
+        if (draw < cancel && !this.openIds.isEmpty())
+            return cancel();
+
+        String user = nextUser();
+        String side = this.random.nextBoolean() ? "bid" : "ask";
+        int size = nextSize();
+
+        this.lastOrderId = this.nextId++;
+
+        if (draw >= cancel && draw < market)
+            return Command.market(this.symbol, user, side, size);
+
+        if (draw >= market && draw < stop) {
+            remember(user);
+            return Command.stop(this.symbol, user, side, size, stopPrice(side));
+        }
+
+        remember(user);
+        return Command.limit(this.symbol, user, side, size, limitPrice(side));
+    }
+
+    private Command cancel () {
+        int index = this.random.nextInt(this.openIds.size());
+
+        int orderId = this.openIds.get(index);
+        String user = this.openUsers.get(index);
+
+        removeOpen(index);
+
+        this.lastOrderId = -1;
+
+        return Command.cancel(this.symbol, user, orderId);
+    }
+
+    /**
+     * keeps the last insert as a cancellation candidate,
+     * dropping a random one when there are too many
+     *
+     * @param user owner of the order
+     */
+    private void remember (String user) {
+        if (this.openIds.size() >= this.profile.getMaxOpenOrders())
+            removeOpen(this.random.nextInt(this.openIds.size()));
+
+        this.openIds.add(this.lastOrderId);
+        this.openUsers.add(user);
+
+        this.lastRemembered = true;
+    }
+
+    // swaps the last candidate in, order of the candidates doesn't matter
+    private void removeOpen (int index) {
+        int last = this.openIds.size() - 1;
+
+        this.openIds.set(index, this.openIds.get(last));
+        this.openUsers.set(index, this.openUsers.get(last));
+
+        this.openIds.remove(last);
+        this.openUsers.remove(last);
+    }
+
+    private String nextUser () {
+        double draw = this.random.nextDouble() * this.userWeights[this.userWeights.length - 1];
+
+        int index = Arrays.binarySearch(this.userWeights, draw);
+
+        if (index < 0)
+            index = -index - 1;
+
+        return this.users[Math.min(index, this.users.length - 1)];
+    }
+
+    /**
+     * passive orders rest at a geometric distance from the mid price,
+     * crossing ones are priced a few ticks through it
+     */
+    private int limitPrice (String side) {
+        int price;
+
+        if (this.random.nextDouble() < this.profile.getCrossRatio()) {
+            int through = 1 + geometric(2);
+
+            price = side.equals("bid") ? (int) Math.ceil(this.mid) + through : (int) Math.floor(this.mid) - through;
+        }
+        else {
+            int offset = geometric(this.profile.getDepthMean());
+
+            price = side.equals("bid") ? (int) Math.floor(this.mid) - offset : (int) Math.ceil(this.mid) + offset;
+        }
+
+        return Math.max(1, price);
+    }
+
+    /**
+     * stop prices cluster on round prices beyond the mid price,
+     * nearer clusters taking more stops, so a move through one triggers many
+     */
+    private int stopPrice (String side) {
+        int spacing = this.profile.getStopSpacing();
+
+        // cluster k is chosen with weight 1 / k
+        int cluster = 1;
+        double draw = this.random.nextDouble() * harmonic(this.profile.getStopClusters());
+
+        while (cluster < this.profile.getStopClusters() && (draw -= 1.0 / cluster) > 0) {
+            cluster++;
+        }
+
+        int price;
+
+        if (side.equals("bid"))
+            price = ((int) Math.floor(this.mid / spacing) + cluster) * spacing;
+        else
+            price = ((int) Math.ceil(this.mid / spacing) - cluster) * spacing;
+
+        return Math.max(spacing, price);
+    }
+
+    private int nextSize () {
+        double mean = this.profile.getSizeMean();
+        double size;
+
+        switch (this.profile.getSizeDistribution()) {
+            case FIXED:
+                size = mean;
+            break;
+
+            case UNIFORM:
+                size = 1 + this.random.nextInt((int) Math.max(1, 2 * mean - 1));
+            break;
+
+            case LOGNORMAL:
+                // median at the mean size
+                size = Math.ceil(mean * Math.exp(this.profile.getSizeSigma() * this.random.nextGaussian()));
+            break;
+
+            default:
+                size = 1 + geometric(mean - 1);
+        }
+
+        return (int) Math.max(1, Math.min(this.profile.getMaxSize(), size));
+    }
+
+    /**
+     * draws a geometric number of failures with the given mean
+     */
+    private int geometric (double mean) {
+        if (mean <= 0)
+            return 0;
+
+        double p = 1.0 / (1.0 + mean);
+
+        return (int) Math.floor(Math.log(1.0 - this.random.nextDouble()) / Math.log(1.0 - p));
+    }
+
+    private static double harmonic (int n) {
+        double sum = 0;
+
+        for (int k = 1; k <= n; k++) {
+            sum += 1.0 / k;
+        }
+
+        return sum;
+    }
+}
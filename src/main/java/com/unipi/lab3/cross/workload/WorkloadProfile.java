@@ -0,0 +1,226 @@
+package com.unipi.lab3.cross.workload;
+
+import java.util.Properties;
+
+/**
+ * parameters of a synthetic order flow
+ *
+ * arrivals are a poisson process, the mid price a mean reverting walk,
+ * order values are drawn around the mid price; every value has a default,
+ * properties only need the ones to change
+ */
+
+public class WorkloadProfile {
+
+    public enum SizeDistribution { FIXED, UNIFORM, GEOMETRIC, LOGNORMAL }
+
+    // seed of the random generator, the same seed gives the same flow
+    private long seed = 42;
+
+    // mean number of commands per second
+    private double rate = 1000;
+
+    // number of users and skew of their activity, 0 for every user equally active
+    private int users = 32;
+    private double userSkew = 1.0;
+
+    // mid price walk: starting and long run price, pull back per second, noise per square root of second
+    private int basePrice = 10000;
+    private double reversion = 0.5;
+    private double volatility = 20;
+
+    // share of commands by kind, limit orders take the rest
+    private double cancelRatio = 0.3;
+    private double marketRatio = 0.05;
+    private double stopRatio = 0.05;
+
+    // share of limit orders priced through the mid price
+    private double crossRatio = 0.1;
+
+    // mean distance in ticks of passive limit orders from the mid price
+    private double depthMean = 5;
+
+    // sizes, mean of the distribution and spread of the lognormal one
+    private SizeDistribution sizeDistribution = SizeDistribution.GEOMETRIC;
+    private double sizeMean = 5;
+    private double sizeSigma = 1.0;
+    private int maxSize = 100;
+
+    // stop prices are multiples of the spacing, at most the given number of steps from the mid price
+    private int stopSpacing = 10;
+    private int stopClusters = 3;
+
+    // orders of the flow kept as cancellation candidates
+    private int maxOpenOrders = 10000;
+
+    /**
+     * builds a profile from properties, missing ones keep their default
+     *
+     * @param props workload properties
+     * @return the profile
+     */
+    public static WorkloadProfile load (Properties props) {
+        WorkloadProfile profile = new WorkloadProfile();
+
+        profile.seed = Long.parseLong(props.getProperty("seed", String.valueOf(profile.seed)));
+        profile.rate = Double.parseDouble(props.getProperty("rate", String.valueOf(profile.rate)));
+        profile.users = Integer.parseInt(props.getProperty("users", String.valueOf(profile.users)));
+        profile.userSkew = Double.parseDouble(props.getProperty("userSkew", String.valueOf(profile.userSkew)));
+        profile.basePrice = Integer.parseInt(props.getProperty("basePrice", String.valueOf(profile.basePrice)));
+        profile.reversion = Double.parseDouble(props.getProperty("reversion", String.valueOf(profile.reversion)));
+        profile.volatility = Double.parseDouble(props.getProperty("volatility", String.valueOf(profile.volatility)));
+        profile.cancelRatio = Double.parseDouble(props.getProperty("cancelRatio", String.valueOf(profile.cancelRatio)));
+        profile.marketRatio = Double.parseDouble(props.getProperty("marketRatio", String.valueOf(profile.marketRatio)));
+        profile.stopRatio = Double.parseDouble(props.getProperty("stopRatio", String.valueOf(profile.stopRatio)));
+        profile.crossRatio = Double.parseDouble(props.getProperty("crossRatio", String.valueOf(profile.crossRatio)));
+        profile.depthMean = Double.parseDouble(props.getProperty("depthMean", String.valueOf(profile.depthMean)));
+        profile.sizeDistribution = SizeDistribution.valueOf(props.getProperty("sizeDistribution", profile.sizeDistribution.name()).trim().toUpperCase());
+        profile.sizeMean = Double.parseDouble(props.getProperty("sizeMean", String.valueOf(profile.sizeMean)));
+        profile.sizeSigma = Double.parseDouble(props.getProperty("sizeSigma", String.valueOf(profile.sizeSigma)));
+        profile.maxSize = Integer.parseInt(props.getProperty("maxSize", String.valueOf(profile.maxSize)));
+        profile.stopSpacing = Integer.parseInt(props.getProperty("stopSpacing", String.valueOf(profile.stopSpacing)));
+        profile.stopClusters = Integer.parseInt(props.getProperty("stopClusters", String.valueOf(profile.stopClusters)));
+        profile.maxOpenOrders = Integer.parseInt(props.getProperty("maxOpenOrders", String.valueOf(profile.maxOpenOrders)));
+
+        profile.validate();
+
+        return profile;
+    }
+
+    /**
+     * gets a predefined profile
+     *
+     * @param name "default"; "deepBook" for many resting levels and few cancels;
+     *             "stopCascade" for a volatile price and dense stop clusters
+     * @return the profile
+     */
+    public static WorkloadProfile preset (String name) {
+        WorkloadProfile profile = new WorkloadProfile();
+
+        switch (name) {
+            case "default":
+            break;
+
+            case "deepBook":
+                profile.cancelRatio = 0.1;
+                profile.marketRatio = 0.02;
+                profile.stopRatio = 0.02;
+                profile.crossRatio = 0.02;
+                profile.depthMean = 200;
+                profile.volatility = 5;
+            break;
+
+            case "stopCascade":
+                profile.stopRatio = 0.3;
+                profile.marketRatio = 0.1;
+                profile.stopSpacing = 5;
+                profile.stopClusters = 2;
+                profile.volatility = 100;
+                profile.reversion = 0.1;
+            break;
+
+            default:
+                throw new IllegalArgumentException("unknown workload profile " + name);
+        }
+
+        return profile;
+    }
+
+    /**
+     * checks the parameters
+     *
+     * @throws IllegalArgumentException on invalid values
+     */
+    public void validate () {
+        if (this.rate <= 0 || this.users <= 0 || this.basePrice <= 0 || this.maxSize <= 0 || this.sizeMean < 1
+            || this.stopSpacing <= 0 || this.stopClusters <= 0 || this.maxOpenOrders <= 0)
+            throw new IllegalArgumentException("invalid workload profile");
+
+        if (this.cancelRatio < 0 || this.marketRatio < 0 || this.stopRatio < 0 || this.cancelRatio + this.marketRatio + this.stopRatio > 1)
+            throw new IllegalArgumentException("invalid workload ratios");
+    }
+
+    public long getSeed () {
+        return this.seed;
+    }
+
+    public void setSeed (long seed) {
+        this.seed = seed;
+    }
+
+    public double getRate () {
+        return this.rate;
+    }
+
+    public void setRate (double rate) {
+        this.rate = rate;
+    }
+
+    public int getUsers () {
+        return this.users;
+    }
+
+    public double getUserSkew () {
+        return this.userSkew;
+    }
+
+    public int getBasePrice () {
+        return this.basePrice;
+    }
+
+    public double getReversion () {
+        return this.reversion;
+    }
+
+    public double getVolatility () {
+        return this.volatility;
+    }
+
+    public double getCancelRatio () {
+        return this.cancelRatio;
+    }
+
+    public double getMarketRatio () {
+        return this.marketRatio;
+    }
+
+    public double getStopRatio () {
+        return this.stopRatio;
+    }
+
+    public double getCrossRatio () {
+        return this.crossRatio;
+    }
+
+    public double getDepthMean () {
+        return this.depthMean;
+    }
+
+    public SizeDistribution getSizeDistribution () {
+        return this.sizeDistribution;
+    }
+
+    public double getSizeMean () {
+        return this.sizeMean;
+    }
+
+    public double getSizeSigma () {
+        return this.sizeSigma;
+    }
+
+    public int getMaxSize () {
+        return this.maxSize;
+    }
+
+    public int getStopSpacing () {
+        return this.stopSpacing;
+    }
+
+    public int getStopClusters () {
+        return this.stopClusters;
+    }
+
+    public int getMaxOpenOrders () {
+        return this.maxOpenOrders;
+    }
+}